@@ -1,44 +1,107 @@
 package matrices;
 
 import java.util.Arrays;
-
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Is a model for a dense matrix. All entries are stored row by row in one
+ * contiguous double array. A matrix may also be a view of a rectangular part
+ * of another matrix: it then shares the array and accesses its rows with the
+ * stride of the viewed matrix.
+ */
 public class ArrayMatrix extends Matrix {
 
     // calculate complete rows first, increases speed by 100 %
     private static final boolean WRITE_BY_ROW = true;
 
     private static final int DEFAULT_VALUE = 0;
-    private static final int NUMBER_OF_THREADS = 8;
-
-    private double[][] content;
+    private static final int NUMBER_OF_THREADS = Runtime.getRuntime()
+            .availableProcessors();
+
+    /**
+     * Edge length of the tiles the multiplication kernel works on. A tile of
+     * the right factor (TILE_SIZE rows of TILE_SIZE doubles) should fit into
+     * the L1/L2 cache.
+     */
+    private static final int TILE_SIZE = 64;
+
+    /**
+     * Number of left rows the multiplication kernel calculates at once. Every
+     * entry of the right factor loaded into a register is used this often.
+     */
+    private static final int ROW_BLOCK = 4;
+
+    private double[] content;
+    private int rows;
+    private int cols;
+
+    // position of entry (0, 0) in content and distance between two rows
+    private int offset;
+    private int stride;
 
     public ArrayMatrix(Matrix mat) {
-        this.content = new double[mat.getRows()][mat.getCols()];
+        initWith(mat.getRows(), mat.getCols());
 
-        for (int row = 0; row < getRows(); ++row) {
-            for (int col = 0; col < getCols(); ++col) {
-                content[row][col] = mat.get(row, col);
+        if (mat instanceof ArrayMatrix) {
+            ArrayMatrix arrMat = (ArrayMatrix) mat;
+            for (int row = 0; row < rows; ++row) {
+                System.arraycopy(arrMat.content, arrMat.rowStart(row),
+                        content, rowStart(row), cols);
+            }
+        } else {
+            for (int row = 0; row < rows; ++row) {
+                int rowStart = rowStart(row);
+                RowCursor cursor = mat.getRowCursor(row);
+                while (cursor.next()) {
+                    content[rowStart + cursor.getCol()] = cursor.getValue();
+                }
             }
         }
     }
 
     public ArrayMatrix(int rows, int cols) {
-        this.content = new double[rows][cols];
+        initWith(rows, cols);
     }
 
+    /**
+     * Imports a two-dimensional array. The entries are always copied into the
+     * flat storage of this matrix, so later changes of the array are not
+     * visible in the matrix.
+     *
+     * @param content
+     *            is a rectangular array.
+     * @param copy
+     *            is ignored, the array is always copied.
+     */
     public ArrayMatrix(double[][] content, boolean copy) {
         if (!isValidMatrix(content)) {
             throw new IllegalArgumentException();
         }
 
-        if (copy) {
-            this.content = new double[content.length][content[0].length];
-            for (int i = 0; i < content.length; ++i) {
-                this.content[i] = Arrays.copyOf(content[i], content[0].length);
-            }
-        } else {
-            this.content = content;
+        initWith(content.length, content[0].length);
+        for (int row = 0; row < rows; ++row) {
+            System.arraycopy(content[row], 0, this.content, rowStart(row), cols);
+        }
+    }
+
+    private ArrayMatrix(double[] content, int offset, int stride, int rows,
+            int cols) {
+        this.content = content;
+        this.offset = offset;
+        this.stride = stride;
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    private void initWith(int rows, int cols) {
+        if ((long) rows * cols > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("MATRIX IS TOO LARGE!");
         }
+        this.rows = rows;
+        this.cols = cols;
+        this.offset = 0;
+        this.stride = cols;
+        this.content = new double[rows * cols];
     }
 
     private boolean isValidMatrix(double[][] content) {
@@ -61,12 +124,52 @@ public class ArrayMatrix extends Matrix {
         return true;
     }
 
+    private int rowStart(int row) {
+        return offset + row * stride;
+    }
+
+    /**
+     * A matrix is contiguous if its rows follow each other without gaps, so
+     * all entries can be processed in one loop.
+     */
+    private boolean isContiguous() {
+        return stride == cols || rows <= 1;
+    }
+
+    // whole-matrix sweeps: one segment for contiguous matrices, else one per
+    // row
+    private int getSegments() {
+        return isContiguous() ? 1 : rows;
+    }
+
+    private int getSegmentLength() {
+        return isContiguous() ? rows * cols : cols;
+    }
+
+    /**
+     * Returns a view of a rectangular part of this matrix. The view shares the
+     * storage of this matrix: changes of the view are visible in this matrix
+     * and vice versa. In contrast to {@link #getPart(int, int, int, int)}, the
+     * part must lie within this matrix.
+     *
+     * @return the view of the rows row1, ..., row2 and columns col1, ..., col2.
+     */
+    public ArrayMatrix getView(int row1, int col1, int row2, int col2) {
+        if (row1 > row2 || col1 > col2 || !isValidEntryLocation(row1, col1)
+                || !isValidEntryLocation(row2, col2)) {
+            throw new IllegalArgumentException();
+        }
+
+        return new ArrayMatrix(content, rowStart(row1) + col1, stride, row2
+                - row1 + 1, col2 - col1 + 1);
+    }
+
     @Override
     public double get(int row, int col) {
         if (!isValidEntryLocation(row, col))
             return DEFAULT_VALUE;
 
-        return content[row][col];
+        return content[rowStart(row) + col];
     }
 
     @Override
@@ -74,7 +177,7 @@ public class ArrayMatrix extends Matrix {
         if (!isValidEntryLocation(row, col))
             return;
 
-        content[row][col] = val;
+        content[rowStart(row) + col] = val;
     }
 
     @Override
@@ -82,17 +185,77 @@ public class ArrayMatrix extends Matrix {
         if (!isValidEntryLocation(row, col))
             return;
 
-        content[row][col] = DEFAULT_VALUE;
+        content[rowStart(row) + col] = DEFAULT_VALUE;
+    }
+
+    @Override
+    public RowCursor getRowCursor(final int row) {
+        if (row < 0 || row >= rows) {
+            throw new IllegalArgumentException();
+        }
+
+        final int rowStart = rowStart(row);
+        return new RowCursor() {
+            private int col = -1;
+
+            @Override
+            public boolean next() {
+                while (++col < cols) {
+                    if (content[rowStart + col] != 0) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public int getCol() {
+                return col;
+            }
+
+            @Override
+            public double getValue() {
+                return content[rowStart + col];
+            }
+        };
+    }
+
+    @Override
+    void addRowVectorProductsTo(double[][] vectors, double[][] results) {
+        for (int row = 0; row < rows; ++row) {
+            for (int v = 0; v < vectors.length; ++v) {
+                if (vectors[v][row] != 0) {
+                    addScaledRowTo(row, vectors[v][row], results[v]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int nnz() {
+        int result = 0;
+
+        for (int segment = 0; segment < getSegments(); ++segment) {
+            int start = rowStart(segment);
+            int end = start + getSegmentLength();
+            for (int index = start; index < end; ++index) {
+                if (content[index] != 0) {
+                    result++;
+                }
+            }
+        }
+
+        return result;
     }
 
     @Override
     public int getRows() {
-        return content.length;
+        return rows;
     }
 
     @Override
     public int getCols() {
-        return content[0].length;
+        return cols;
     }
 
     @Override
@@ -101,9 +264,10 @@ public class ArrayMatrix extends Matrix {
             throw new IllegalArgumentException();
         }
 
+        ArrayMatrix right = asArrayMatrix(matrix);
         ArrayMatrix result = new ArrayMatrix(this.getRows(), matrix.getCols());
 
-        multThisWithInto(matrix, result, WRITE_BY_ROW);
+        multiplyRowsInto(this, right, result, 0, getRows(), TILE_SIZE, null);
 
         return result;
     }
@@ -114,17 +278,288 @@ public class ArrayMatrix extends Matrix {
             throw new IllegalArgumentException();
         }
 
+        ArrayMatrix right = asArrayMatrix(matrix);
         ArrayMatrix result = new ArrayMatrix(this.getRows(), matrix.getCols());
-        ArrayMatrix[] matrices = new ArrayMatrix[NUMBER_OF_THREADS];
-        for (int i = 0; i < NUMBER_OF_THREADS; ++i) {
-            matrices[i] = result;
+
+        prlMultiplyInto(right, result, null);
+
+        return result;
+    }
+
+    /**
+     * Applies the epilogue to every block of ROW_BLOCK rows right after its
+     * last tile has been calculated, while the rows are still in the cache,
+     * instead of in a separate pass over the whole product.
+     */
+    @Override
+    public Matrix multWith(Matrix matrix, MatrixMultType multType,
+            RowEpilogue epilogue) {
+        if (epilogue == null || multType != MatrixMultType.NAIVE
+                && multType != MatrixMultType.PARALLEL_NAIVE
+                || matrix.isMultipliedFromLeft()) {
+            return super.multWith(matrix, multType, epilogue);
         }
+        if (!multPossible(matrix)) {
+            throw new IllegalArgumentException();
+        }
+
+        ArrayMatrix right = asArrayMatrix(matrix);
+        ArrayMatrix result = new ArrayMatrix(this.getRows(), matrix.getCols());
 
-        prlMultThisWithInto(matrix, matrices, NUMBER_OF_THREADS, WRITE_BY_ROW);
+        if (multType == MatrixMultType.NAIVE) {
+            RowEpilogue.Chunk chunk = epilogue.startChunk();
+            multiplyRowsInto(this, right, result, 0, getRows(), TILE_SIZE,
+                    chunk);
+            chunk.finish();
+        } else {
+            prlMultiplyInto(right, result, epilogue);
+        }
 
         return result;
     }
 
+    @Override
+    public void applyRowEpilogue(RowEpilogue epilogue) {
+        RowEpilogue.Chunk chunk = epilogue.startChunk();
+        for (int row = 0; row < rows; ++row) {
+            chunk.apply(content, rowStart(row), cols);
+        }
+        chunk.finish();
+    }
+
+    private void prlMultiplyInto(ArrayMatrix right, ArrayMatrix result,
+            RowEpilogue epilogue) {
+        // contiguous row blocks keep the rows of one tile in one thread
+        int threads = Math.max(1, Math.min(NUMBER_OF_THREADS, getRows()
+                / ROW_BLOCK));
+        int rowsPerThread = (getRows() + threads - 1) / threads;
+        rowsPerThread += (ROW_BLOCK - rowsPerThread % ROW_BLOCK) % ROW_BLOCK;
+
+        RowBlockMultiplier[] workers = new RowBlockMultiplier[threads];
+        for (int a = 0; a < threads; a++) {
+            workers[a] = new RowBlockMultiplier(this, right, result,
+                    Math.min(getRows(), a * rowsPerThread), Math.min(
+                            getRows(), (a + 1) * rowsPerThread), epilogue);
+            workers[a].fork();
+        }
+        for (int a = threads - 1; a >= 0; a--) {
+            workers[a].join();
+        }
+    }
+
+    @Override
+    protected void multInto(Matrix matrix, Matrix result,
+            MatrixMultType multType) {
+        if (!(matrix instanceof ArrayMatrix)
+                || !(result instanceof ArrayMatrix)) {
+            super.multInto(matrix, result, multType);
+            return;
+        }
+
+        switch (multType) {
+        case NAIVE:
+            multiplyRowsInto(this, (ArrayMatrix) matrix, (ArrayMatrix) result,
+                    0, getRows(), TILE_SIZE, null);
+            break;
+        case PARALLEL_NAIVE:
+            prlMultiplyInto((ArrayMatrix) matrix, (ArrayMatrix) result, null);
+            break;
+        default:
+            super.multInto(matrix, result, multType);
+        }
+    }
+
+    @Override
+    protected boolean hasMultIntoKernel(Matrix matrix,
+            MatrixMultType multType) {
+        return matrix instanceof ArrayMatrix
+                && (multType == MatrixMultType.NAIVE
+                        || multType == MatrixMultType.PARALLEL_NAIVE);
+    }
+
+    @Override
+    protected void multThisWithInto(Matrix matrix, Matrix result,
+            boolean writeByRow) {
+        // base case of the Strassen algorithm
+        if (matrix instanceof ArrayMatrix && result instanceof ArrayMatrix
+                && result.getRows() == getRows()
+                && result.getCols() == matrix.getCols()) {
+            multiplyRowsInto(this, (ArrayMatrix) matrix,
+                    (ArrayMatrix) result, 0, getRows(), TILE_SIZE, null);
+        } else {
+            super.multThisWithInto(matrix, result, writeByRow);
+        }
+    }
+
+    private static ArrayMatrix asArrayMatrix(Matrix matrix) {
+        if (matrix instanceof ArrayMatrix) {
+            return (ArrayMatrix) matrix;
+        } else {
+            return new ArrayMatrix(matrix);
+        }
+    }
+
+    /**
+     * Returns the name of the dense kernels in use: SCALAR, or VECTOR_ and
+     * the bit size of the vector species, if the Vector API is available.
+     */
+    public static String getKernelName() {
+        return DenseKernels.get().getName();
+    }
+
+    /**
+     * Calculates the rows firstRow, ..., endRow - 1 of left * right into
+     * result. The backing arrays are read directly in i-k-j order, so the
+     * right factor and the result are both walked along their rows. The
+     * columns and the inner dimension are processed in tiles of tileSize:
+     * every tile of the right factor is packed into short rows once, and
+     * ROW_BLOCK result rows are accumulated in short rows as well, so the
+     * innermost loop works on small arrays only. Every loaded entry of the
+     * right factor is used for ROW_BLOCK left rows. The short rows lie in two
+     * arrays of the workspace, which are reused by later calls of the thread,
+     * e.g. for the leaves of the Strassen algorithm. If chunk is not null, it
+     * is applied to the rows of a block as soon as they are complete.
+     */
+    private static void multiplyRowsInto(ArrayMatrix left, ArrayMatrix right,
+            ArrayMatrix result, int firstRow, int endRow, int tileSize,
+            RowEpilogue.Chunk chunk) {
+        double[] a = left.content;
+        double[] b = right.content;
+        double[] c = result.content;
+        int inner = left.getCols();
+        int cols = right.getCols();
+
+        // row k of the packed tile and row i of the block start at
+        // k * tileSize and i * tileSize
+        Workspace workspace = Workspace.get();
+        double[] packed = workspace.acquireArray(tileSize * tileSize);
+        double[] acc = workspace.acquireArray(ROW_BLOCK * tileSize);
+
+        for (int jTile = 0; jTile < cols; jTile += tileSize) {
+            int jLength = Math.min(cols, jTile + tileSize) - jTile;
+
+            // one pass is needed for inner == 0 to clear the result
+            for (int kTile = 0; kTile < inner || kTile == 0; kTile += tileSize) {
+                int kLength = Math.min(inner, kTile + tileSize) - kTile;
+                boolean lastTile = jTile + tileSize >= cols
+                        && kTile + tileSize >= inner;
+                for (int k = 0; k < kLength; ++k) {
+                    System.arraycopy(b, right.rowStart(kTile + k) + jTile,
+                            packed, k * tileSize, jLength);
+                }
+
+                for (int row = firstRow; row < endRow; row += ROW_BLOCK) {
+                    int blockRows = Math.min(ROW_BLOCK, endRow - row);
+                    for (int i = 0; i < blockRows; ++i) {
+                        if (kTile == 0) {
+                            Arrays.fill(acc, i * tileSize, i * tileSize
+                                    + jLength, DEFAULT_VALUE);
+                        } else {
+                            System.arraycopy(c, result.rowStart(row + i)
+                                    + jTile, acc, i * tileSize, jLength);
+                        }
+                    }
+
+                    if (blockRows == ROW_BLOCK) {
+                        multiplyRowBlock(a, left.rowStart(row) + kTile,
+                                left.stride, packed, kLength, acc, jLength,
+                                tileSize);
+                    } else {
+                        for (int i = 0; i < blockRows; ++i) {
+                            multiplyRow(a, left.rowStart(row + i) + kTile,
+                                    packed, kLength, acc, i * tileSize,
+                                    jLength, tileSize);
+                        }
+                    }
+
+                    for (int i = 0; i < blockRows; ++i) {
+                        System.arraycopy(acc, i * tileSize, c, result
+                                .rowStart(row + i) + jTile, jLength);
+                    }
+
+                    if (chunk != null && lastTile) {
+                        for (int i = 0; i < blockRows; ++i) {
+                            chunk.apply(c, result.rowStart(row + i), cols);
+                        }
+                    }
+                }
+            }
+        }
+
+        workspace.releaseArray(packed);
+        workspace.releaseArray(acc);
+    }
+
+    private static void multiplyRowBlock(double[] a, int aStart, int aStride,
+            double[] packed, int kLength, double[] acc, int jLength,
+            int tileSize) {
+        DenseKernels kernels = DenseKernels.get();
+        for (int k = 0; k < kLength; ++k) {
+            double x0 = a[aStart + k];
+            double x1 = a[aStart + aStride + k];
+            double x2 = a[aStart + 2 * aStride + k];
+            double x3 = a[aStart + 3 * aStride + k];
+            if (x0 == 0 && x1 == 0 && x2 == 0 && x3 == 0) {
+                continue;
+            }
+            kernels.axpy4(x0, x1, x2, x3, packed, k * tileSize, acc, 0,
+                    tileSize, jLength);
+        }
+    }
+
+    private static void multiplyRow(double[] a, int aStart, double[] packed,
+            int kLength, double[] acc, int accStart, int jLength,
+            int tileSize) {
+        DenseKernels kernels = DenseKernels.get();
+        for (int k = 0; k < kLength; ++k) {
+            double x = a[aStart + k];
+            if (x == 0) {
+                continue;
+            }
+            kernels.axpy(x, packed, k * tileSize, acc, accStart, jLength);
+        }
+    }
+
+    /**
+     * Adds factor * (row of this matrix) to target, which must have at least
+     * getCols() entries. This is the inner step of a sparse row times this
+     * matrix.
+     */
+    void addScaledRowTo(int row, double factor, double[] target) {
+        DenseKernels.get().axpy(factor, content, rowStart(row), target, 0,
+                cols);
+    }
+
+    private static class RowBlockMultiplier extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 3925867193302476163L;
+        private ArrayMatrix left, right, target;
+        private int firstRow, endRow;
+        private RowEpilogue epilogue;
+
+        private RowBlockMultiplier(ArrayMatrix left, ArrayMatrix right,
+                ArrayMatrix target, int firstRow, int endRow,
+                RowEpilogue epilogue) {
+            this.left = left;
+            this.right = right;
+            this.target = target;
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+            this.epilogue = epilogue;
+        }
+
+        @Override
+        protected Double compute() {
+            RowEpilogue.Chunk chunk = epilogue != null ? epilogue.startChunk()
+                    : null;
+            multiplyRowsInto(left, right, target, firstRow, endRow, TILE_SIZE,
+                    chunk);
+            if (chunk != null) {
+                chunk.finish();
+            }
+            return 0.0; // no result needed
+        }
+    }
+
     @Override
     public Matrix getNewInstance(int rows, int cols) {
         return new ArrayMatrix(rows, cols);
@@ -155,14 +590,28 @@ public class ArrayMatrix extends Matrix {
         col2 = Math.min(this.getCols() - 1, col2);
 
         for (int row = row1; row <= row2; ++row) {
-            for (int col = col1; col <= col2; ++col) {
-                result.content[row - row1][col - col1] = this.content[row][col];
-            }
+            System.arraycopy(content, rowStart(row) + col1, result.content,
+                    result.rowStart(row - row1), col2 - col1 + 1);
         }
 
         return result;
     }
 
+    /**
+     * Returns a view if the part lies within this matrix, see
+     * {@link #getView(int, int, int, int)}. Parts which need padding are
+     * copied.
+     */
+    @Override
+    public Matrix getPartView(int row1, int col1, int row2, int col2) {
+        if (row1 <= row2 && col1 <= col2 && isValidEntryLocation(row1, col1)
+                && isValidEntryLocation(row2, col2)) {
+            return getView(row1, col1, row2, col2);
+        } else {
+            return getPart(row1, col1, row2, col2);
+        }
+    }
+
     @Override
     public void add(Matrix mat) {
         addSub(mat, true);
@@ -174,24 +623,94 @@ public class ArrayMatrix extends Matrix {
     }
 
     private void addSub(Matrix mat, boolean add) {
-        if (hasSameDimensions(mat)) {
-            for (int row = 0; row < this.getRows(); ++row) {
-                for (int col = 0; col < this.getCols(); ++col) {
+        if (!hasSameDimensions(mat)) {
+            throw new IllegalArgumentException();
+        }
+
+        if (mat instanceof ArrayMatrix) {
+            ArrayMatrix arrMat = (ArrayMatrix) mat;
+            boolean bulk = this.isContiguous() && arrMat.isContiguous();
+            int segments = bulk ? 1 : rows;
+            int length = bulk ? rows * cols : cols;
+            for (int segment = 0; segment < segments; ++segment) {
+                int thisIndex = rowStart(segment);
+                int thatIndex = arrMat.rowStart(segment);
+                if (add) {
+                    for (int i = 0; i < length; ++i) {
+                        content[thisIndex + i] += arrMat.content[thatIndex + i];
+                    }
+                } else {
+                    for (int i = 0; i < length; ++i) {
+                        content[thisIndex + i] -= arrMat.content[thatIndex + i];
+                    }
+                }
+            }
+        } else {
+            // only the non-zero entries of mat change this matrix
+            for (int row = 0; row < rows; ++row) {
+                int rowStart = rowStart(row);
+                RowCursor cursor = mat.getRowCursor(row);
+                while (cursor.next()) {
                     if (add) {
-                        content[row][col] += mat.get(row, col);
+                        content[rowStart + cursor.getCol()] += cursor.getValue();
                     } else {
-                        content[row][col] -= mat.get(row, col);
+                        content[rowStart + cursor.getCol()] -= cursor.getValue();
                     }
                 }
             }
-        } else {
-            throw new IllegalArgumentException();
+        }
+    }
+
+    @Override
+    protected void addSubInto(Matrix mat, Matrix target, boolean add) {
+        if (!(target instanceof ArrayMatrix)) {
+            super.addSubInto(mat, target, add);
+            return;
+        }
+        double[] c = ((ArrayMatrix) target).content;
+
+        for (int row = 0; row < rows; ++row) {
+            int thisIndex = rowStart(row);
+            int targetIndex = ((ArrayMatrix) target).rowStart(row);
+            if (mat instanceof ArrayMatrix) {
+                double[] b = ((ArrayMatrix) mat).content;
+                int thatIndex = ((ArrayMatrix) mat).rowStart(row);
+                for (int i = 0; i < cols; ++i) {
+                    if (add) {
+                        c[targetIndex + i] = content[thisIndex + i]
+                                + b[thatIndex + i];
+                    } else {
+                        c[targetIndex + i] = content[thisIndex + i]
+                                - b[thatIndex + i];
+                    }
+                }
+            } else {
+                // only the non-zero entries of mat change the copied row
+                System.arraycopy(content, thisIndex, c, targetIndex, cols);
+                RowCursor cursor = mat.getRowCursor(row);
+                while (cursor.next()) {
+                    if (add) {
+                        c[targetIndex + cursor.getCol()] += cursor.getValue();
+                    } else {
+                        c[targetIndex + cursor.getCol()] -= cursor.getValue();
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (int segment = 0; segment < getSegments(); ++segment) {
+            int start = rowStart(segment);
+            Arrays.fill(content, start, start + getSegmentLength(),
+                    DEFAULT_VALUE);
         }
     }
 
     @Override
     public Matrix clone() {
-        return new ArrayMatrix(this.content, true);
+        return new ArrayMatrix(this);
     }
 
     @Override
@@ -205,23 +724,48 @@ public class ArrayMatrix extends Matrix {
         ArrayMatrix c21 = (ArrayMatrix) downLeft;
         ArrayMatrix c22 = (ArrayMatrix) downRight;
 
-        int halfSize = upLeft.getRows();
+        int halfRows = upLeft.getRows();
+        int halfCols = upLeft.getCols();
         ArrayMatrix leftCopyMat = c11;
         ArrayMatrix rightCopyMat = c12;
         int rowShift = 0;
 
-        for (int row = 0; row < getRows(); row++) {
-            if (row == halfSize) {
+        for (int row = 0; row < 2 * halfRows; row++) {
+            if (row == halfRows) {
                 leftCopyMat = c21;
                 rightCopyMat = c22;
-                rowShift = halfSize;
+                rowShift = halfRows;
             }
-            this.content[row] = Arrays.copyOf(leftCopyMat.content[row
-                    - rowShift], getCols());
+            System.arraycopy(leftCopyMat.content,
+                    leftCopyMat.rowStart(row - rowShift), content,
+                    rowStart(row), halfCols);
+            System.arraycopy(rightCopyMat.content,
+                    rightCopyMat.rowStart(row - rowShift), content,
+                    rowStart(row) + halfCols, halfCols);
+        }
+    }
+
+    @Override
+    protected void putPart(Matrix part, int row, int col) {
+        if (!isValidEntryLocation(row, col)
+                || !isValidEntryLocation(row + part.getRows() - 1,
+                        col + part.getCols() - 1)) {
+            throw new IllegalArgumentException();
+        }
 
-            for (int col = halfSize; col < getCols(); col++) {
-                this.content[row][col] = rightCopyMat.content[row - rowShift][col
-                        - halfSize];
+        for (int r = 0; r < part.getRows(); ++r) {
+            int rowStart = rowStart(row + r) + col;
+            if (part instanceof ArrayMatrix) {
+                ArrayMatrix arrPart = (ArrayMatrix) part;
+                System.arraycopy(arrPart.content, arrPart.rowStart(r),
+                        content, rowStart, part.getCols());
+            } else {
+                Arrays.fill(content, rowStart, rowStart + part.getCols(),
+                        DEFAULT_VALUE);
+                RowCursor cursor = part.getRowCursor(r);
+                while (cursor.next()) {
+                    content[rowStart + cursor.getCol()] = cursor.getValue();
+                }
             }
         }
     }
@@ -244,6 +788,15 @@ public class ArrayMatrix extends Matrix {
         return result;
     }
 
+    @Override
+    public Matrix prlStrassenWinogradMultThisWith(Matrix matrix) {
+        ArrayMatrix result = new ArrayMatrix(this.getRows(), matrix.getCols());
+
+        prlStrassenWinogradMultThisWithInto(matrix, result, WRITE_BY_ROW);
+
+        return result;
+    }
+
     @Override
     public Matrix winogradMultThisWith(Matrix matrix) {
         ArrayMatrix result = new ArrayMatrix(this.getRows(), matrix.getCols());
@@ -268,9 +821,11 @@ public class ArrayMatrix extends Matrix {
     private double getMaxNorm() {
         double result = 0;
 
-        for (int row = 0; row < getRows(); ++row) {
-            for (int col = 0; col < getCols(); ++col) {
-                double entry = Math.abs(content[row][col]);
+        for (int segment = 0; segment < getSegments(); ++segment) {
+            int start = rowStart(segment);
+            int end = start + getSegmentLength();
+            for (int index = start; index < end; ++index) {
+                double entry = Math.abs(content[index]);
                 if (entry > result) {
                     result = entry;
                 }
@@ -283,9 +838,11 @@ public class ArrayMatrix extends Matrix {
     private double get2Norm() {
         double result = 0;
 
-        for (int row = 0; row < getRows(); ++row) {
-            for (int col = 0; col < getCols(); ++col) {
-                double entry = content[row][col];
+        for (int segment = 0; segment < getSegments(); ++segment) {
+            int start = rowStart(segment);
+            int end = start + getSegmentLength();
+            for (int index = start; index < end; ++index) {
+                double entry = content[index];
                 result += entry * entry;
             }
         }
@@ -295,34 +852,43 @@ public class ArrayMatrix extends Matrix {
 
     @Override
     public void stabilizeRowsTo(double stabilizeRowsTo) {
+        DenseKernels kernels = DenseKernels.get();
         double rowSum;
 
         for (int row = 0; row < getRows(); ++row) {
-            rowSum = 0;
-            for (int col = 0; col < getCols(); ++col) {
-                rowSum += content[row][col];
-            }
+            int start = rowStart(row);
+
+            rowSum = kernels.sum(content, start, cols);
 
             if (rowSum == 0) {
                 rowSum = 1;
             }
 
-            // double factor = 1 - (stabilizeRowsTo / rowSum);
-            // if (factor != 0.0) {
-            // System.out.println("FACTOR:\t" + factor);
-            // }
+            kernels.scale(stabilizeRowsTo / rowSum, content, start, cols);
+        }
+    }
+
+    @Override
+    public void scaleRows(double[] factors) {
+        if (factors.length != getRows()) {
+            throw new IllegalArgumentException();
+        }
 
-            for (int col = 0; col < getCols(); ++col) {
-                content[row][col] *= stabilizeRowsTo / rowSum;
+        DenseKernels kernels = DenseKernels.get();
+        for (int row = 0; row < getRows(); ++row) {
+            if (factors[row] != 1) {
+                kernels.scale(factors[row], content, rowStart(row), cols);
             }
         }
     }
 
     @Override
     public boolean isNonNegative() {
-        for (int row = 0; row < getRows(); ++row) {
-            for (int col = 0; col < getCols(); ++col) {
-                if (content[row][col] < 0) {
+        for (int segment = 0; segment < getSegments(); ++segment) {
+            int start = rowStart(segment);
+            int end = start + getSegmentLength();
+            for (int index = start; index < end; ++index) {
+                if (content[index] < 0) {
                     return false;
                 }
             }
@@ -333,9 +899,11 @@ public class ArrayMatrix extends Matrix {
 
     @Override
     public boolean isPositive() {
-        for (int row = 0; row < getRows(); ++row) {
-            for (int col = 0; col < getCols(); ++col) {
-                if (content[row][col] <= 0) {
+        for (int segment = 0; segment < getSegments(); ++segment) {
+            int start = rowStart(segment);
+            int end = start + getSegmentLength();
+            for (int index = start; index < end; ++index) {
+                if (content[index] <= 0) {
                     return false;
                 }
             }
@@ -345,32 +913,33 @@ public class ArrayMatrix extends Matrix {
     }
 
     @Override
-    protected void setNegativeEntriesToZero(boolean showModifications) {
+    public double setNegativeEntriesToZero() {
         double minValueSetToZero = 0.0;
-        for (int row = 0; row < getRows(); ++row) {
-            for (int col = 0; col < getCols(); ++col) {
-                if (content[row][col] < 0) {
-                    if (showModifications
-                            && minValueSetToZero > content[row][col]) {
-                        minValueSetToZero = content[row][col];
+        for (int segment = 0; segment < getSegments(); ++segment) {
+            int start = rowStart(segment);
+            int end = start + getSegmentLength();
+            for (int index = start; index < end; ++index) {
+                if (content[index] < 0) {
+                    if (minValueSetToZero > content[index]) {
+                        minValueSetToZero = content[index];
                     }
-                    content[row][col] = DEFAULT_VALUE;
+                    content[index] = DEFAULT_VALUE;
                 }
             }
         }
-        if (showModifications && minValueSetToZero < 0) {
-            System.out.println("MINIMAL NEGATIVE ENTRY SET TO ZERO: "
-                    + minValueSetToZero);
-        }
+
+        return minValueSetToZero;
     }
 
     @Override
     public double getMinimalPositiveEntry() {
         double minimum = 2.0;
-        for (int row = 0; row < getRows(); ++row) {
-            for (int col = 0; col < getCols(); ++col) {
-                if (content[row][col] > 0 && content[row][col] < minimum) {
-                    minimum = content[row][col];
+        for (int segment = 0; segment < getSegments(); ++segment) {
+            int start = rowStart(segment);
+            int end = start + getSegmentLength();
+            for (int index = start; index < end; ++index) {
+                if (content[index] > 0 && content[index] < minimum) {
+                    minimum = content[index];
                 }
             }
         }
@@ -0,0 +1,540 @@
+package matrices;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Is the non-zero pattern of a matrix: every entry is one bit, 64 entries of
+ * a row are packed into one long. The product of two patterns is the pattern
+ * of the product of two non-negative matrices, it is calculated by or-ing
+ * whole rows of the right factor, 64 entries per operation.
+ *
+ * The structure of a non-negative square matrix P decides, whether and when
+ * its powers become positive: P^k is positive for some k if and only if P is
+ * irreducible and aperiodic (primitive). The smallest such k, the
+ * primitivity exponent, is at most (n - 1)^2 + 1 (Wielandt), and all later
+ * powers stay positive. None of these questions needs a floating point
+ * operation.
+ */
+public class BitMatrix {
+
+    /**
+     * Is returned by {@link #getPrimitivityExponent()}, if no power of the
+     * matrix is positive.
+     */
+    public static final long NOT_PRIMITIVE = -1;
+
+    private static final int NUMBER_OF_THREADS = Runtime.getRuntime()
+            .availableProcessors();
+
+    // a thread gets at least this many rows of a product
+    private static final int MIN_ROWS_PER_THREAD = 64;
+
+    private final int rows;
+    private final int cols;
+    private final int words;
+
+    // bit (col & 63) of content[row][col >>> 6] is entry (row, col)
+    private final long[][] content;
+
+    public static void main(String[] args) {
+        // the Wielandt graph has the largest possible primitivity exponent
+        int n = 500;
+        BitMatrix wielandt = new BitMatrix(n, n);
+        for (int row = 0; row < n - 1; ++row) {
+            wielandt.put(row, row + 1);
+        }
+        wielandt.put(n - 1, 0);
+        wielandt.put(n - 1, 1);
+
+        long start = System.currentTimeMillis();
+        System.out.println("IRREDUCIBLE: " + wielandt.isIrreducible()
+                + ", PERIOD: " + wielandt.getPeriod()
+                + ", PRIMITIVITY EXPONENT: "
+                + wielandt.getPrimitivityExponent() + " (BOUND: "
+                + ((long) (n - 1) * (n - 1) + 1) + ") IN "
+                + (System.currentTimeMillis() - start) + " MS");
+
+        double[][] arr = { { 0, 1, 0 }, { 0, 0, 1 }, { 1, 0, 0 } };
+        BitMatrix cycle = patternOf(new ArrayMatrix(arr, false));
+        System.out.println("CYCLE PERIOD: " + cycle.getPeriod()
+                + ", PRIMITIVITY EXPONENT: " + cycle.getPrimitivityExponent());
+    }
+
+    public BitMatrix(int rows, int cols) {
+        if (rows < 0 || cols < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        this.rows = rows;
+        this.cols = cols;
+        this.words = (cols + 63) >>> 6;
+        this.content = new long[rows][words];
+    }
+
+    /**
+     * Returns the pattern of the non-zero entries of mat.
+     */
+    public static BitMatrix patternOf(Matrix mat) {
+        BitMatrix result = new BitMatrix(mat.getRows(), mat.getCols());
+        for (int row = 0; row < result.rows; ++row) {
+            long[] target = result.content[row];
+            RowCursor cursor = mat.getRowCursor(row);
+            while (cursor.next()) {
+                if (cursor.getValue() != 0) {
+                    int col = cursor.getCol();
+                    target[col >>> 6] |= 1L << col;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public boolean get(int row, int col) {
+        checkEntryLocation(row, col);
+
+        return (content[row][col >>> 6] & (1L << col)) != 0;
+    }
+
+    public void put(int row, int col) {
+        checkEntryLocation(row, col);
+
+        content[row][col >>> 6] |= 1L << col;
+    }
+
+    public void del(int row, int col) {
+        checkEntryLocation(row, col);
+
+        content[row][col >>> 6] &= ~(1L << col);
+    }
+
+    private void checkEntryLocation(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            throw new IllegalArgumentException("INVALID ENTRY LOCATION");
+        }
+    }
+
+    /**
+     * Returns the number of set entries.
+     */
+    public long nnz() {
+        long result = 0;
+        for (int row = 0; row < rows; ++row) {
+            for (int word = 0; word < words; ++word) {
+                result += Long.bitCount(content[row][word]);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns true, if every entry is set.
+     */
+    public boolean isPositive() {
+        for (int row = 0; row < rows; ++row) {
+            if (!isFull(content[row])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isFull(long[] row) {
+        for (int word = 0; word < words - 1; ++word) {
+            if (row[word] != -1L) {
+                return false;
+            }
+        }
+
+        return words == 0 || row[words - 1] == getLastWordMask();
+    }
+
+    // the bits of the last word, which belong to the matrix
+    private long getLastWordMask() {
+        return (cols & 63) == 0 ? -1L : (1L << cols) - 1;
+    }
+
+    private boolean hasEmptyRow() {
+        for (int row = 0; row < rows; ++row) {
+            boolean empty = true;
+            for (int word = 0; word < words && empty; ++word) {
+                empty = content[row][word] == 0;
+            }
+            if (empty) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public BitMatrix transpose() {
+        BitMatrix result = new BitMatrix(cols, rows);
+        for (int row = 0; row < rows; ++row) {
+            for (int word = 0; word < words; ++word) {
+                long bits = content[row][word];
+                while (bits != 0) {
+                    int col = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    result.content[col][row >>> 6] |= 1L << row;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the pattern of the product. Rows are calculated in parallel, if
+     * the matrix is large enough.
+     */
+    public BitMatrix multWith(BitMatrix matrix) {
+        if (cols != matrix.rows) {
+            throw new IllegalArgumentException(
+                    "MATRICES CANNOT BE MULTIPLIED");
+        }
+
+        BitMatrix result = new BitMatrix(rows, matrix.cols);
+        int threads = Math.max(1, Math.min(NUMBER_OF_THREADS, rows
+                / MIN_ROWS_PER_THREAD));
+        if (threads == 1) {
+            multRowsInto(matrix, result, 0, rows);
+            return result;
+        }
+
+        int rowsPerThread = (rows + threads - 1) / threads;
+        RowMultiplier[] workers = new RowMultiplier[threads];
+        for (int a = 0; a < threads; a++) {
+            workers[a] = new RowMultiplier(this, matrix, result, Math.min(rows,
+                    a * rowsPerThread), Math.min(rows, (a + 1)
+                    * rowsPerThread));
+            workers[a].fork();
+        }
+        for (int a = threads - 1; a >= 0; a--) {
+            workers[a].join();
+        }
+
+        return result;
+    }
+
+    public BitMatrix square() {
+        return multWith(this);
+    }
+
+    private void multRowsInto(BitMatrix matrix, BitMatrix result,
+            int firstRow, int endRow) {
+        long lastWordMask = result.getLastWordMask();
+        for (int row = firstRow; row < endRow; ++row) {
+            long[] target = result.content[row];
+            boolean full = false;
+            for (int word = 0; word < words && !full; ++word) {
+                long bits = content[row][word];
+                while (bits != 0 && !full) {
+                    int k = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    // a full row cannot change anymore
+                    full = orInto(matrix.content[k], target, lastWordMask);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ors source into target and returns true, if target is full afterwards.
+     */
+    private static boolean orInto(long[] source, long[] target,
+            long lastWordMask) {
+        int last = target.length - 1;
+        if (last < 0) {
+            return true;
+        }
+
+        long all = -1L;
+        for (int word = 0; word < last; ++word) {
+            all &= target[word] |= source[word];
+        }
+        target[last] |= source[last];
+
+        return all == -1L && target[last] == lastWordMask;
+    }
+
+    private static class RowMultiplier extends RecursiveTask<Double> {
+        private static final long serialVersionUID = -6290784351297150917L;
+        private BitMatrix left, right, target;
+        private int firstRow, endRow;
+
+        private RowMultiplier(BitMatrix left, BitMatrix right,
+                BitMatrix target, int firstRow, int endRow) {
+            this.left = left;
+            this.right = right;
+            this.target = target;
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected Double compute() {
+            left.multRowsInto(right, target, firstRow, endRow);
+            return 0.0; // no result needed
+        }
+    }
+
+    /**
+     * Returns the pattern of this^exponent by repeated squaring. Once a
+     * square is positive, all further powers are, unless the matrix has an
+     * empty row, so the remaining squarings are skipped.
+     */
+    public BitMatrix power(long exponent) {
+        checkSquare();
+        if (exponent < 0) {
+            throw new IllegalArgumentException("EXPONENT MUST NOT BE NEGATIVE");
+        }
+
+        BitMatrix result = getOne();
+        BitMatrix square = this;
+        boolean noEmptyRow = !hasEmptyRow();
+        while (exponent > 0) {
+            if ((exponent & 1) == 1) {
+                result = result.multWith(square);
+            }
+            exponent >>>= 1;
+            if (exponent > 0) {
+                if (noEmptyRow && square.isPositive()) {
+                    return getFull();
+                }
+                square = square.square();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns true, if this^exponent is positive, see
+     * {@link #getPrimitivityExponent()}.
+     */
+    public boolean isPowerPositive(long exponent) {
+        checkSquare();
+        if (exponent < 0) {
+            throw new IllegalArgumentException("EXPONENT MUST NOT BE NEGATIVE");
+        }
+        if (exponent == 0) {
+            // the identity
+            return rows == 1;
+        }
+
+        long primitivityExponent = getPrimitivityExponent();
+        return primitivityExponent != NOT_PRIMITIVE
+                && exponent >= primitivityExponent;
+    }
+
+    /**
+     * Returns the smallest exponent k > 0, for which this^k is positive, or
+     * {@link #NOT_PRIMITIVE}, if the matrix is reducible or periodic.
+     *
+     * The squares this^1, this^2, this^4, ... are calculated until one is
+     * positive, at most log2((n - 1)^2 + 1) + 1 of them. The exponent is then
+     * found by a binary search over products of the squares.
+     */
+    public long getPrimitivityExponent() {
+        checkSquare();
+        if (rows == 0) {
+            return NOT_PRIMITIVE;
+        }
+        if (rows == 1) {
+            return content[0][0] != 0 ? 1 : NOT_PRIMITIVE;
+        }
+        if (!isIrreducible() || getPeriod() != 1) {
+            return NOT_PRIMITIVE;
+        }
+
+        List<BitMatrix> squares = new ArrayList<BitMatrix>();
+        squares.add(this);
+        while (!squares.get(squares.size() - 1).isPositive()) {
+            squares.add(squares.get(squares.size() - 1).square());
+        }
+
+        int last = squares.size() - 1;
+        if (last == 0) {
+            return 1;
+        }
+
+        // the largest exponent, whose power is not positive
+        long exponent = 1L << (last - 1);
+        BitMatrix notPositive = squares.get(last - 1);
+        for (int j = last - 2; j >= 0; --j) {
+            BitMatrix candidate = notPositive.multWith(squares.get(j));
+            if (!candidate.isPositive()) {
+                notPositive = candidate;
+                exponent += 1L << j;
+            }
+        }
+
+        return exponent + 1;
+    }
+
+    /**
+     * Returns true, if every state can be reached from every other state.
+     */
+    public boolean isIrreducible() {
+        checkSquare();
+        if (rows == 0) {
+            return false;
+        }
+
+        return getDistances(this)[0] == rows
+                && getDistances(transpose())[0] == rows;
+    }
+
+    /**
+     * Returns the period of an irreducible matrix: the greatest common
+     * divisor of the lengths of all cycles. The matrix is aperiodic, if the
+     * period is 1.
+     */
+    public int getPeriod() {
+        if (!isIrreducible()) {
+            throw new IllegalStateException("MATRIX IS NOT IRREDUCIBLE");
+        }
+
+        // the difference of the distances from state 0 at both ends of an
+        // edge plus one is a multiple of the period, the gcd of all of them
+        // is the period
+        int[] distances = getDistances(this);
+        int period = 0;
+        for (int row = 0; row < rows && period != 1; ++row) {
+            for (int word = 0; word < words && period != 1; ++word) {
+                long bits = content[row][word];
+                while (bits != 0 && period != 1) {
+                    int col = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    period = gcd(period, Math.abs(distances[row + 1] + 1
+                            - distances[col + 1]));
+                }
+            }
+        }
+
+        return period;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int temp = a % b;
+            a = b;
+            b = temp;
+        }
+
+        return a;
+    }
+
+    /**
+     * Does a breadth first search from state 0. Returns the number of
+     * reached states followed by the distances of all states, which are -1
+     * for unreached states.
+     */
+    private static int[] getDistances(BitMatrix mat) {
+        int[] result = new int[mat.rows + 1];
+        Arrays.fill(result, 1, result.length, -1);
+        long[] reached = new long[mat.words];
+        int[] queue = new int[mat.rows];
+        int head = 0, tail = 0;
+
+        queue[tail++] = 0;
+        reached[0] = 1L;
+        result[1] = 0;
+        while (head < tail) {
+            int state = queue[head++];
+            long[] row = mat.content[state];
+            for (int word = 0; word < mat.words; ++word) {
+                // all new successors of 64 states at once
+                long fresh = row[word] & ~reached[word];
+                reached[word] |= fresh;
+                while (fresh != 0) {
+                    int next = (word << 6) + Long.numberOfTrailingZeros(fresh);
+                    fresh &= fresh - 1;
+                    result[next + 1] = result[state + 1] + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        result[0] = tail;
+
+        return result;
+    }
+
+    private void checkSquare() {
+        if (rows != cols) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    public BitMatrix getOne() {
+        checkSquare();
+        BitMatrix result = new BitMatrix(rows, cols);
+        for (int row = 0; row < rows; ++row) {
+            result.content[row][row >>> 6] = 1L << row;
+        }
+
+        return result;
+    }
+
+    private BitMatrix getFull() {
+        BitMatrix result = new BitMatrix(rows, cols);
+        long lastWordMask = getLastWordMask();
+        for (int row = 0; row < rows; ++row) {
+            Arrays.fill(result.content[row], -1L);
+            result.content[row][words - 1] = lastWordMask;
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof BitMatrix)) {
+            return false;
+        }
+
+        BitMatrix other = (BitMatrix) obj;
+        if (rows != other.rows || cols != other.cols) {
+            return false;
+        }
+        for (int row = 0; row < rows; ++row) {
+            if (!Arrays.equals(content[row], other.content[row])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.deepHashCode(content);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int row = 0; row < rows; ++row) {
+            for (int col = 0; col < cols; ++col) {
+                result.append(get(row, col) ? '1' : '0');
+            }
+            result.append('\n');
+        }
+
+        return result.toString();
+    }
+}
@@ -0,0 +1,434 @@
+package matrices;
+
+import java.util.Arrays;
+
+/**
+ * Is the order of the states of a square matrix, in which the matrix is
+ * block upper triangular: the strongly connected components of the graph of
+ * its non-zero entries are found by Tarjan's algorithm and ordered, so that
+ * every edge leads to the same or a later component. The closed classes of a
+ * reducible chain end up in separate diagonal blocks, transient states come
+ * before the classes they lead to.
+ *
+ * Components smaller than {@link #MIN_BLOCK_SIZE} are merged with
+ * neighbouring small components, which keeps the form block upper
+ * triangular, but avoids blocks of single transient states.
+ */
+public class BlockTriangularForm {
+
+    /**
+     * Components with fewer states are merged with their neighbours in the
+     * order, until the merged block has this size.
+     */
+    public static final int MIN_BLOCK_SIZE = 64;
+
+    private final int size;
+    private final int components;
+
+    // the state at every position and the position of every state
+    private final int[] order;
+    private final int[] positions;
+
+    // block b takes the positions blockStarts[b], ..., blockStarts[b + 1] - 1
+    private final int[] blockStarts;
+    private final int[] blockOfPosition;
+
+    // hasEdges[b][c]: some entry leads from block b to block c
+    private final boolean[][] hasEdges;
+
+    public static void main(String[] args) {
+        // a transient state 0, which leads to the closed classes {1, 2} and
+        // {3}
+        double[][] arr = { { 0.5, 0.25, 0, 0.25 }, { 0, 0.5, 0.5, 0 },
+                { 0, 1, 0, 0 }, { 0, 0, 0, 1 } };
+        Matrix test = new CrsMatrix(new ArrayMatrix(arr, false));
+
+        BlockTriangularForm form = new BlockTriangularForm(test, 1);
+        System.out.println("COMPONENTS: " + form.getComponentCount()
+                + ", ORDER: " + Arrays.toString(form.order));
+        System.out.println(form.permute(test));
+    }
+
+    public BlockTriangularForm(Matrix mat) {
+        this(mat, MIN_BLOCK_SIZE);
+    }
+
+    /**
+     * Finds the components of mat and merges components smaller than
+     * minBlockSize.
+     */
+    public BlockTriangularForm(Matrix mat, int minBlockSize) {
+        if (mat.getRows() != mat.getCols() || minBlockSize < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        size = mat.getRows();
+        int[] component = new int[size];
+        components = findComponents(mat, component);
+
+        // Tarjan finishes a component after all components it leads to, so
+        // the components are ordered by descending number
+        int[] componentStarts = new int[components + 1];
+        for (int state = 0; state < size; ++state) {
+            componentStarts[components - component[state]]++;
+        }
+        for (int c = 0; c < components; ++c) {
+            componentStarts[c + 1] += componentStarts[c];
+        }
+        order = new int[size];
+        positions = new int[size];
+        int[] next = Arrays.copyOf(componentStarts, components);
+        for (int state = 0; state < size; ++state) {
+            int position = next[components - 1 - component[state]]++;
+            order[position] = state;
+            positions[state] = position;
+        }
+
+        blockStarts = mergeComponents(componentStarts, minBlockSize);
+        blockOfPosition = new int[size];
+        for (int block = 0; block < getBlockCount(); ++block) {
+            Arrays.fill(blockOfPosition, blockStarts[block],
+                    blockStarts[block + 1], block);
+        }
+
+        hasEdges = new boolean[getBlockCount()][getBlockCount()];
+        for (int state = 0; state < size; ++state) {
+            boolean[] edges = hasEdges[blockOfPosition[positions[state]]];
+            RowCursor cursor = mat.getRowCursor(state);
+            while (cursor.next()) {
+                if (cursor.getValue() != 0) {
+                    edges[blockOfPosition[positions[cursor.getCol()]]] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Numbers the strongly connected components of the graph of mat by an
+     * iterative version of Tarjan's algorithm, which needs no call stack of
+     * the depth of the graph. The row cursors of the states on the path keep
+     * the position in their rows.
+     *
+     * @return the number of components
+     */
+    private static int findComponents(Matrix mat, int[] component) {
+        int size = component.length;
+        int[] index = new int[size];
+        int[] lowLink = new int[size];
+        boolean[] onStack = new boolean[size];
+        int[] stack = new int[size];
+        int[] path = new int[size];
+        RowCursor[] cursors = new RowCursor[size];
+        Arrays.fill(index, -1);
+
+        int counter = 0, components = 0, stackSize = 0, pathLength = 0;
+        for (int root = 0; root < size; ++root) {
+            if (index[root] != -1) {
+                continue;
+            }
+
+            index[root] = lowLink[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            cursors[root] = mat.getRowCursor(root);
+            path[pathLength++] = root;
+
+            while (pathLength > 0) {
+                int state = path[pathLength - 1];
+                RowCursor cursor = cursors[state];
+                boolean descended = false;
+                while (!descended && cursor.next()) {
+                    if (cursor.getValue() == 0) {
+                        continue;
+                    }
+
+                    int next = cursor.getCol();
+                    if (index[next] == -1) {
+                        index[next] = lowLink[next] = counter++;
+                        stack[stackSize++] = next;
+                        onStack[next] = true;
+                        cursors[next] = mat.getRowCursor(next);
+                        path[pathLength++] = next;
+                        descended = true;
+                    } else if (onStack[next]) {
+                        lowLink[state] = Math.min(lowLink[state], index[next]);
+                    }
+                }
+                if (descended) {
+                    continue;
+                }
+
+                // all successors of state are done
+                pathLength--;
+                cursors[state] = null;
+                if (pathLength > 0) {
+                    int parent = path[pathLength - 1];
+                    lowLink[parent] = Math.min(lowLink[parent],
+                            lowLink[state]);
+                }
+                if (lowLink[state] == index[state]) {
+                    int member;
+                    do {
+                        member = stack[--stackSize];
+                        onStack[member] = false;
+                        component[member] = components;
+                    } while (member != state);
+                    components++;
+                }
+            }
+        }
+
+        return components;
+    }
+
+    private static int[] mergeComponents(int[] componentStarts,
+            int minBlockSize) {
+        int components = componentStarts.length - 1;
+        int[] result = new int[components + 1];
+        int blocks = 0;
+        // the current block is made of small components and not full yet
+        boolean open = false;
+        for (int c = 0; c < components; ++c) {
+            boolean small = componentStarts[c + 1] - componentStarts[c]
+                    < minBlockSize;
+            if (!open || !small) {
+                result[blocks++] = componentStarts[c];
+            }
+            open = small
+                    && componentStarts[c + 1] - result[blocks - 1]
+                            < minBlockSize;
+        }
+        result[blocks] = componentStarts[components];
+
+        return Arrays.copyOf(result, blocks + 1);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getComponentCount() {
+        return components;
+    }
+
+    public int getBlockCount() {
+        return blockStarts.length - 1;
+    }
+
+    public int getBlockStart(int block) {
+        return blockStarts[block];
+    }
+
+    public int getBlockSize(int block) {
+        return blockStarts[block + 1] - blockStarts[block];
+    }
+
+    /**
+     * Returns the state at position in the block upper triangular order.
+     */
+    public int getState(int position) {
+        return order[position];
+    }
+
+    public int getPosition(int state) {
+        return positions[state];
+    }
+
+    /**
+     * Returns true, if no entry leads from block to another block. A closed
+     * class of a chain forms such a block, unless it was merged.
+     */
+    public boolean isClosed(int block) {
+        for (int other = 0; other < getBlockCount(); ++other) {
+            if (other != block && hasEdges[block][other]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns true, if block from leads to block to by one or more entries of
+     * the matrix, from which the form was made.
+     */
+    boolean hasEdges(int from, int to) {
+        return hasEdges[from][to];
+    }
+
+    /**
+     * Returns mat with rows and columns in the block upper triangular order.
+     */
+    public CrsMatrix permute(Matrix mat) {
+        checkSize(mat);
+
+        int[] rowCols = new int[size];
+        double[] rowValues = new double[size];
+        CrsMatrix result = new CrsMatrix(size, size, Math.max(1, mat.nnz()));
+        for (int position = 0; position < size; ++position) {
+            int count = getPermutedRow(mat, position, rowCols, rowValues);
+            result.appendRow(position, rowCols, rowValues, count);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the blocks of mat, which is ordered like the matrix this form
+     * was made of. Block (b, c) is null, if no entry leads from b to c.
+     */
+    Matrix[][] split(Matrix mat) {
+        checkSize(mat);
+
+        int blocks = getBlockCount();
+        CrsMatrix[][] parts = new CrsMatrix[blocks][blocks];
+        for (int b = 0; b < blocks; ++b) {
+            for (int c = b; c < blocks; ++c) {
+                if (hasEdges[b][c]) {
+                    parts[b][c] = new CrsMatrix(getBlockSize(b),
+                            getBlockSize(c));
+                }
+            }
+        }
+
+        int[] rowCols = new int[size];
+        double[] rowValues = new double[size];
+        int[] runCols = new int[size];
+        double[] runValues = new double[size];
+        for (int position = 0; position < size; ++position) {
+            int count = getPermutedRow(mat, position, rowCols, rowValues);
+            int b = blockOfPosition[position];
+            int row = position - blockStarts[b];
+
+            // the columns are sorted, so every block gets one run
+            int i = 0;
+            for (int c = b; c < blocks; ++c) {
+                int runLength = 0;
+                while (i < count && rowCols[i] < blockStarts[c + 1]) {
+                    runCols[runLength] = rowCols[i] - blockStarts[c];
+                    runValues[runLength++] = rowValues[i++];
+                }
+                if (parts[b][c] != null) {
+                    parts[b][c].appendRow(row, runCols, runValues, runLength);
+                }
+            }
+        }
+
+        // the blocks may change their storage type later
+        Matrix[][] result = new Matrix[blocks][];
+        for (int b = 0; b < blocks; ++b) {
+            result[b] = Arrays.copyOf(parts[b], blocks, Matrix[].class);
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes the entries of the row at position in the block upper
+     * triangular order with ascending permuted columns.
+     *
+     * @return the number of entries
+     */
+    private int getPermutedRow(Matrix mat, int position, int[] rowCols,
+            double[] rowValues) {
+        int count = 0;
+        RowCursor cursor = mat.getRowCursor(order[position]);
+        while (cursor.next()) {
+            if (cursor.getValue() != 0) {
+                rowCols[count] = positions[cursor.getCol()];
+                rowValues[count++] = cursor.getValue();
+            }
+        }
+        sortByColumns(rowCols, rowValues, count);
+
+        return count;
+    }
+
+    private static void sortByColumns(int[] rowCols, double[] rowValues,
+            int count) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; ++i) {
+            keys[i] = ((long) rowCols[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        double[] values = Arrays.copyOf(rowValues, count);
+        for (int i = 0; i < count; ++i) {
+            rowCols[i] = (int) (keys[i] >>> 32);
+            rowValues[i] = values[(int) keys[i]];
+        }
+    }
+
+    /**
+     * Puts the blocks together and returns the matrix in the original order
+     * of the states. Null blocks are zero. The result is an
+     * {@link ArrayMatrix}, if at least denseThreshold of its entries are
+     * non-zero, and a {@link CrsMatrix} otherwise.
+     */
+    Matrix join(Matrix[][] blocks, double denseThreshold) {
+        long nnz = 0;
+        for (int b = 0; b < blocks.length; ++b) {
+            for (int c = b; c < blocks.length; ++c) {
+                if (blocks[b][c] != null) {
+                    nnz += blocks[b][c].nnz();
+                }
+            }
+        }
+
+        if (nnz >= denseThreshold * size * size) {
+            Matrix result = new ArrayMatrix(size, size);
+            for (int b = 0; b < blocks.length; ++b) {
+                for (int c = b; c < blocks.length; ++c) {
+                    if (blocks[b][c] != null) {
+                        putBlock(blocks[b][c], b, c, result);
+                    }
+                }
+            }
+            return result;
+        }
+
+        int[] rowCols = new int[size];
+        double[] rowValues = new double[size];
+        CrsMatrix result = new CrsMatrix(size, size, (int) Math.max(1, nnz));
+        for (int state = 0; state < size; ++state) {
+            int b = blockOfPosition[positions[state]];
+            int row = positions[state] - blockStarts[b];
+            int count = 0;
+            for (int c = b; c < blocks.length; ++c) {
+                if (blocks[b][c] == null) {
+                    continue;
+                }
+
+                RowCursor cursor = blocks[b][c].getRowCursor(row);
+                while (cursor.next()) {
+                    if (cursor.getValue() != 0) {
+                        rowCols[count] = order[blockStarts[c]
+                                + cursor.getCol()];
+                        rowValues[count++] = cursor.getValue();
+                    }
+                }
+            }
+            sortByColumns(rowCols, rowValues, count);
+            result.appendRow(state, rowCols, rowValues, count);
+        }
+
+        return result;
+    }
+
+    private void putBlock(Matrix block, final int b, final int c,
+            final Matrix target) {
+        block.forEachNonZero(new EntryVisitor() {
+            @Override
+            public void visit(int row, int col, double value) {
+                target.put(value, order[blockStarts[b] + row],
+                        order[blockStarts[c] + col]);
+            }
+        });
+    }
+
+    private void checkSize(Matrix mat) {
+        if (mat.getRows() != size || mat.getCols() != size) {
+            throw new IllegalArgumentException();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package matrices;
+
+/**
+ * Is the result of
+ * {@link MatrixPowerer#powerUntilConverged(Matrix, MatrixMultType, long, double, boolean)}
+ * .
+ */
+public class ConvergedPower {
+
+    private final Matrix power;
+    private final long exponent, reachedExponent;
+    private final int multiplications;
+    private final double columnSpread;
+    private final boolean converged;
+    private final double[] limitRow;
+
+    ConvergedPower(Matrix power, long exponent, long reachedExponent,
+            int multiplications, double columnSpread, boolean converged,
+            double[] limitRow) {
+        this.power = power;
+        this.exponent = exponent;
+        this.reachedExponent = reachedExponent;
+        this.multiplications = multiplications;
+        this.columnSpread = columnSpread;
+        this.converged = converged;
+        this.limitRow = limitRow;
+    }
+
+    /**
+     * Returns the calculated power. If the power has converged, it differs
+     * from the requested power by at most {@link #getColumnSpread()} in every
+     * entry.
+     */
+    public Matrix getPower() {
+        return power;
+    }
+
+    /**
+     * Returns the requested exponent.
+     */
+    public long getExponent() {
+        return exponent;
+    }
+
+    /**
+     * Returns the exponent of {@link #getPower()}, which is smaller than the
+     * requested one, if the power has converged early.
+     */
+    public long getReachedExponent() {
+        return reachedExponent;
+    }
+
+    public int getMultiplications() {
+        return multiplications;
+    }
+
+    public double getColumnSpread() {
+        return columnSpread;
+    }
+
+    public boolean isConverged() {
+        return converged;
+    }
+
+    /**
+     * Returns the row of the rank one limit: the middle of the range of every
+     * column of the power. It differs from the rows of the requested power by
+     * at most half the column spread in every entry.
+     */
+    public double[] getLimitRow() {
+        return limitRow.clone();
+    }
+
+    @Override
+    public String toString() {
+        return (converged ? "CONVERGED" : "NOT CONVERGED") + " AT EXPONENT "
+                + reachedExponent + " OF " + exponent + " AFTER "
+                + multiplications + " MULTIPLICATIONS (COLUMN SPREAD: "
+                + columnSpread + ")";
+    }
+}
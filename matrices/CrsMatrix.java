@@ -1,6 +1,7 @@
 package matrices;
 
 import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
 
 import tools.ArrayHelper;
 
@@ -23,10 +24,23 @@ public class CrsMatrix extends Matrix {
     private int nextValIndex;
     private int size;
 
+    // this matrix is a row range view, whose val and col_idx belong to its
+    // source: the entries of this matrix are stored at row_ptr[0], ...,
+    // row_ptr[rows] - 1 and have to be copied before any change. The source
+    // is not marked, so reading a view never writes to it.
+    private boolean sharedStorage = false;
+
     private static final int ARRAY_MULT_FACTOR = 2;
     private static final int NO_POSITION = -1;
     private static final double DEFAULT_VALUE = 0.0;
-    private static final int NUMBER_OF_THREADS = 8;
+    private static final int NUMBER_OF_THREADS = Runtime.getRuntime()
+            .availableProcessors();
+
+    // more chunks than threads even out rows of different cost
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    // smaller chunks are not worth a task of their own
+    private static final long MIN_FLOPS_PER_CHUNK = 4_096;
 
     // write complete rows first in multiplication
     private static final boolean WRITE_BY_ROW = true;
@@ -34,6 +48,9 @@ public class CrsMatrix extends Matrix {
     // increases speed when the matrix is not too sparse
     private static final boolean BINARY_ACCESS = true;
 
+    // count the result entries first, then fill exactly sized arrays
+    private static final boolean TWO_PHASE_MULT = true;
+
     public CrsMatrix(int rows, int cols, int initNumberOfVals) {
         initWith(rows, cols, initNumberOfVals);
     }
@@ -59,47 +76,52 @@ public class CrsMatrix extends Matrix {
         row_ptr = new int[rows + 1];
     }
 
+    /**
+     * Creates a matrix with storage of exactly row_ptr[rows] entries. The
+     * column indices and values have to be filled in by the caller.
+     */
+    private CrsMatrix(int rows, int cols, int[] row_ptr) {
+        this.rows = rows;
+        this.cols = cols;
+        this.row_ptr = row_ptr;
+        nextValIndex = row_ptr[rows];
+        // storage must never be empty, it is enlarged by multiplication
+        size = Math.max(nextValIndex, 1);
+        val = new double[size];
+        col_idx = new int[size];
+    }
+
     public CrsMatrix(Matrix mat) {
         this.rows = mat.getRows();
         this.cols = mat.getCols();
         nextValIndex = 0;
-        size = rows + cols;
+        size = Math.max(mat.nnz(), 1);
         initArraysWithSize(size, rows);
+
+        // cursors of other storage types may return the columns unsorted
+        double[] rowValues = new double[cols];
+        int[] rowCols = new int[cols];
         int entryCount = 0;
         for (int r = 0; r < rows; ++r) {
             this.row_ptr[r] = entryCount;
-            for (int c = 0; c < cols; ++c) {
-                double entry = mat.get(r, c);
-                if (entry != DEFAULT_VALUE) {
-                    setLastEntryAt(entry, c);
-                    entryCount++;
+            int rowCount = 0;
+            boolean sorted = true;
+            RowCursor cursor = mat.getRowCursor(r);
+            while (cursor.next()) {
+                int c = cursor.getCol();
+                if (rowCount > 0 && rowCols[rowCount - 1] > c) {
+                    sorted = false;
                 }
+                rowCols[rowCount++] = c;
+                rowValues[c] = cursor.getValue();
             }
-        }
-        this.row_ptr[rows] = entryCount;
-    }
-
-    private CrsMatrix(CrsMatrix[] matrices) {
-        this.rows = matrices[0].rows;
-        this.cols = matrices[0].cols;
-        size = 0;
-        for (int matIndex = 0; matIndex < matrices.length; ++matIndex) {
-            size += matrices[matIndex].nextValIndex;
-        }
-        initArraysWithSize(size, rows);
-        nextValIndex = 0;
-        int entryCount = 0;
-
-        for (int row = 0; row < rows; ++row) {
-            this.row_ptr[row] = entryCount;
-            int matIndex = row % matrices.length;
-            for (int col = 0; col < cols; ++col) {
-                double entry = matrices[matIndex].get(row, col);
-                if (entry != DEFAULT_VALUE) {
-                    setLastEntryAt(entry, col);
-                    entryCount++;
-                }
+            if (!sorted) {
+                Arrays.sort(rowCols, 0, rowCount);
             }
+            for (int i = 0; i < rowCount; ++i) {
+                setLastEntryAt(rowValues[rowCols[i]], rowCols[i]);
+            }
+            entryCount += rowCount;
         }
         this.row_ptr[rows] = entryCount;
     }
@@ -257,11 +279,32 @@ public class CrsMatrix extends Matrix {
         nextValIndex++;
     }
 
+    /**
+     * Appends a row to a matrix, whose rows are built in order: every row has
+     * to be appended once, starting with row 0. The columns have to be
+     * ascending, zero values are skipped. In contrast to
+     * {@link #put(double, int, int)}, no entries are shifted.
+     */
+    void appendRow(int row, int[] rowCols, double[] rowValues, int count) {
+        if (row_ptr[row] != nextValIndex) {
+            throw new IllegalStateException("ROWS MUST BE APPENDED IN ORDER");
+        }
+
+        for (int i = 0; i < count; ++i) {
+            if (rowValues[i] != DEFAULT_VALUE) {
+                setLastEntryAt(rowValues[i], rowCols[i]);
+            }
+        }
+        row_ptr[row + 1] = nextValIndex;
+    }
+
     @Override
     public void put(double val, int row, int col) {
         if (!isValidEntryLocation(row, col))
             return;
 
+        ensureOwnStorage();
+
         int position = getPosition(row, col);
         if (position == NO_POSITION && val != DEFAULT_VALUE) {
             // get next larger row or column index
@@ -352,6 +395,8 @@ public class CrsMatrix extends Matrix {
         if (!isValidEntryLocation(row, col))
             return;
 
+        ensureOwnStorage();
+
         int position = getPosition(row, col);
         if (position != NO_POSITION) {
             this.val = ArrayHelper.shift(this.val, position, nextValIndex,
@@ -365,6 +410,69 @@ public class CrsMatrix extends Matrix {
         }
     }
 
+    @Override
+    public RowCursor getRowCursor(final int row) {
+        if (row < 0 || row >= rows) {
+            throw new IllegalArgumentException();
+        }
+
+        return new RowCursor() {
+            private int index = row_ptr[row] - 1;
+
+            @Override
+            public boolean next() {
+                // stored zeros are skipped
+                while (++index < row_ptr[row + 1]) {
+                    if (val[index] != DEFAULT_VALUE) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public int getCol() {
+                return col_idx[index];
+            }
+
+            @Override
+            public double getValue() {
+                return val[index];
+            }
+        };
+    }
+
+    @Override
+    void addRowVectorProductsTo(double[][] vectors, double[][] results) {
+        for (int row = 0; row < rows; ++row) {
+            if (row_ptr[row] == row_ptr[row + 1] || isZeroInAll(vectors, row)) {
+                continue;
+            }
+            for (int v = 0; v < vectors.length; ++v) {
+                double factor = vectors[v][row];
+                if (factor == DEFAULT_VALUE) {
+                    continue;
+                }
+                double[] result = results[v];
+                for (int index = row_ptr[row]; index < row_ptr[row + 1]; ++index) {
+                    result[col_idx[index]] += factor * val[index];
+                }
+            }
+        }
+    }
+
+    @Override
+    public int nnz() {
+        int result = 0;
+        for (int index = row_ptr[0]; index < row_ptr[rows]; ++index) {
+            if (val[index] != DEFAULT_VALUE) {
+                result++;
+            }
+        }
+
+        return result;
+    }
+
     @Override
     public int getRows() {
         return rows;
@@ -377,7 +485,7 @@ public class CrsMatrix extends Matrix {
 
     public void printStatus() {
         System.out.println("---STATUS---");
-        System.out.println("LENGTH:\t\t " + nextValIndex);
+        System.out.println("LENGTH:\t\t " + (row_ptr[rows] - row_ptr[0]));
         System.out.println("RESERVED SPACE:\t " + val.length);
         System.out.println("ROW_PTR:\t " + ArrayHelper.toString(row_ptr));
         System.out.println("COL_IDX:\t " + ArrayHelper.toString(col_idx));
@@ -386,37 +494,527 @@ public class CrsMatrix extends Matrix {
 
     @Override
     public Matrix multWith(Matrix matrix) {
+        return multWith(matrix, (RowEpilogue) null);
+    }
+
+    /**
+     * Applies the epilogue to every row of the naive products right after
+     * the row has been calculated.
+     */
+    @Override
+    public Matrix multWith(Matrix matrix, MatrixMultType multType,
+            RowEpilogue epilogue) {
+        if (matrix.isMultipliedFromLeft()) {
+            return super.multWith(matrix, multType, epilogue);
+        }
+
+        switch (multType) {
+        case NAIVE:
+            return multWith(matrix, epilogue);
+        case PARALLEL_NAIVE:
+            return prlMultWith(matrix, epilogue);
+        default:
+            return super.multWith(matrix, multType, epilogue);
+        }
+    }
+
+    @Override
+    public void applyRowEpilogue(RowEpilogue epilogue) {
+        ensureOwnStorage();
+
+        RowEpilogue.Chunk chunk = epilogue.startChunk();
+        for (int row = 0; row < rows; ++row) {
+            chunk.apply(val, row_ptr[row], row_ptr[row + 1] - row_ptr[row]);
+        }
+        chunk.finish();
+        if (epilogue.dropsEntries()) {
+            removeZeroEntries();
+        }
+    }
+
+    /**
+     * Removes the stored entries, which are zero, so that dropped entries do
+     * not take part in later multiplications.
+     */
+    private void removeZeroEntries() {
+        int entryCount = 0;
+        for (int row = 0; row < rows; ++row) {
+            int start = row_ptr[row];
+            row_ptr[row] = entryCount;
+            entryCount = compactEntries(start, row_ptr[row + 1], entryCount);
+        }
+        row_ptr[rows] = entryCount;
+        nextValIndex = entryCount;
+    }
+
+    /**
+     * Moves the non-zero entries of the positions start, ..., end - 1 to the
+     * positions from target on, which must not be behind start, and returns
+     * the position after the last moved entry.
+     */
+    private int compactEntries(int start, int end, int target) {
+        for (int index = start; index < end; ++index) {
+            if (val[index] != DEFAULT_VALUE) {
+                val[target] = val[index];
+                col_idx[target] = col_idx[index];
+                target++;
+            }
+        }
+
+        return target;
+    }
+
+    private Matrix multWith(Matrix matrix, RowEpilogue epilogue) {
         if (!multPossible(matrix)) {
             throw new IllegalArgumentException();
         }
 
+        if (matrix instanceof ArrayMatrix) {
+            return denseMultRows((ArrayMatrix) matrix, 0, rows, epilogue);
+        }
+
+        CrsMatrix right;
+        if (matrix instanceof CrsMatrix) {
+            right = (CrsMatrix) matrix;
+        } else {
+            // one conversion costs O(rows * cols), the generic
+            // multiplication would cost O(rows * cols * inner)
+            right = new CrsMatrix(matrix);
+        }
+
+        if (TWO_PHASE_MULT) {
+            return numericMultRows(right, symbolicMultWith(right), 0, rows,
+                    epilogue);
+        } else {
+            CrsMatrix result = gustavsonMultWith(right);
+            if (epilogue != null) {
+                result.applyRowEpilogue(epilogue);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Symbolic phase of the sparse multiplication: counts the entries of every
+     * row of this * matrix without calculating any value. The sum of the
+     * returned counts is the number of entries the product will store, so the
+     * fill-in can be checked before the numeric phase is started.
+     * 
+     * @param matrix
+     *            is the right factor.
+     * @return the number of entries in every row of the product.
+     */
+    public int[] symbolicMultWith(CrsMatrix matrix) {
+        if (!multPossible(matrix)) {
+            throw new IllegalArgumentException();
+        }
+
+        return symbolicMultRows(matrix, 0, rows);
+    }
+
+    private int[] symbolicMultRows(CrsMatrix matrix, int firstRow, int endRow) {
+        int[] rowCounts = new int[endRow - firstRow];
+        int[] marker = new int[matrix.getCols()];
+        Arrays.fill(marker, NO_POSITION);
+
+        for (int row = firstRow; row < endRow; ++row) {
+            int count = 0;
+            for (int index = row_ptr[row]; index < row_ptr[row + 1]; ++index) {
+                if (val[index] == DEFAULT_VALUE) {
+                    continue;
+                }
+
+                int inner = col_idx[index];
+                for (int rightIndex = matrix.row_ptr[inner]; rightIndex < matrix.row_ptr[inner + 1]; ++rightIndex) {
+                    int col = matrix.col_idx[rightIndex];
+                    if (marker[col] != row) {
+                        marker[col] = row;
+                        count++;
+                    }
+                }
+            }
+            rowCounts[row - firstRow] = count;
+        }
+
+        return rowCounts;
+    }
+
+    /**
+     * Numeric phase of the sparse multiplication: calculates this * matrix
+     * into arrays of exactly the size given by the symbolic phase, so no
+     * storage is enlarged during the calculation. Entries which cancel out to
+     * zero remain stored.
+     * 
+     * @param matrix
+     *            is the right factor.
+     * @param rowCounts
+     *            are the row counts returned by
+     *            {@link #symbolicMultWith(CrsMatrix)} for the same factors.
+     * @return the product this * matrix.
+     */
+    public CrsMatrix numericMultWith(CrsMatrix matrix, int[] rowCounts) {
+        if (!multPossible(matrix) || rowCounts.length != rows) {
+            throw new IllegalArgumentException();
+        }
+
+        return numericMultRows(matrix, rowCounts, 0, rows, null);
+    }
+
+    /**
+     * Calculates the rows firstRow, ..., endRow - 1 of this * matrix. The
+     * result only has endRow - firstRow rows. The epilogue, which may be
+     * null, is applied to every row right after it has been written. If it
+     * drops entries, the row is moved down over the dropped entries of the
+     * earlier rows at once.
+     */
+    private CrsMatrix numericMultRows(CrsMatrix matrix, int[] rowCounts,
+            int firstRow, int endRow, RowEpilogue epilogue) {
+        int resultRows = endRow - firstRow;
+        int[] resultRowPtr = new int[resultRows + 1];
+        for (int row = 0; row < resultRows; ++row) {
+            resultRowPtr[row + 1] = resultRowPtr[row] + rowCounts[row];
+        }
+
+        CrsMatrix result = new CrsMatrix(resultRows, matrix.getCols(),
+                resultRowPtr);
+
+        double[] accumulator = new double[matrix.getCols()];
+        int[] marker = new int[matrix.getCols()];
+        Arrays.fill(marker, NO_POSITION);
+
+        boolean compact = epilogue != null && epilogue.dropsEntries();
+        RowEpilogue.Chunk chunk = epilogue == null ? null : epilogue
+                .startChunk();
+        int entryCount = 0;
+        for (int row = firstRow; row < endRow; ++row) {
+            int start = resultRowPtr[row - firstRow];
+            int rowCount = rowCounts[row - firstRow];
+            int usedColCount = 0;
+            for (int index = row_ptr[row]; index < row_ptr[row + 1]; ++index) {
+                double leftVal = val[index];
+                if (leftVal == DEFAULT_VALUE) {
+                    continue;
+                }
+
+                int inner = col_idx[index];
+                for (int rightIndex = matrix.row_ptr[inner]; rightIndex < matrix.row_ptr[inner + 1]; ++rightIndex) {
+                    int col = matrix.col_idx[rightIndex];
+                    if (marker[col] != row) {
+                        if (usedColCount == rowCount) {
+                            throw new IllegalArgumentException(
+                                    "ROW COUNTS DO NOT MATCH THE FACTORS!");
+                        }
+                        marker[col] = row;
+                        accumulator[col] = leftVal * matrix.val[rightIndex];
+                        result.col_idx[start + usedColCount++] = col;
+                    } else {
+                        accumulator[col] += leftVal * matrix.val[rightIndex];
+                    }
+                }
+            }
+
+            if (usedColCount != rowCount) {
+                throw new IllegalArgumentException(
+                        "ROW COUNTS DO NOT MATCH THE FACTORS!");
+            }
+
+            // the column indices of the row were written in the slot
+            // reserved for it, sort them in place
+            Arrays.sort(result.col_idx, start, start + usedColCount);
+            for (int index = start; index < start + usedColCount; ++index) {
+                result.val[index] = accumulator[result.col_idx[index]];
+            }
+            if (chunk != null) {
+                chunk.apply(result.val, start, usedColCount);
+            }
+            if (compact) {
+                resultRowPtr[row - firstRow] = entryCount;
+                entryCount = result.compactEntries(start, start
+                        + usedColCount, entryCount);
+            }
+        }
+        if (compact) {
+            resultRowPtr[resultRows] = entryCount;
+            result.nextValIndex = entryCount;
+        }
+        if (chunk != null) {
+            chunk.finish();
+        }
+
+        return result;
+    }
+
+    /**
+     * Calculates the rows firstRow, ..., endRow - 1 of this * matrix for a
+     * dense right factor. Every result row is accumulated densely as a sum of
+     * scaled rows of the right factor (sparse row times dense rows); only its
+     * non-zero entries are stored. The epilogue, which may be null, is applied
+     * to the dense row before it is stored.
+     */
+    private CrsMatrix denseMultRows(ArrayMatrix matrix, int firstRow,
+            int endRow, RowEpilogue epilogue) {
+        int resultRows = endRow - firstRow;
+        int resultCols = matrix.getCols();
+        CrsMatrix result = new CrsMatrix(resultRows, resultCols, Math.max(1,
+                resultRows + resultCols));
+
+        double[] accumulator = new double[resultCols];
+        RowEpilogue.Chunk chunk = epilogue == null ? null : epilogue
+                .startChunk();
+
+        int entryCount = 0;
+        for (int row = firstRow; row < endRow; ++row) {
+            result.row_ptr[row - firstRow] = entryCount;
+            if (row_ptr[row] == row_ptr[row + 1]) {
+                continue;
+            }
+
+            Arrays.fill(accumulator, DEFAULT_VALUE);
+            for (int index = row_ptr[row]; index < row_ptr[row + 1]; ++index) {
+                if (val[index] != DEFAULT_VALUE) {
+                    matrix.addScaledRowTo(col_idx[index], val[index],
+                            accumulator);
+                }
+            }
+            if (chunk != null) {
+                chunk.apply(accumulator, 0, resultCols);
+            }
+
+            for (int col = 0; col < resultCols; ++col) {
+                if (accumulator[col] != DEFAULT_VALUE) {
+                    result.setLastEntryAt(accumulator[col], col);
+                    entryCount++;
+                }
+            }
+        }
+        result.row_ptr[resultRows] = entryCount;
+        if (chunk != null) {
+            chunk.finish();
+        }
+
+        return result;
+    }
+
+    /**
+     * Multiplies this matrix with another CRS matrix row by row (Gustavson's
+     * algorithm). Every result row is collected in a sparse accumulator and
+     * appended to the result, so the cost is proportional to the number of
+     * floating point operations and non-zero entries instead of rows * cols *
+     * inner.
+     * 
+     * @param matrix
+     *            is the right factor.
+     * @return the product this * matrix.
+     */
+    private CrsMatrix gustavsonMultWith(CrsMatrix matrix) {
         CrsMatrix result = new CrsMatrix(this.getRows(), matrix.getCols(),
-                this.getRows() + matrix.getCols());
+                Math.max(1, this.getRows() + matrix.getCols()));
 
-        multThisWithInto(matrix, result, WRITE_BY_ROW);
+        // sparse accumulator: dense values, markers and the touched columns
+        double[] accumulator = new double[matrix.getCols()];
+        int[] marker = new int[matrix.getCols()];
+        Arrays.fill(marker, NO_POSITION);
+        int[] usedCols = new int[matrix.getCols()];
+
+        int entryCount = 0;
+        for (int row = 0; row < rows; ++row) {
+            result.row_ptr[row] = entryCount;
+
+            int usedColCount = 0;
+            for (int index = row_ptr[row]; index < row_ptr[row + 1]; ++index) {
+                double leftVal = val[index];
+                if (leftVal == DEFAULT_VALUE) {
+                    continue;
+                }
+
+                int inner = col_idx[index];
+                for (int rightIndex = matrix.row_ptr[inner]; rightIndex < matrix.row_ptr[inner + 1]; ++rightIndex) {
+                    int col = matrix.col_idx[rightIndex];
+                    if (marker[col] != row) {
+                        marker[col] = row;
+                        accumulator[col] = leftVal * matrix.val[rightIndex];
+                        usedCols[usedColCount++] = col;
+                    } else {
+                        accumulator[col] += leftVal * matrix.val[rightIndex];
+                    }
+                }
+            }
+
+            // col_idx has to be sorted within every row
+            Arrays.sort(usedCols, 0, usedColCount);
+
+            for (int i = 0; i < usedColCount; ++i) {
+                int col = usedCols[i];
+                if (accumulator[col] != DEFAULT_VALUE) {
+                    result.setLastEntryAt(accumulator[col], col);
+                    entryCount++;
+                }
+            }
+        }
+        result.row_ptr[rows] = entryCount;
 
         return result;
     }
 
     @Override
     public Matrix prlMultWith(Matrix matrix) {
+        return prlMultWith(matrix, null);
+    }
+
+    private Matrix prlMultWith(Matrix matrix, RowEpilogue epilogue) {
         if (!multPossible(matrix)) {
             throw new IllegalArgumentException();
         }
 
-        CrsMatrix[] matrices = new CrsMatrix[NUMBER_OF_THREADS];
-        for (int i = 0; i < NUMBER_OF_THREADS; ++i) {
-            matrices[i] = new CrsMatrix(this.getRows(), matrix.getCols(),
-                    this.getRows() + matrix.getCols());
+        Matrix right;
+        if (matrix instanceof CrsMatrix || matrix instanceof ArrayMatrix) {
+            right = matrix;
+        } else {
+            right = new CrsMatrix(matrix);
+        }
+
+        int[] chunkStarts = getBalancedRowChunks(right, NUMBER_OF_THREADS
+                * CHUNKS_PER_THREAD);
+        int chunks = chunkStarts.length - 1;
+
+        RowChunkMultiplier[] workers = new RowChunkMultiplier[chunks];
+        for (int chunk = 0; chunk < chunks; ++chunk) {
+            workers[chunk] = new RowChunkMultiplier(this, right,
+                    chunkStarts[chunk], chunkStarts[chunk + 1], epilogue);
+            workers[chunk].fork();
+        }
+        CrsMatrix[] slices = new CrsMatrix[chunks];
+        for (int chunk = chunks - 1; chunk >= 0; --chunk) {
+            slices[chunk] = workers[chunk].join();
         }
 
-        prlMultThisWithInto(matrix, matrices, NUMBER_OF_THREADS, WRITE_BY_ROW);
+        return stitchRowSlices(slices, right.getCols());
+    }
+
+    /**
+     * Splits the rows of this * matrix into contiguous chunks of about the
+     * same number of floating point operations.
+     * 
+     * @return the first row of every chunk, followed by the number of rows.
+     */
+    private int[] getBalancedRowChunks(Matrix matrix, int maxChunks) {
+        CrsMatrix sparseRight = null;
+        if (matrix instanceof CrsMatrix) {
+            sparseRight = (CrsMatrix) matrix;
+        }
 
-        CrsMatrix result = new CrsMatrix(matrices);
+        long[] rowFlops = new long[rows];
+        long totalFlops = 0;
+        for (int row = 0; row < rows; ++row) {
+            long flops = 0;
+            if (sparseRight != null) {
+                for (int index = row_ptr[row]; index < row_ptr[row + 1]; ++index) {
+                    int inner = col_idx[index];
+                    flops += sparseRight.row_ptr[inner + 1]
+                            - sparseRight.row_ptr[inner];
+                }
+            } else {
+                // every entry of the row meets a dense row
+                flops = (long) (row_ptr[row + 1] - row_ptr[row])
+                        * matrix.getCols();
+            }
+            // every row costs something, even an empty one
+            rowFlops[row] = flops + 1;
+            totalFlops += rowFlops[row];
+        }
+
+        int chunks = (int) Math.max(1, Math.min(maxChunks,
+                Math.min(rows, totalFlops / MIN_FLOPS_PER_CHUNK)));
+        long flopsPerChunk = (totalFlops + chunks - 1) / chunks;
+
+        int[] chunkStarts = new int[chunks + 1];
+        int chunk = 1;
+        long flops = 0;
+        for (int row = 0; row < rows && chunk < chunks; ++row) {
+            flops += rowFlops[row];
+            if (flops >= chunk * flopsPerChunk) {
+                chunkStarts[chunk++] = row + 1;
+            }
+        }
+        // chunks left over at the end stay empty
+        for (; chunk <= chunks; ++chunk) {
+            chunkStarts[chunk] = rows;
+        }
+
+        return chunkStarts;
+    }
+
+    /**
+     * Pools row slices into one matrix: the row pointers are shifted by a
+     * prefix sum over the slice sizes, the entries are copied in bulk.
+     */
+    private static CrsMatrix stitchRowSlices(CrsMatrix[] slices, int cols) {
+        int rows = 0;
+        for (CrsMatrix slice : slices) {
+            rows += slice.rows;
+        }
+
+        int[] resultRowPtr = new int[rows + 1];
+        int rowOffset = 0;
+        int entryOffset = 0;
+        for (CrsMatrix slice : slices) {
+            for (int row = 0; row < slice.rows; ++row) {
+                resultRowPtr[rowOffset + row] = entryOffset
+                        + slice.row_ptr[row];
+            }
+            rowOffset += slice.rows;
+            entryOffset += slice.nextValIndex;
+        }
+        resultRowPtr[rows] = entryOffset;
+
+        CrsMatrix result = new CrsMatrix(rows, cols, resultRowPtr);
+        entryOffset = 0;
+        for (CrsMatrix slice : slices) {
+            System.arraycopy(slice.val, 0, result.val, entryOffset,
+                    slice.nextValIndex);
+            System.arraycopy(slice.col_idx, 0, result.col_idx, entryOffset,
+                    slice.nextValIndex);
+            entryOffset += slice.nextValIndex;
+        }
 
         return result;
     }
 
+    /**
+     * Calculates a contiguous range of rows of a product. Every worker has its
+     * own accumulator and its own slice of the result.
+     */
+    private static class RowChunkMultiplier extends RecursiveTask<CrsMatrix> {
+        private static final long serialVersionUID = -2740511427718622651L;
+        private CrsMatrix left;
+        private Matrix right;
+        private int firstRow, endRow;
+        private RowEpilogue epilogue;
+
+        private RowChunkMultiplier(CrsMatrix left, Matrix right,
+                int firstRow, int endRow, RowEpilogue epilogue) {
+            this.left = left;
+            this.right = right;
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+            this.epilogue = epilogue;
+        }
+
+        @Override
+        protected CrsMatrix compute() {
+            if (right instanceof ArrayMatrix) {
+                return left.denseMultRows((ArrayMatrix) right, firstRow,
+                        endRow, epilogue);
+            }
+
+            CrsMatrix sparseRight = (CrsMatrix) right;
+            int[] rowCounts = left.symbolicMultRows(sparseRight, firstRow,
+                    endRow);
+            return left.numericMultRows(sparseRight, rowCounts, firstRow,
+                    endRow, epilogue);
+        }
+    }
+
     @Override
     public Matrix getNewInstance(int rows, int cols) {
         return new CrsMatrix(rows, cols);
@@ -462,6 +1060,65 @@ public class CrsMatrix extends Matrix {
         return result;
     }
 
+    /**
+     * Returns a view of the rows row1, ..., row2 if the part contains all
+     * columns, which shares the column indices and values of this matrix. The
+     * view copies the shared entries before it is changed itself. Like the
+     * views of other storage types, it may only be used as long as this
+     * matrix is not changed, which may move the shared entries. Other parts
+     * are copied.
+     */
+    @Override
+    public Matrix getPartView(int row1, int col1, int row2, int col2) {
+        if (row1 < 0 || row1 > row2 || row2 >= getRows() || col1 != 0
+                || col2 != getCols() - 1) {
+            return getPart(row1, col1, row2, col2);
+        }
+
+        CrsMatrix result = new CrsMatrix(row2 - row1 + 1, getCols(),
+                Arrays.copyOfRange(row_ptr, row1, row2 + 2), val, col_idx);
+
+        return result;
+    }
+
+    /**
+     * Creates a row range view of the given storage.
+     */
+    private CrsMatrix(int rows, int cols, int[] row_ptr, double[] val,
+            int[] col_idx) {
+        this.rows = rows;
+        this.cols = cols;
+        this.row_ptr = row_ptr;
+        this.val = val;
+        this.col_idx = col_idx;
+        nextValIndex = row_ptr[rows];
+        size = val.length;
+        sharedStorage = true;
+    }
+
+    /**
+     * Copies the entries of this matrix into storage of its own, if they are
+     * shared with another matrix.
+     */
+    private void ensureOwnStorage() {
+        if (!sharedStorage) {
+            return;
+        }
+
+        int first = row_ptr[0];
+        int entries = row_ptr[rows] - first;
+        size = Math.max(entries, 1);
+        val = Arrays.copyOfRange(val, first, first + size);
+        col_idx = Arrays.copyOfRange(col_idx, first, first + size);
+        int[] newRowPtr = new int[rows + 1];
+        for (int row = 0; row <= rows; ++row) {
+            newRowPtr[row] = row_ptr[row] - first;
+        }
+        row_ptr = newRowPtr;
+        nextValIndex = entries;
+        sharedStorage = false;
+    }
+
     @Override
     public void add(Matrix mat) {
         addSub(mat, true);
@@ -474,52 +1131,92 @@ public class CrsMatrix extends Matrix {
 
     private void addSub(Matrix mat, boolean add) {
         if (hasSameDimensions(mat)) {
-            CrsMatrix temp = new CrsMatrix(this.getRows(), this.getCols());
-
-            int entryCount = 0;
-            double val;
-            int nextEntryIndex;
-
-            for (int row = 0; row < this.getRows(); ++row) {
-                temp.row_ptr[row] = entryCount;
-                nextEntryIndex = nextEntryIndexForColumn(row,
-                        this.row_ptr[row] - 1);
-                for (int col = 0; col < this.getCols(); ++col) {
-                    if (nextEntryIndex != -1 && col_idx[nextEntryIndex] == col) {
-                        val = this.val[nextEntryIndex];
-                        nextEntryIndex = nextEntryIndexForColumn(row,
-                                nextEntryIndex);
-                    } else {
-                        val = 0;
-                    }
+            CrsMatrix that = mat instanceof CrsMatrix ? (CrsMatrix) mat
+                    : new CrsMatrix(mat);
+            CrsMatrix temp = new CrsMatrix(this.getRows(), this.getCols(),
+                    Math.max(this.nnz() + that.nnz(), 1));
 
-                    if (add) {
-                        val += mat.get(row, col);
-                        if (val != DEFAULT_VALUE) {
-                            temp.setLastEntryAt(val, col);
-                            entryCount++;
-                        }
-                    } else {
-                        val -= mat.get(row, col);
-                        if (val != DEFAULT_VALUE) {
-                            temp.setLastEntryAt(val, col);
-                            entryCount++;
-                        }
-                    }
-                }
-            }
-            temp.row_ptr[temp.getRows()] = entryCount;
+            mergeInto(that, add, temp);
 
             this.row_ptr = temp.row_ptr;
             this.val = temp.val;
             this.col_idx = temp.col_idx;
             this.size = temp.size;
             this.nextValIndex = temp.nextValIndex;
+            this.sharedStorage = false;
         } else {
             throw new IllegalArgumentException();
         }
     }
 
+    @Override
+    protected void addSubInto(Matrix mat, Matrix target, boolean add) {
+        if (!(target instanceof CrsMatrix)) {
+            super.addSubInto(mat, target, add);
+            return;
+        }
+        CrsMatrix crsTarget = (CrsMatrix) target;
+        CrsMatrix that = mat instanceof CrsMatrix ? (CrsMatrix) mat
+                : new CrsMatrix(mat);
+
+        // the storage of the target is overwritten, unless it is shared
+        if (crsTarget.sharedStorage) {
+            crsTarget.initArraysWithSize(crsTarget.size, crsTarget.rows);
+            crsTarget.sharedStorage = false;
+        }
+        crsTarget.nextValIndex = 0;
+
+        mergeInto(that, add, crsTarget);
+    }
+
+    /**
+     * Writes this + that or this - that into the empty storage of target by
+     * merging the sorted rows of both matrices.
+     */
+    private void mergeInto(CrsMatrix that, boolean add, CrsMatrix target) {
+        int entryCount = 0;
+        double val;
+        int thisIndex;
+        int thatIndex;
+
+        for (int row = 0; row < this.getRows(); ++row) {
+            target.row_ptr[row] = entryCount;
+            thisIndex = nextEntryIndexForColumn(row, this.row_ptr[row] - 1);
+            thatIndex = that.nextEntryIndexForColumn(row,
+                    that.row_ptr[row] - 1);
+            while (thisIndex != -1 || thatIndex != -1) {
+                int col;
+                if (thatIndex == -1 || (thisIndex != -1
+                        && col_idx[thisIndex] < that.col_idx[thatIndex])) {
+                    col = col_idx[thisIndex];
+                    val = this.val[thisIndex];
+                    thisIndex = nextEntryIndexForColumn(row, thisIndex);
+                } else {
+                    col = that.col_idx[thatIndex];
+                    if (thisIndex != -1 && col_idx[thisIndex] == col) {
+                        val = this.val[thisIndex];
+                        thisIndex = nextEntryIndexForColumn(row, thisIndex);
+                    } else {
+                        val = 0;
+                    }
+
+                    if (add) {
+                        val += that.val[thatIndex];
+                    } else {
+                        val -= that.val[thatIndex];
+                    }
+                    thatIndex = that.nextEntryIndexForColumn(row, thatIndex);
+                }
+
+                if (val != DEFAULT_VALUE) {
+                    target.setLastEntryAt(val, col);
+                    entryCount++;
+                }
+            }
+        }
+        target.row_ptr[target.getRows()] = entryCount;
+    }
+
     private int nextEntryIndexForColumn(int row, int entryIndex) {
         int idx = entryIndex + 1;
         if (idx < row_ptr[row + 1]) {
@@ -529,8 +1226,29 @@ public class CrsMatrix extends Matrix {
         }
     }
 
+    @Override
+    public void clear() {
+        // the reserved storage is kept, unless it is shared
+        if (sharedStorage) {
+            size = rows + cols;
+            initArraysWithSize(size, rows);
+            sharedStorage = false;
+        } else {
+            Arrays.fill(row_ptr, 0);
+        }
+        nextValIndex = 0;
+    }
+
     @Override
     public Matrix clone() {
+        if (sharedStorage) {
+            // copies only the entries of this matrix
+            CrsMatrix clone = new CrsMatrix(rows, cols, Arrays.copyOf(
+                    this.row_ptr, this.row_ptr.length), val, col_idx);
+            clone.ensureOwnStorage();
+            return clone;
+        }
+
         CrsMatrix clone = new CrsMatrix(rows, cols, Math.max(size, 1));
 
         clone.row_ptr = Arrays.copyOf(this.row_ptr, this.row_ptr.length);
@@ -553,25 +1271,77 @@ public class CrsMatrix extends Matrix {
         CrsMatrix c21 = (CrsMatrix) downLeft;
         CrsMatrix c22 = (CrsMatrix) downRight;
 
-        int halfSize = upLeft.getCols();
+        int halfRows = upLeft.getRows();
+        int halfCols = upLeft.getCols();
 
-        size = c11.size + c12.size + c21.size + c22.size;
+        size = Math.max(c11.nnz() + c12.nnz() + c21.nnz() + c22.nnz(), 1);
         initArraysWithSize(size, getRows());
         nextValIndex = 0;
+        sharedStorage = false;
         int entryCount = 0;
 
-        for (int row = 0; row < Math.min(halfSize, getRows()); ++row) {
+        for (int row = 0; row < halfRows; ++row) {
             row_ptr[row] = entryCount;
             entryCount = copyRowFrom(c11, entryCount, row, 0, 0);
-            entryCount = copyRowFrom(c12, entryCount, row, halfSize, 0);
+            entryCount = copyRowFrom(c12, entryCount, row, halfCols, 0);
         }
-        for (int row = halfSize; row < getRows(); ++row) {
+        for (int row = halfRows; row < 2 * halfRows; ++row) {
             row_ptr[row] = entryCount;
-            entryCount = copyRowFrom(c21, entryCount, row, 0, halfSize);
-            entryCount = copyRowFrom(c22, entryCount, row, halfSize, halfSize);
+            entryCount = copyRowFrom(c21, entryCount, row, 0, halfRows);
+            entryCount = copyRowFrom(c22, entryCount, row, halfCols, halfRows);
         }
+        // remaining rows stay empty
+        for (int row = 2 * halfRows; row <= getRows(); ++row) {
+            row_ptr[row] = entryCount;
+        }
+    }
 
-        row_ptr[getRows()] = entryCount;
+    @Override
+    protected void putPart(Matrix part, int row, int col) {
+        if (!isValidEntryLocation(row, col)
+                || !isValidEntryLocation(row + part.getRows() - 1,
+                        col + part.getCols() - 1)) {
+            throw new IllegalArgumentException();
+        }
+        CrsMatrix crsPart = part instanceof CrsMatrix ? (CrsMatrix) part
+                : new CrsMatrix(part);
+        int endCol = col + part.getCols();
+
+        // the rows are rebuilt once, every row keeps the sorted order
+        CrsMatrix temp = new CrsMatrix(rows, cols, Math.max(nnz()
+                + crsPart.nnz(), 1));
+        int entryCount = 0;
+        for (int r = 0; r < rows; ++r) {
+            temp.row_ptr[r] = entryCount;
+            boolean inPart = row <= r && r < row + part.getRows();
+            int index = row_ptr[r];
+            for (; index < row_ptr[r + 1] && (!inPart || col_idx[index] < col); ++index) {
+                temp.setLastEntryAt(val[index], col_idx[index]);
+                entryCount++;
+            }
+            if (inPart) {
+                RowCursor cursor = crsPart.getRowCursor(r - row);
+                while (cursor.next()) {
+                    temp.setLastEntryAt(cursor.getValue(), cursor.getCol()
+                            + col);
+                    entryCount++;
+                }
+                for (; index < row_ptr[r + 1]; ++index) {
+                    if (col_idx[index] >= endCol) {
+                        temp.setLastEntryAt(val[index], col_idx[index]);
+                        entryCount++;
+                    }
+                }
+            }
+        }
+        temp.row_ptr[rows] = entryCount;
+
+        this.row_ptr = temp.row_ptr;
+        this.val = temp.val;
+        this.col_idx = temp.col_idx;
+        this.size = temp.size;
+        this.nextValIndex = temp.nextValIndex;
+        this.sharedStorage = false;
     }
 
     private int copyRowFrom(CrsMatrix mat, int entryCount, int row,
@@ -607,6 +1377,16 @@ public class CrsMatrix extends Matrix {
         return result;
     }
 
+    @Override
+    public Matrix prlStrassenWinogradMultThisWith(Matrix matrix) {
+        CrsMatrix result = new CrsMatrix(this.getRows(), matrix.getCols(),
+                this.getRows() + matrix.getCols());
+
+        prlStrassenWinogradMultThisWithInto(matrix, result, WRITE_BY_ROW);
+
+        return result;
+    }
+
     @Override
     public Matrix winogradMultThisWith(Matrix matrix) {
         CrsMatrix result = new CrsMatrix(this.getRows(), matrix.getCols(),
@@ -632,7 +1412,7 @@ public class CrsMatrix extends Matrix {
     private double getMaxNorm() {
         double result = 0;
 
-        for (int index = 0; index < nextValIndex; ++index) {
+        for (int index = row_ptr[0]; index < row_ptr[rows]; ++index) {
             double entry = Math.abs(val[index]);
             if (entry > result) {
                 result = entry;
@@ -645,7 +1425,7 @@ public class CrsMatrix extends Matrix {
     private double get2Norm() {
         double result = 0;
 
-        for (int index = 0; index < nextValIndex; ++index) {
+        for (int index = row_ptr[0]; index < row_ptr[rows]; ++index) {
             double entry = val[index];
             result += entry * entry;
         }
@@ -655,6 +1435,8 @@ public class CrsMatrix extends Matrix {
 
     @Override
     public void stabilizeRowsTo(double stabilizeRowsTo) {
+        ensureOwnStorage();
+
         double rowSum;
         for (int row = 0; row < rows; ++row) {
             rowSum = 0;
@@ -672,9 +1454,23 @@ public class CrsMatrix extends Matrix {
         }
     }
 
+    @Override
+    public void scaleRows(double[] factors) {
+        if (factors.length != rows) {
+            throw new IllegalArgumentException();
+        }
+
+        ensureOwnStorage();
+        for (int row = 0; row < rows; ++row) {
+            for (int colIndex = row_ptr[row]; colIndex < row_ptr[row + 1]; ++colIndex) {
+                val[colIndex] *= factors[row];
+            }
+        }
+    }
+
     @Override
     public boolean isNonNegative() {
-        for (int index = 0; index < nextValIndex; ++index) {
+        for (int index = row_ptr[0]; index < row_ptr[rows]; ++index) {
             if (val[index] < 0) {
                 return false;
             }
@@ -685,11 +1481,16 @@ public class CrsMatrix extends Matrix {
 
     @Override
     public boolean isPositive() {
+        // every row has to store all of its columns
         for (int row = 0; row < getRows(); ++row) {
-            for (int col = 0; col < getCols(); ++col) {
-                if (this.get(row, col) <= 0) {
-                    return false;
-                }
+            if (row_ptr[row + 1] - row_ptr[row] != getCols()) {
+                return false;
+            }
+        }
+
+        for (int index = row_ptr[0]; index < row_ptr[rows]; ++index) {
+            if (val[index] <= 0) {
+                return false;
             }
         }
 
@@ -697,26 +1498,26 @@ public class CrsMatrix extends Matrix {
     }
 
     @Override
-    protected void setNegativeEntriesToZero(boolean showModifications) {
+    public double setNegativeEntriesToZero() {
+        ensureOwnStorage();
+
         double minValueSetToZero = 0.0;
-        for (int index = 0; index < nextValIndex; ++index) {
+        for (int index = row_ptr[0]; index < row_ptr[rows]; ++index) {
             if (val[index] < 0) {
-                if (showModifications && minValueSetToZero > val[index]) {
+                if (minValueSetToZero > val[index]) {
                     minValueSetToZero = val[index];
                 }
                 val[index] = DEFAULT_VALUE;
             }
         }
-        if (showModifications && minValueSetToZero < 0) {
-            System.out.println("MINIMAL NEGATIVE ENTRY SET TO ZERO: "
-                    + minValueSetToZero);
-        }
+
+        return minValueSetToZero;
     }
 
     @Override
     public double getMinimalPositiveEntry() {
         double minimum = 2.0;
-        for (int i = 0; i < val.length; ++i) {
+        for (int i = row_ptr[0]; i < row_ptr[rows]; ++i) {
             if (minimum > val[i] && val[i] > 0) {
                 minimum = val[i];
             }
@@ -0,0 +1,114 @@
+package matrices;
+
+/**
+ * Contains the innermost loops of the dense calculations. The scalar
+ * implementation is always available. If the optional source root vector has
+ * been compiled and the JDK Vector API (module jdk.incubator.vector) is
+ * present at runtime, an implementation using the preferred vector species
+ * of the processor is used instead.
+ */
+abstract class DenseKernels {
+
+    // use SIMD instructions if the Vector API is available
+    private static final boolean USE_VECTOR_KERNELS = true;
+
+    private static final String VECTOR_KERNELS_CLASS = "matrices.VectorKernels";
+
+    private static final DenseKernels INSTANCE = loadKernels();
+
+    private static DenseKernels loadKernels() {
+        if (USE_VECTOR_KERNELS) {
+            try {
+                return (DenseKernels) Class.forName(VECTOR_KERNELS_CLASS)
+                        .getDeclaredConstructor().newInstance();
+            } catch (Exception | LinkageError e) {
+                // not compiled or module jdk.incubator.vector is absent: use
+                // scalar code
+            }
+        }
+
+        return new ScalarKernels();
+    }
+
+    static DenseKernels get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a name for the kernels in use, e.g. for experiment output.
+     */
+    abstract String getName();
+
+    /**
+     * Calculates c0 += x0 * b, ..., c3 += x3 * b for length entries, where b
+     * starts at bOffset and the rows c0, ..., c3 of c start at cOffset, ...,
+     * cOffset + 3 * cStride: four result rows share every loaded entry of b.
+     */
+    abstract void axpy4(double x0, double x1, double x2, double x3,
+            double[] b, int bOffset, double[] c, int cOffset, int cStride,
+            int length);
+
+    /**
+     * Calculates c[cOffset + i] += x * b[bOffset + i] for i = 0, ...,
+     * length - 1.
+     */
+    abstract void axpy(double x, double[] b, int bOffset, double[] c,
+            int cOffset, int length);
+
+    /**
+     * Returns the sum of v[offset], ..., v[offset + length - 1].
+     */
+    abstract double sum(double[] v, int offset, int length);
+
+    /**
+     * Multiplies v[offset], ..., v[offset + length - 1] with factor.
+     */
+    abstract void scale(double factor, double[] v, int offset, int length);
+
+    private static class ScalarKernels extends DenseKernels {
+
+        @Override
+        String getName() {
+            return "SCALAR";
+        }
+
+        @Override
+        void axpy4(double x0, double x1, double x2, double x3, double[] b,
+                int bOffset, double[] c, int cOffset, int cStride, int length) {
+            int c1 = cOffset + cStride;
+            int c2 = c1 + cStride;
+            int c3 = c2 + cStride;
+            for (int j = 0; j < length; ++j) {
+                double y = b[bOffset + j];
+                c[cOffset + j] += x0 * y;
+                c[c1 + j] += x1 * y;
+                c[c2 + j] += x2 * y;
+                c[c3 + j] += x3 * y;
+            }
+        }
+
+        @Override
+        void axpy(double x, double[] b, int bOffset, double[] c, int cOffset,
+                int length) {
+            for (int j = 0; j < length; ++j) {
+                c[cOffset + j] += x * b[bOffset + j];
+            }
+        }
+
+        @Override
+        double sum(double[] v, int offset, int length) {
+            double result = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                result += v[i];
+            }
+            return result;
+        }
+
+        @Override
+        void scale(double factor, double[] v, int offset, int length) {
+            for (int i = offset; i < offset + length; ++i) {
+                v[i] *= factor;
+            }
+        }
+    }
+}
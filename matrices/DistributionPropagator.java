@@ -0,0 +1,212 @@
+package matrices;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Calculates x * P^n for a few row vectors x without forming P^n: every step
+ * multiplies the current vectors with P, which costs O(nnz(P)) per step for
+ * sparse storage instead of the O(rows^3) of a squaring. All vectors of the
+ * block are processed in one pass over P.
+ *
+ * The propagator is an iterator over the distributions after every step. It
+ * stops after maxSteps steps or as soon as no vector has changed by more than
+ * the tolerance in the 1-norm.
+ */
+public class DistributionPropagator implements Iterator<double[][]> {
+
+    // propagate until maxSteps, even if the vectors do not change any more
+    public static final double NO_TOLERANCE = -1;
+
+    private final Matrix mat;
+    private final long maxSteps;
+    private final double tolerance;
+    private final double stabilizeRowsTo;
+    private final boolean setNegativeEntriesToZero;
+
+    private double[][] distributions;
+    private double[][] next;
+    private long steps = 0;
+    private double change = Double.POSITIVE_INFINITY;
+
+    public static void main(String[] args) {
+        double[][] arr = { { 0.9, 0.1 }, { 0.5, 0.5 } };
+        Matrix test = new CrsMatrix(new ArrayMatrix(arr, false));
+
+        DistributionPropagator propagator = new DistributionPropagator(test,
+                new double[][] { { 1, 0 }, { 0, 1 } }, 1000, 1e-12, 1.0, true);
+        while (propagator.hasNext()) {
+            double[][] distributions = propagator.next();
+            if (propagator.getSteps() <= 3) {
+                System.out.println("STEP " + propagator.getSteps() + ": "
+                        + distributions[0][0] + " " + distributions[0][1]
+                        + " | " + distributions[1][0] + " "
+                        + distributions[1][1]);
+            }
+        }
+        System.out.println(propagator);
+    }
+
+    /**
+     * Creates a propagator for the rows of distributions, which are copied.
+     * Storage types other than {@link ArrayMatrix} and
+     * {@link LowRankSparseMatrix} are converted to {@link CrsMatrix} once.
+     *
+     * @param stabilizeRowsTo
+     *            the sum every vector is scaled to after every step, or
+     *            {@link MatrixPowerer#NO_STABILIZE}
+     */
+    public DistributionPropagator(Matrix mat, double[][] distributions,
+            long maxSteps, double tolerance, double stabilizeRowsTo,
+            boolean setNegativeEntriesToZero) {
+        if (mat.getRows() != mat.getCols() || maxSteps < 0) {
+            throw new IllegalArgumentException();
+        }
+        for (double[] distribution : distributions) {
+            if (distribution.length != mat.getRows()) {
+                throw new IllegalArgumentException(
+                        "DISTRIBUTION DOES NOT MATCH MATRIX");
+            }
+        }
+
+        if (mat instanceof ArrayMatrix || mat instanceof CrsMatrix
+                || mat instanceof LowRankSparseMatrix) {
+            this.mat = mat;
+        } else {
+            this.mat = new CrsMatrix(mat);
+        }
+        this.maxSteps = maxSteps;
+        this.tolerance = tolerance;
+        this.stabilizeRowsTo = stabilizeRowsTo;
+        this.setNegativeEntriesToZero = setNegativeEntriesToZero;
+
+        this.distributions = new double[distributions.length][];
+        this.next = new double[distributions.length][mat.getCols()];
+        for (int v = 0; v < distributions.length; ++v) {
+            this.distributions[v] = distributions[v].clone();
+        }
+    }
+
+    /**
+     * Returns x * mat^steps, or the vector of an earlier step, if it has
+     * converged within the tolerance.
+     */
+    public static double[] propagate(Matrix mat, double[] distribution,
+            long steps, double tolerance, double stabilizeRowsTo,
+            boolean setNegativeEntriesToZero) {
+        DistributionPropagator propagator = new DistributionPropagator(mat,
+                new double[][] { distribution }, steps, tolerance,
+                stabilizeRowsTo, setNegativeEntriesToZero);
+        propagator.run();
+
+        return propagator.getDistributions()[0];
+    }
+
+    @Override
+    public boolean hasNext() {
+        return steps < maxSteps && !isConverged();
+    }
+
+    /**
+     * Performs one step and returns a copy of the new distributions.
+     */
+    @Override
+    public double[][] next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        step();
+        return getDistributions();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Performs all remaining steps.
+     */
+    public void run() {
+        while (hasNext()) {
+            step();
+        }
+    }
+
+    private void step() {
+        for (double[] vector : next) {
+            Arrays.fill(vector, 0);
+        }
+        mat.addRowVectorProductsTo(distributions, next);
+
+        change = 0;
+        for (int v = 0; v < next.length; ++v) {
+            double[] vector = next[v];
+            if (setNegativeEntriesToZero) {
+                for (int i = 0; i < vector.length; ++i) {
+                    if (vector[i] < 0) {
+                        vector[i] = 0;
+                    }
+                }
+            }
+            if (stabilizeRowsTo != MatrixPowerer.NO_STABILIZE) {
+                double sum = 0;
+                for (int i = 0; i < vector.length; ++i) {
+                    sum += vector[i];
+                }
+                if (sum != 0) {
+                    double factor = stabilizeRowsTo / sum;
+                    for (int i = 0; i < vector.length; ++i) {
+                        vector[i] *= factor;
+                    }
+                }
+            }
+
+            double vectorChange = 0;
+            for (int i = 0; i < vector.length; ++i) {
+                vectorChange += Math.abs(vector[i] - distributions[v][i]);
+            }
+            change = Math.max(change, vectorChange);
+        }
+
+        double[][] temp = distributions;
+        distributions = next;
+        next = temp;
+        steps++;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    /**
+     * Returns the largest 1-norm of the change of a vector in the last step.
+     */
+    public double getChange() {
+        return change;
+    }
+
+    public boolean isConverged() {
+        return change <= tolerance;
+    }
+
+    /**
+     * Returns a copy of the current distributions.
+     */
+    public double[][] getDistributions() {
+        double[][] result = new double[distributions.length][];
+        for (int v = 0; v < distributions.length; ++v) {
+            result[v] = distributions[v].clone();
+        }
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return (isConverged() ? "CONVERGED" : "NOT CONVERGED") + " AFTER "
+                + steps + " STEPS (CHANGE: " + change + ")";
+    }
+}
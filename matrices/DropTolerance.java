@@ -0,0 +1,181 @@
+package matrices;
+
+/**
+ * Decides, which small entries of a row of a product are dropped by a
+ * {@link RowEpilogue}: entries below an absolute tolerance, entries below a
+ * tolerance relative to the largest entry of the row, or all but the k
+ * largest entries of the row. Entries are compared by their absolute value.
+ *
+ * Powers of sparse stochastic matrices get many tiny entries, which never
+ * become zero again. Dropping them keeps the powers sparse at the cost of the
+ * dropped mass, which the epilogue reports.
+ */
+public class DropTolerance {
+
+    private static final int ABSOLUTE = 0;
+    private static final int RELATIVE = 1;
+    private static final int TOP_K = 2;
+
+    private final int mode;
+    private final double tolerance;
+    private final int keep;
+
+    private DropTolerance(int mode, double tolerance, int keep) {
+        this.mode = mode;
+        this.tolerance = tolerance;
+        this.keep = keep;
+    }
+
+    /**
+     * Drops every entry, whose absolute value is smaller than tolerance.
+     */
+    public static DropTolerance absolute(double tolerance) {
+        if (tolerance < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        return new DropTolerance(ABSOLUTE, tolerance, 0);
+    }
+
+    /**
+     * Drops every entry, whose absolute value is smaller than tolerance times
+     * the largest absolute value of its row.
+     */
+    public static DropTolerance relative(double tolerance) {
+        if (tolerance < 0 || tolerance > 1) {
+            throw new IllegalArgumentException();
+        }
+
+        return new DropTolerance(RELATIVE, tolerance, 0);
+    }
+
+    /**
+     * Keeps the k entries of every row with the largest absolute values. Of
+     * equal entries, the ones with the smallest columns are kept.
+     */
+    public static DropTolerance topK(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        return new DropTolerance(TOP_K, 0, k);
+    }
+
+    /**
+     * Returns the smallest absolute value, which is kept: smaller entries are
+     * dropped, see {@link #getKeptAtThreshold(double[], int, int, double)}
+     * for entries at the threshold. Top k needs magnitudes as scratch of at
+     * least length entries.
+     */
+    double getThreshold(double[] values, int offset, int length,
+            double[] magnitudes) {
+        int end = offset + length;
+        switch (mode) {
+        case ABSOLUTE:
+            return tolerance;
+        case RELATIVE:
+            double max = 0;
+            for (int index = offset; index < end; ++index) {
+                max = Math.max(max, Math.abs(values[index]));
+            }
+            return tolerance * max;
+        default:
+            int count = 0;
+            for (int index = offset; index < end; ++index) {
+                if (values[index] != 0) {
+                    magnitudes[count++] = Math.abs(values[index]);
+                }
+            }
+            if (count <= keep) {
+                return 0;
+            }
+
+            return select(magnitudes, count, count - keep);
+        }
+    }
+
+    /**
+     * Returns the k-th smallest of values[0], ..., values[count - 1] in
+     * expected linear time (quickselect); the values are reordered.
+     */
+    private static double select(double[] values, int count, int k) {
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            // the median of three keeps sorted rows linear
+            int middle = (low + high) >>> 1;
+            if (values[middle] < values[low]) {
+                swap(values, middle, low);
+            }
+            if (values[high] < values[low]) {
+                swap(values, high, low);
+            }
+            if (values[high] < values[middle]) {
+                swap(values, high, middle);
+            }
+            double pivot = values[middle];
+
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(values, i++, j--);
+                }
+            }
+
+            if (k <= j) {
+                high = j;
+            } else if (k >= i) {
+                low = i;
+            } else {
+                return values[k];
+            }
+        }
+
+        return values[k];
+    }
+
+    private static void swap(double[] values, int i, int j) {
+        double temp = values[i];
+        values[i] = values[j];
+        values[j] = temp;
+    }
+
+    /**
+     * Returns how many entries, whose absolute value equals the threshold,
+     * are kept. Only top k limits them.
+     */
+    long getKeptAtThreshold(double[] values, int offset, int length,
+            double threshold) {
+        if (mode != TOP_K || threshold == 0) {
+            return Long.MAX_VALUE;
+        }
+
+        int larger = 0;
+        for (int index = offset; index < offset + length; ++index) {
+            if (Math.abs(values[index]) > threshold) {
+                larger++;
+            }
+        }
+
+        return keep - larger;
+    }
+
+    @Override
+    public String toString() {
+        switch (mode) {
+        case ABSOLUTE:
+            return "ABSOLUTE " + tolerance;
+        case RELATIVE:
+            return "RELATIVE " + tolerance;
+        default:
+            return "TOP " + keep;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package matrices;
+
+/**
+ * Is called for matrix entries, see
+ * {@link Matrix#forEachNonZero(EntryVisitor)}.
+ */
+public interface EntryVisitor {
+
+    void visit(int row, int col, double value);
+}
@@ -0,0 +1,986 @@
+package matrices;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Is a model for a matrix, which is the sum of a low rank part and a sparse
+ * residual:
+ *
+ * M = lefts[0] * rights[0]^T + ... + lefts[rank - 1] * rights[rank - 1]^T + S
+ *
+ * Converged powers of ergodic stochastic matrices are essentially 1 * pi^T
+ * plus a small correction, so they need O((rows + cols) * rank + nnz(S))
+ * doubles instead of rows * cols. Products keep the structure:
+ *
+ * (U V^T + S)(U' V'^T + S') = (U (V^T U') + S U') V'^T + U (V^T S') + S S'
+ *
+ * which costs O((rows + cols) * rank^2 + nnz * rank) and the sparse product of
+ * the residuals. After every product, the vectors are orthonormalized and
+ * vectors, which are linear combinations of the others, are removed, so the
+ * rank only grows if the product needs it. Single entries cost O(rank);
+ * operations, which read every entry, like {@link #isNonNegative()}, cost
+ * O(rows * cols * rank).
+ *
+ * {@link #applyRowEpilogue(RowEpilogue)} scales the vectors and the residual
+ * and only checks rows entry by entry, which may contain negative entries.
+ * Negative entries are cancelled by residual entries. A {@link DropTolerance}
+ * only drops residual entries, a relative tolerance refers to the largest
+ * residual entry of the row.
+ */
+public class LowRankSparseMatrix extends Matrix {
+
+    /*
+     * A vector is removed, if its part orthogonal to the other vectors is
+     * smaller than this share of its norm.
+     */
+    private static final double RANK_TOLERANCE = 1e-12;
+
+    private static final double DEFAULT_VALUE = 0.0;
+
+    private static final int NUMBER_OF_THREADS = Runtime.getRuntime()
+            .availableProcessors();
+
+    private final int rows;
+    private final int cols;
+
+    // rank vectors with rows entries and rank vectors with cols entries
+    private double[][] lefts;
+    private double[][] rights;
+
+    private CrsMatrix residual;
+
+    public static void main(String[] args) {
+        double[][] arr = { { 0.5, 0.3, 0.2 }, { 0.2, 0.6, 0.2 },
+                { 0.1, 0.3, 0.6 } };
+        Matrix test = new ArrayMatrix(arr, false);
+        Matrix power = MatrixPowerer.logPower(test, MatrixMultType.NAIVE, 64,
+                1.0, true);
+
+        LowRankSparseMatrix lowRank = rankOneOf(power, 1e-15, 0);
+        System.out.println("RANK: " + lowRank.getRank() + ", RESIDUAL ENTRIES: "
+                + lowRank.getResidual().nnz());
+        System.out.println(lowRank.multWith(test, MatrixMultType.NAIVE));
+    }
+
+    public LowRankSparseMatrix(int rows, int cols) {
+        this(rows, cols, new double[0][], new double[0][], new CrsMatrix(rows,
+                cols));
+    }
+
+    /**
+     * Creates the matrix lefts[0] * rights[0]^T + ... + residual. The vectors
+     * and the residual are copied.
+     */
+    public LowRankSparseMatrix(double[][] lefts, double[][] rights,
+            Matrix residual) {
+        this(residual.getRows(), residual.getCols(), copyOf(lefts),
+                copyOf(rights), new CrsMatrix(residual));
+
+        if (lefts.length != rights.length) {
+            throw new IllegalArgumentException(
+                    "EVERY LEFT VECTOR NEEDS A RIGHT VECTOR");
+        }
+        for (int k = 0; k < lefts.length; ++k) {
+            if (lefts[k].length != rows || rights[k].length != cols) {
+                throw new IllegalArgumentException(
+                        "VECTORS DO NOT MATCH THE RESIDUAL");
+            }
+        }
+
+        compress();
+    }
+
+    private LowRankSparseMatrix(int rows, int cols, double[][] lefts,
+            double[][] rights, CrsMatrix residual) {
+        this.rows = rows;
+        this.cols = cols;
+        this.lefts = lefts;
+        this.rights = rights;
+        this.residual = residual;
+    }
+
+    /**
+     * Returns mat as 1 * means^T + S, where means holds the column means of
+     * mat and S the entries of mat - 1 * means^T, whose absolute value is
+     * larger than tolerance. Every entry differs from mat by at most
+     * tolerance. Returns null, if S would have more than maxResidualEntries
+     * entries; the rows are then only read until the limit is exceeded.
+     */
+    public static LowRankSparseMatrix rankOneOf(Matrix mat, double tolerance,
+            long maxResidualEntries) {
+        if (tolerance < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        int rows = mat.getRows();
+        int cols = mat.getCols();
+        final double[] means = new double[cols];
+        mat.forEachNonZero(new EntryVisitor() {
+            @Override
+            public void visit(int row, int col, double value) {
+                means[col] += value;
+            }
+        });
+        for (int col = 0; col < cols; ++col) {
+            means[col] /= rows;
+        }
+
+        CrsMatrix residual = new CrsMatrix(rows, cols);
+        double[] row = new double[cols];
+        int[] rowCols = new int[cols];
+        double[] rowValues = new double[cols];
+        long entries = 0;
+        for (int r = 0; r < rows; ++r) {
+            for (int col = 0; col < cols; ++col) {
+                row[col] = -means[col];
+            }
+            RowCursor cursor = mat.getRowCursor(r);
+            while (cursor.next()) {
+                row[cursor.getCol()] += cursor.getValue();
+            }
+
+            int count = 0;
+            for (int col = 0; col < cols; ++col) {
+                if (Math.abs(row[col]) > tolerance) {
+                    rowCols[count] = col;
+                    rowValues[count++] = row[col];
+                }
+            }
+            entries += count;
+            if (entries > maxResidualEntries) {
+                return null;
+            }
+            residual.appendRow(r, rowCols, rowValues, count);
+        }
+
+        double[] ones = new double[rows];
+        Arrays.fill(ones, 1);
+        return new LowRankSparseMatrix(rows, cols, new double[][] { ones },
+                new double[][] { means }, residual);
+    }
+
+    public int getRank() {
+        return lefts.length;
+    }
+
+    CrsMatrix getResidual() {
+        return residual;
+    }
+
+    @Override
+    public double get(int row, int col) {
+        if (!isValidEntryLocation(row, col))
+            return DEFAULT_VALUE;
+
+        return getLowRankEntry(row, col) + residual.get(row, col);
+    }
+
+    private double getLowRankEntry(int row, int col) {
+        double result = 0;
+        for (int k = 0; k < lefts.length; ++k) {
+            result += lefts[k][row] * rights[k][col];
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes the entries of a row into values, which has getCols() entries.
+     */
+    private double[] getRow(int row, double[] values) {
+        Arrays.fill(values, DEFAULT_VALUE);
+        for (int k = 0; k < lefts.length; ++k) {
+            if (lefts[k][row] != 0) {
+                DenseKernels.get().axpy(lefts[k][row], rights[k], 0, values,
+                        0, cols);
+            }
+        }
+        RowCursor cursor = residual.getRowCursor(row);
+        while (cursor.next()) {
+            values[cursor.getCol()] += cursor.getValue();
+        }
+
+        return values;
+    }
+
+    /**
+     * Changes the residual, so the low rank part is not changed.
+     */
+    @Override
+    public void put(double val, int row, int col) {
+        if (!isValidEntryLocation(row, col))
+            return;
+
+        residual.put(val - getLowRankEntry(row, col), row, col);
+    }
+
+    @Override
+    public void del(int row, int col) {
+        put(DEFAULT_VALUE, row, col);
+    }
+
+    @Override
+    public RowCursor getRowCursor(final int row) {
+        if (row < 0 || row >= rows) {
+            throw new IllegalArgumentException();
+        }
+
+        final double[] values = getRow(row, new double[cols]);
+        return new RowCursor() {
+            private int col = -1;
+
+            @Override
+            public boolean next() {
+                while (++col < cols) {
+                    if (values[col] != DEFAULT_VALUE) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public int getCol() {
+                return col;
+            }
+
+            @Override
+            public double getValue() {
+                return values[col];
+            }
+        };
+    }
+
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Calculates every product by the structure of both factors: splitting
+     * the factors, like Strassen's algorithm does, would make them dense. The
+     * parallel multiplication types multiply the residuals and the vectors
+     * with PARALLEL_NAIVE, {@link MatrixMultType#AUTO} does so for large
+     * products.
+     */
+    @Override
+    public Matrix multWith(Matrix matrix, MatrixMultType multType) {
+        if (!multPossible(matrix)) {
+            throw new IllegalArgumentException();
+        }
+
+        if (matrix instanceof LowRankSparseMatrix) {
+            return multWith((LowRankSparseMatrix) matrix, multType);
+        }
+
+        // (U V^T + S) X = U (V^T X) + S X
+        double[][] newRights = new double[lefts.length][matrix.getCols()];
+        matrix.addRowVectorProductsTo(rights, newRights);
+
+        LowRankSparseMatrix result = new LowRankSparseMatrix(rows,
+                matrix.getCols(), copyOf(lefts), newRights,
+                asCrsMatrix(residual.multWith(matrix,
+                        getNaiveType(multType, residual, matrix))));
+        result.compress();
+
+        return result;
+    }
+
+    @Override
+    public Matrix multWith(Matrix matrix) {
+        return multWith(matrix, MatrixMultType.NAIVE);
+    }
+
+    private LowRankSparseMatrix multWith(LowRankSparseMatrix matrix,
+            MatrixMultType multType) {
+        int rank = lefts.length;
+        int thatRank = matrix.lefts.length;
+        double[][] newLefts = new double[thatRank + rank][];
+        double[][] newRights = new double[thatRank + rank][];
+
+        // (U (V^T U') + S U') V'^T
+        double[][] residualLefts = multiplyVectors(residual, matrix.lefts,
+                getNaiveType(multType, (double) residual.nnz() * thatRank));
+        for (int j = 0; j < thatRank; ++j) {
+            newLefts[j] = residualLefts[j];
+            for (int i = 0; i < rank; ++i) {
+                double coefficient = dot(rights[i], matrix.lefts[j]);
+                if (coefficient != 0) {
+                    DenseKernels.get().axpy(coefficient, lefts[i], 0,
+                            newLefts[j], 0, rows);
+                }
+            }
+            newRights[j] = matrix.rights[j].clone();
+        }
+
+        // U (V^T S')
+        double[][] residualRights = new double[rank][matrix.cols];
+        matrix.residual.addRowVectorProductsTo(rights, residualRights);
+        for (int i = 0; i < rank; ++i) {
+            newLefts[thatRank + i] = lefts[i].clone();
+            newRights[thatRank + i] = residualRights[i];
+        }
+
+        LowRankSparseMatrix result = new LowRankSparseMatrix(rows,
+                matrix.cols, newLefts, newRights, asCrsMatrix(residual
+                        .multWith(matrix.residual, getNaiveType(multType,
+                                residual, matrix.residual))));
+        result.compress();
+
+        return result;
+    }
+
+    /**
+     * Calculates matrix * this for a factor of another storage type:
+     * (X U) V^T + X S. The product of a dense factor is dense anyway, so it is
+     * returned as {@link ArrayMatrix}. The multiplication types are honored
+     * like in {@link #multWith(Matrix, MatrixMultType)}.
+     */
+    @Override
+    protected Matrix multFromLeft(Matrix matrix, MatrixMultType multType) {
+        if (!matrix.multPossible(this)) {
+            throw new IllegalArgumentException();
+        }
+
+        double flops = (double) matrix.nnz() * lefts.length;
+        if (!(matrix instanceof ArrayMatrix)) {
+            double[][] newLefts = multiplyVectors(matrix, lefts,
+                    getNaiveType(multType, flops));
+            CrsMatrix left = matrix instanceof CrsMatrix ? (CrsMatrix) matrix
+                    : new CrsMatrix(matrix);
+            LowRankSparseMatrix result = new LowRankSparseMatrix(
+                    matrix.getRows(), cols, newLefts, copyOf(rights),
+                    asCrsMatrix(left.multWith(residual,
+                            getNaiveType(multType, left, residual))));
+            result.compress();
+
+            return result;
+        }
+
+        flops += (double) matrix.getRows() * cols * lefts.length
+                + MultCostModel.getSparseFlops(matrix, residual);
+        double[][] newLefts = new double[lefts.length][matrix.getRows()];
+        double[][] product = new double[matrix.getRows()][cols];
+        multiplyRows(matrix, lefts, newLefts, product, getNaiveType(multType,
+                flops));
+
+        return new ArrayMatrix(product, false);
+    }
+
+    @Override
+    protected boolean isMultipliedFromLeft() {
+        return true;
+    }
+
+    /**
+     * Returns mat * vectors[k] for every k.
+     */
+    private double[][] multiplyVectors(Matrix mat, double[][] vectors,
+            MatrixMultType multType) {
+        double[][] result = new double[vectors.length][mat.getRows()];
+        multiplyRows(mat, vectors, result, null, multType);
+
+        return result;
+    }
+
+    /**
+     * Calculates mat * vectors[k] into results[k] for every k and, if product
+     * is not null, mat * this into product: then vectors have to be the left
+     * vectors of this matrix. PARALLEL_NAIVE splits the rows of mat among
+     * threads.
+     */
+    private void multiplyRows(Matrix mat, double[][] vectors,
+            double[][] results, double[][] product, MatrixMultType multType) {
+        if (multType != MatrixMultType.PARALLEL_NAIVE) {
+            multiplyRows(mat, vectors, results, product, 0, mat.getRows());
+            return;
+        }
+
+        int chunks = Math.max(1, Math.min(NUMBER_OF_THREADS, mat.getRows()));
+        int rowsPerChunk = (mat.getRows() + chunks - 1) / chunks;
+        RowChunkMultiplier[] workers = new RowChunkMultiplier[chunks];
+        for (int chunk = 0; chunk < chunks; ++chunk) {
+            workers[chunk] = new RowChunkMultiplier(this, mat, vectors,
+                    results, product, Math.min(mat.getRows(), chunk
+                            * rowsPerChunk), Math.min(mat.getRows(),
+                            (chunk + 1) * rowsPerChunk));
+            workers[chunk].fork();
+        }
+        for (int chunk = chunks - 1; chunk >= 0; --chunk) {
+            workers[chunk].join();
+        }
+    }
+
+    private void multiplyRows(Matrix mat, double[][] vectors,
+            double[][] results, double[][] product, int firstRow, int endRow) {
+        for (int row = firstRow; row < endRow; ++row) {
+            RowCursor cursor = mat.getRowCursor(row);
+            while (cursor.next()) {
+                for (int k = 0; k < vectors.length; ++k) {
+                    results[k][row] += cursor.getValue()
+                            * vectors[k][cursor.getCol()];
+                }
+            }
+            if (product == null) {
+                continue;
+            }
+
+            for (int k = 0; k < results.length; ++k) {
+                if (results[k][row] != 0) {
+                    DenseKernels.get().axpy(results[k][row], rights[k], 0,
+                            product[row], 0, cols);
+                }
+            }
+
+            cursor = mat.getRowCursor(row);
+            while (cursor.next()) {
+                double factor = cursor.getValue();
+                RowCursor residualCursor = residual.getRowCursor(cursor
+                        .getCol());
+                while (residualCursor.next()) {
+                    product[row][residualCursor.getCol()] += factor
+                            * residualCursor.getValue();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the multiplication type of the products of the vectors and of
+     * the residual: the parallel types use PARALLEL_NAIVE,
+     * {@link MatrixMultType#AUTO} decides by the number of flops.
+     */
+    private static MatrixMultType getNaiveType(MatrixMultType multType,
+            double flops) {
+        switch (multType) {
+        case PARALLEL_NAIVE:
+        case PARALLEL_STRASSEN_NAIVE_HYBRID:
+        case PARALLEL_STRASSEN_WINOGRAD_HYBRID:
+            return MatrixMultType.PARALLEL_NAIVE;
+        case AUTO:
+            return MultCostModel.getNaiveType(flops);
+        default:
+            return MatrixMultType.NAIVE;
+        }
+    }
+
+    private static MatrixMultType getNaiveType(MatrixMultType multType,
+            Matrix left, Matrix right) {
+        if (multType != MatrixMultType.AUTO) {
+            return getNaiveType(multType, 0);
+        }
+
+        return getNaiveType(multType,
+                MultCostModel.getSparseFlops(left, right));
+    }
+
+    private static CrsMatrix asCrsMatrix(Matrix mat) {
+        return mat instanceof CrsMatrix ? (CrsMatrix) mat : new CrsMatrix(mat);
+    }
+
+    @Override
+    public Matrix prlMultWith(Matrix matrix) {
+        return multWith(matrix, MatrixMultType.PARALLEL_NAIVE);
+    }
+
+    @Override
+    protected void multInto(Matrix matrix, Matrix result,
+            MatrixMultType multType) {
+        if (!(result instanceof LowRankSparseMatrix)) {
+            super.multInto(matrix, result, multType);
+            return;
+        }
+
+        ((LowRankSparseMatrix) result)
+                .assign((LowRankSparseMatrix) multWith(matrix, multType));
+    }
+
+    private void assign(LowRankSparseMatrix mat) {
+        lefts = mat.lefts;
+        rights = mat.rights;
+        residual = mat.residual;
+    }
+
+    @Override
+    void addRowVectorProductsTo(double[][] vectors, double[][] results) {
+        for (int v = 0; v < vectors.length; ++v) {
+            for (int k = 0; k < lefts.length; ++k) {
+                double coefficient = dot(vectors[v], lefts[k]);
+                if (coefficient != 0) {
+                    DenseKernels.get().axpy(coefficient, rights[k], 0,
+                            results[v], 0, cols);
+                }
+            }
+        }
+        residual.addRowVectorProductsTo(vectors, results);
+    }
+
+    /**
+     * Reduces the vectors to a basis of their span on both sides: the left
+     * vectors are orthonormalized and the right vectors take their
+     * coefficients, then the other way round.
+     */
+    private void compress() {
+        if (lefts.length == 0) {
+            return;
+        }
+
+        double[][][] basis = orthonormalize(lefts, rights, cols);
+        basis = orthonormalize(basis[1], basis[0], rows);
+        lefts = basis[1];
+        rights = basis[0];
+    }
+
+    /**
+     * Returns an orthonormal basis Q of the span of the vectors by the
+     * modified Gram-Schmidt method and the partners P, for which
+     * sum(vectors[j] * partners[j]^T) = sum(Q[i] * P[i]^T).
+     */
+    private static double[][][] orthonormalize(double[][] vectors,
+            double[][] partners, int partnerLength) {
+        int rank = vectors.length;
+        double[][] basis = new double[rank][];
+        double[][] coefficients = new double[rank][rank];
+        int size = 0;
+        for (int j = 0; j < rank; ++j) {
+            double[] vector = vectors[j].clone();
+            double norm = Math.sqrt(dot(vector, vector));
+
+            // orthogonalizing twice keeps the basis orthonormal in floating
+            // point arithmetic
+            for (int pass = 0; pass < 2; ++pass) {
+                for (int i = 0; i < size; ++i) {
+                    double coefficient = dot(basis[i], vector);
+                    coefficients[i][j] += coefficient;
+                    DenseKernels.get().axpy(-coefficient, basis[i], 0,
+                            vector, 0, vector.length);
+                }
+            }
+
+            double rest = Math.sqrt(dot(vector, vector));
+            if (rest > RANK_TOLERANCE * norm) {
+                DenseKernels.get().scale(1 / rest, vector, 0, vector.length);
+                basis[size] = vector;
+                coefficients[size][j] = rest;
+                size++;
+            }
+        }
+
+        double[][] newPartners = new double[size][partnerLength];
+        for (int i = 0; i < size; ++i) {
+            for (int j = 0; j < rank; ++j) {
+                if (coefficients[i][j] != 0) {
+                    DenseKernels.get().axpy(coefficients[i][j], partners[j],
+                            0, newPartners[i], 0, partnerLength);
+                }
+            }
+        }
+
+        return new double[][][] { Arrays.copyOf(basis, size), newPartners };
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double result = 0;
+        for (int i = 0; i < a.length; ++i) {
+            result += a[i] * b[i];
+        }
+
+        return result;
+    }
+
+    private static double[][] copyOf(double[][] vectors) {
+        double[][] result = new double[vectors.length][];
+        for (int k = 0; k < vectors.length; ++k) {
+            result[k] = vectors[k].clone();
+        }
+
+        return result;
+    }
+
+    @Override
+    public void applyRowEpilogue(RowEpilogue epilogue) {
+        int rank = lefts.length;
+        double[] rightSums = new double[rank];
+        double[] rightMins = new double[rank];
+        double[] rightMaxs = new double[rank];
+        for (int k = 0; k < rank; ++k) {
+            rightSums[k] = DenseKernels.get().sum(rights[k], 0, cols);
+            rightMins[k] = Double.POSITIVE_INFINITY;
+            rightMaxs[k] = Double.NEGATIVE_INFINITY;
+            for (int col = 0; col < cols; ++col) {
+                rightMins[k] = Math.min(rightMins[k], rights[k][col]);
+                rightMaxs[k] = Math.max(rightMaxs[k], rights[k][col]);
+            }
+        }
+
+        CrsMatrix newResidual = new CrsMatrix(rows, cols, Math.max(1,
+                residual.nnz()));
+        int[] rowCols = new int[cols];
+        double[] rowValues = new double[cols];
+        double[] row = null;
+        double[] residualRow = null;
+        RowEpilogue.Chunk chunk = epilogue.startChunk();
+        for (int r = 0; r < rows; ++r) {
+            int count = 0;
+            double residualMinimum = 0;
+            double rowSum = 0;
+            RowCursor cursor = residual.getRowCursor(r);
+            while (cursor.next()) {
+                rowCols[count] = cursor.getCol();
+                rowValues[count++] = cursor.getValue();
+                residualMinimum = Math.min(residualMinimum, cursor.getValue());
+            }
+
+            int clamped = 0;
+            double minimalClamped = 0;
+            if (epilogue.isSetNegativeEntriesToZero()
+                    && getLowRankMinimum(r, rightMins, rightMaxs)
+                            + residualMinimum < 0) {
+                // the row may have negative entries: they are cancelled by
+                // the residual
+                if (row == null) {
+                    row = new double[cols];
+                    residualRow = new double[cols];
+                }
+                getRow(r, row);
+                Arrays.fill(residualRow, DEFAULT_VALUE);
+                for (int i = 0; i < count; ++i) {
+                    residualRow[rowCols[i]] = rowValues[i];
+                }
+
+                count = 0;
+                for (int col = 0; col < cols; ++col) {
+                    if (row[col] < 0) {
+                        minimalClamped = Math.min(minimalClamped, row[col]);
+                        residualRow[col] -= row[col];
+                        clamped++;
+                    }
+                    if (residualRow[col] != DEFAULT_VALUE) {
+                        rowCols[count] = col;
+                        rowValues[count++] = residualRow[col];
+                    }
+                }
+            }
+
+            for (int k = 0; k < rank; ++k) {
+                rowSum += lefts[k][r] * rightSums[k];
+            }
+            for (int i = 0; i < count; ++i) {
+                rowSum += rowValues[i];
+            }
+
+            double scale = chunk.finishRow(rowValues, 0, count, rowSum,
+                    clamped, minimalClamped);
+            for (int k = 0; k < rank; ++k) {
+                lefts[k][r] *= scale;
+            }
+            if (clamped > 0) {
+                // cancel the scaled low rank part exactly, so the clamped
+                // entries are zero and not a rounding error below zero
+                for (int i = 0; i < count; ++i) {
+                    if (row[rowCols[i]] < 0 && rowValues[i] != 0) {
+                        rowValues[i] = -getLowRankEntry(r, rowCols[i]);
+                    }
+                }
+            }
+            newResidual.appendRow(r, rowCols, rowValues, count);
+        }
+
+        chunk.finish();
+        residual = newResidual;
+    }
+
+    /**
+     * Returns a lower bound of the entries of the low rank part in a row.
+     */
+    private double getLowRankMinimum(int row, double[] rightMins,
+            double[] rightMaxs) {
+        double result = 0;
+        for (int k = 0; k < lefts.length; ++k) {
+            double left = lefts[k][row];
+            result += left * (left >= 0 ? rightMins[k] : rightMaxs[k]);
+        }
+
+        return result;
+    }
+
+    @Override
+    public double setNegativeEntriesToZero() {
+        RowEpilogue epilogue = new RowEpilogue(MatrixPowerer.NO_STABILIZE,
+                true);
+        applyRowEpilogue(epilogue);
+
+        return epilogue.getMinimalClampedEntry();
+    }
+
+    @Override
+    public void stabilizeRowsTo(double stabilizeRowsTo) {
+        applyRowEpilogue(new RowEpilogue(stabilizeRowsTo, false));
+    }
+
+    @Override
+    public void scaleRows(double[] factors) {
+        if (factors.length != rows) {
+            throw new IllegalArgumentException();
+        }
+
+        // the left vectors may be shared with the factors of a product
+        double[][] scaledLefts = new double[lefts.length][rows];
+        for (int k = 0; k < lefts.length; ++k) {
+            for (int row = 0; row < rows; ++row) {
+                scaledLefts[k][row] = lefts[k][row] * factors[row];
+            }
+        }
+        lefts = scaledLefts;
+        residual.scaleRows(factors);
+    }
+
+    @Override
+    public void add(Matrix mat) {
+        addSub(mat, true);
+    }
+
+    @Override
+    public void sub(Matrix mat) {
+        addSub(mat, false);
+    }
+
+    private void addSub(Matrix mat, boolean add) {
+        if (!hasSameDimensions(mat)) {
+            throw new IllegalArgumentException();
+        }
+
+        if (!(mat instanceof LowRankSparseMatrix)) {
+            if (add) {
+                residual.add(mat);
+            } else {
+                residual.sub(mat);
+            }
+            return;
+        }
+
+        LowRankSparseMatrix that = (LowRankSparseMatrix) mat;
+        int rank = lefts.length;
+        lefts = Arrays.copyOf(lefts, rank + that.lefts.length);
+        rights = Arrays.copyOf(rights, rank + that.rights.length);
+        for (int k = 0; k < that.lefts.length; ++k) {
+            lefts[rank + k] = that.lefts[k].clone();
+            rights[rank + k] = that.rights[k].clone();
+            if (!add) {
+                DenseKernels.get().scale(-1, rights[rank + k], 0, cols);
+            }
+        }
+        if (add) {
+            residual.add(that.residual);
+        } else {
+            residual.sub(that.residual);
+        }
+
+        compress();
+    }
+
+    @Override
+    public void clear() {
+        lefts = new double[0][];
+        rights = new double[0][];
+        residual.clear();
+    }
+
+    @Override
+    public Matrix clone() {
+        return new LowRankSparseMatrix(rows, cols, copyOf(lefts),
+                copyOf(rights), (CrsMatrix) residual.clone());
+    }
+
+    @Override
+    public Matrix getNewInstance(int rows, int cols) {
+        return new LowRankSparseMatrix(rows, cols);
+    }
+
+    @Override
+    public Matrix getOne() {
+        CrsMatrix one = new CrsMatrix(rows, cols, Math.max(1,
+                Math.min(rows, cols)));
+        int[] rowCols = new int[1];
+        double[] rowValues = { 1 };
+        for (int row = 0; row < rows; ++row) {
+            rowCols[0] = row;
+            one.appendRow(row, rowCols, rowValues, row < cols ? 1 : 0);
+        }
+
+        return new LowRankSparseMatrix(rows, cols, new double[0][],
+                new double[0][], one);
+    }
+
+    @Override
+    public Matrix getPart(int row1, int col1, int row2, int col2) {
+        if (row1 > row2) {
+            int temp = row2;
+            row2 = row1;
+            row1 = temp;
+        }
+        if (col1 > col2) {
+            int temp = col1;
+            col1 = col2;
+            col2 = temp;
+        }
+
+        CrsMatrix partResidual = asCrsMatrix(residual.getPart(row1, col1,
+                row2, col2));
+        if (row1 < 0 || col1 < 0 || col1 >= cols || row1 >= rows) {
+            // invalid arguments: return empty matrix
+            return new LowRankSparseMatrix(row2 - row1 + 1, col2 - col1 + 1);
+        }
+
+        // parts outside of this matrix are filled with zeros
+        double[][] partLefts = new double[lefts.length][];
+        double[][] partRights = new double[rights.length][];
+        for (int k = 0; k < lefts.length; ++k) {
+            partLefts[k] = Arrays.copyOfRange(lefts[k], row1, row2 + 1);
+            partRights[k] = Arrays.copyOfRange(rights[k], col1, col2 + 1);
+        }
+
+        return new LowRankSparseMatrix(row2 - row1 + 1, col2 - col1 + 1,
+                partLefts, partRights, partResidual);
+    }
+
+    @Override
+    protected void pool(Matrix upLeft, Matrix upRight, Matrix downLeft,
+            Matrix downRight) {
+        if (!poolPossible(upLeft, upRight, downLeft, downRight)) {
+            throw new IllegalArgumentException();
+        }
+
+        putPart(upLeft, 0, 0);
+        putPart(upRight, 0, upLeft.getCols());
+        putPart(downLeft, upLeft.getRows(), 0);
+        putPart(downRight, upLeft.getRows(), upLeft.getCols());
+    }
+
+    @Override
+    protected Matrix strassenMultThisWith(Matrix matrix) {
+        return multWith(matrix);
+    }
+
+    @Override
+    protected Matrix prlStrassenMultThisWith(Matrix matrix) {
+        return multWith(matrix, MatrixMultType.PARALLEL_NAIVE);
+    }
+
+    @Override
+    protected Matrix prlStrassenWinogradMultThisWith(Matrix matrix) {
+        return multWith(matrix, MatrixMultType.PARALLEL_NAIVE);
+    }
+
+    @Override
+    protected Matrix winogradMultThisWith(Matrix matrix) {
+        return multWith(matrix);
+    }
+
+    @Override
+    public double getNorm(MatrixNorm norm) {
+        double result = 0;
+        double[] values = new double[cols];
+        for (int row = 0; row < rows; ++row) {
+            getRow(row, values);
+            for (int col = 0; col < cols; ++col) {
+                switch (norm) {
+                case MAX_NORM:
+                    result = Math.max(result, Math.abs(values[col]));
+                    break;
+                case TWO_NORM:
+                    result += values[col] * values[col];
+                    break;
+                default:
+                    throw new IllegalArgumentException();
+                }
+            }
+        }
+
+        return norm == MatrixNorm.TWO_NORM ? Math.sqrt(result) : result;
+    }
+
+    @Override
+    public boolean isNonNegative() {
+        double[] values = new double[cols];
+        for (int row = 0; row < rows; ++row) {
+            getRow(row, values);
+            for (int col = 0; col < cols; ++col) {
+                if (values[col] < 0) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean isPositive() {
+        double[] values = new double[cols];
+        for (int row = 0; row < rows; ++row) {
+            getRow(row, values);
+            for (int col = 0; col < cols; ++col) {
+                if (values[col] <= 0) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public double getMinimalPositiveEntry() {
+        // the maximum for an entry of a stochastic matrix is 1.0
+        double minimum = 2.0;
+        double[] values = new double[cols];
+        for (int row = 0; row < rows; ++row) {
+            getRow(row, values);
+            for (int col = 0; col < cols; ++col) {
+                if (values[col] > 0) {
+                    minimum = Math.min(minimum, values[col]);
+                }
+            }
+        }
+
+        if (minimum == 2.0) {
+            minimum = 0.0;
+        }
+
+        return minimum;
+    }
+
+    private static class RowChunkMultiplier extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 6187406223560473512L;
+        private final LowRankSparseMatrix right;
+        private final Matrix left;
+        private final double[][] vectors, results, product;
+        private final int firstRow, endRow;
+
+        private RowChunkMultiplier(LowRankSparseMatrix right, Matrix left,
+                double[][] vectors, double[][] results, double[][] product,
+                int firstRow, int endRow) {
+            this.right = right;
+            this.left = left;
+            this.vectors = vectors;
+            this.results = results;
+            this.product = product;
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected Double compute() {
+            right.multiplyRows(left, vectors, results, product, firstRow,
+                    endRow);
+            return 0.0; // no result needed
+        }
+    }
+}
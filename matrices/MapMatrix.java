@@ -1,14 +1,15 @@
 package matrices;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+
+import tools.IntDoubleHashMap;
 
 /**
- * Is a model for a matrix containing only double values. It uses a map for row
- * access, and then maps the column number to an entry. This implementation is
- * not thread-safe! However, parallel access is possible if the reading/writing
- * sections are disjoint.
+ * Is a model for a matrix containing only double values. Every row maps the
+ * column number to an entry with a primitive open-addressing hash map; rows
+ * without entries have no map at all. This implementation is not thread-safe!
+ * However, parallel access is possible if the reading/writing sections are
+ * disjoint rows.
  * 
  * @author Michael Stock
  */
@@ -20,7 +21,7 @@ public class MapMatrix extends Matrix {
     private static final double DEFAULT_VALUE = 0.0;
     private static final int NUMBER_OF_THREADS = 8;
 
-    private Map<Integer, Map<Integer, Double>> content;
+    private IntDoubleHashMap[] content;
     private int rows;
     private int cols;
 
@@ -31,38 +32,44 @@ public class MapMatrix extends Matrix {
     private void initWith(int rows, int cols) {
         this.rows = rows;
         this.cols = cols;
-        content = new HashMap<Integer, Map<Integer, Double>>();
-        for (int i = 0; i < rows; ++i) {
-            content.put(i, new HashMap<Integer, Double>());
-        }
+        content = new IntDoubleHashMap[rows];
     }
 
     public MapMatrix(Matrix mat) {
         initWith(mat.getRows(), mat.getCols());
 
-        double val;
         for (int i = 0; i < rows; ++i) {
-            Map<Integer, Double> colMap = content.get(i);
-            for (int j = 0; j < cols; ++j) {
-                val = mat.get(i, j);
-                if (val != DEFAULT_VALUE) {
-                    colMap.put(j, val);
-                }
+            RowCursor cursor = mat.getRowCursor(i);
+            while (cursor.next()) {
+                getOrCreateColMap(i).put(cursor.getCol(), cursor.getValue());
             }
         }
     }
 
+    /**
+     * Returns the column map of a row, which is created if the row has no
+     * entries yet.
+     */
+    private IntDoubleHashMap getOrCreateColMap(int row) {
+        IntDoubleHashMap colMap = content[row];
+        if (colMap == null) {
+            colMap = new IntDoubleHashMap();
+            content[row] = colMap;
+        }
+        return colMap;
+    }
+
     @Override
     public double get(int row, int col) {
         if (!isValidEntryLocation(row, col))
             return DEFAULT_VALUE;
 
-        Map<Integer, Double> colMap = content.get(row);
+        IntDoubleHashMap colMap = content[row];
 
-        if (colMap.containsKey(col)) {
-            return colMap.get(col);
-        } else {
+        if (colMap == null) {
             return DEFAULT_VALUE;
+        } else {
+            return colMap.get(col, DEFAULT_VALUE);
         }
     }
 
@@ -76,9 +83,7 @@ public class MapMatrix extends Matrix {
             return;
         }
 
-        Map<Integer, Double> colMap = content.get(row);
-
-        colMap.put(col, val);
+        getOrCreateColMap(row).put(col, val);
     }
 
     @Override
@@ -86,9 +91,59 @@ public class MapMatrix extends Matrix {
         if (!isValidEntryLocation(row, col))
             return;
 
-        Map<Integer, Double> colMap = content.get(row);
+        IntDoubleHashMap colMap = content[row];
 
-        colMap.remove(col);
+        if (colMap != null) {
+            colMap.remove(col);
+        }
+    }
+
+    @Override
+    public RowCursor getRowCursor(final int row) {
+        if (row < 0 || row >= rows) {
+            throw new IllegalArgumentException();
+        }
+
+        final IntDoubleHashMap colMap = content[row];
+        return new RowCursor() {
+            private int slot = -1;
+
+            @Override
+            public boolean next() {
+                if (colMap == null) {
+                    return false;
+                }
+                while (++slot < colMap.getCapacity()) {
+                    if (colMap.isUsedSlot(slot)
+                            && colMap.getValueAt(slot) != DEFAULT_VALUE) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public int getCol() {
+                return colMap.getKeyAt(slot);
+            }
+
+            @Override
+            public double getValue() {
+                return colMap.getValueAt(slot);
+            }
+        };
+    }
+
+    @Override
+    public int nnz() {
+        int result = 0;
+        for (int row = 0; row < rows; ++row) {
+            if (content[row] != null) {
+                result += content[row].size();
+            }
+        }
+
+        return result;
     }
 
     @Override
@@ -114,6 +169,72 @@ public class MapMatrix extends Matrix {
         return result;
     }
 
+    /**
+     * Applies the epilogue to every row of the naive product, while it is
+     * still accumulated densely, so the hash maps of the result are only
+     * written once.
+     */
+    @Override
+    public Matrix multWith(Matrix matrix, MatrixMultType multType,
+            RowEpilogue epilogue) {
+        if (epilogue == null || multType != MatrixMultType.NAIVE
+                || matrix.isMultipliedFromLeft()) {
+            return super.multWith(matrix, multType, epilogue);
+        }
+        if (!multPossible(matrix)) {
+            throw new IllegalArgumentException();
+        }
+
+        MapMatrix result = new MapMatrix(this.getRows(), matrix.getCols());
+
+        multRowsInto(matrix, result, epilogue);
+
+        return result;
+    }
+
+    /**
+     * Gathers every row in the order of its columns, so the epilogue sees it
+     * like in the other storage types, e.g. for the ties of top k.
+     */
+    @Override
+    public void applyRowEpilogue(RowEpilogue epilogue) {
+        RowEpilogue.Chunk chunk = epilogue.startChunk();
+        int[] cols = new int[0];
+        double[] values = new double[0];
+        for (int row = 0; row < getRows(); ++row) {
+            IntDoubleHashMap colMap = content[row];
+            if (colMap == null) {
+                continue;
+            }
+
+            if (values.length < colMap.size()) {
+                cols = new int[colMap.size()];
+                values = new double[colMap.size()];
+            }
+            int count = 0;
+            for (int slot = 0; slot < colMap.getCapacity(); ++slot) {
+                if (colMap.isUsedSlot(slot)) {
+                    cols[count++] = colMap.getKeyAt(slot);
+                }
+            }
+            Arrays.sort(cols, 0, count);
+            for (int i = 0; i < count; ++i) {
+                values[i] = colMap.get(cols[i], DEFAULT_VALUE);
+            }
+
+            chunk.apply(values, 0, count);
+
+            for (int i = 0; i < count; ++i) {
+                if (values[i] == 0) {
+                    colMap.remove(cols[i]);
+                } else {
+                    colMap.put(cols[i], values[i]);
+                }
+            }
+        }
+        chunk.finish();
+    }
+
     @Override
     public Matrix prlMultWith(Matrix matrix) {
         if (!multPossible(matrix)) {
@@ -161,13 +282,17 @@ public class MapMatrix extends Matrix {
         col2 = Math.min(this.getCols() - 1, col2);
 
         for (int row = row1; row <= row2; ++row) {
-            Map<Integer, Double> colMap = result.content.get(row - row1);
-            for (int col = col1; col <= col2; ++col) {
-                double value = this.get(row, col);
-                if (value != DEFAULT_VALUE) {
-                    colMap.put(col - col1, value);
-                } else {
-                    colMap.remove(col - col1);
+            IntDoubleHashMap thisColMap = this.content[row];
+            if (thisColMap == null) {
+                continue;
+            }
+            for (int slot = 0; slot < thisColMap.getCapacity(); ++slot) {
+                if (thisColMap.isUsedSlot(slot)) {
+                    int col = thisColMap.getKeyAt(slot);
+                    if (col1 <= col && col <= col2) {
+                        result.getOrCreateColMap(row - row1).put(col - col1,
+                                thisColMap.getValueAt(slot));
+                    }
                 }
             }
         }
@@ -186,29 +311,82 @@ public class MapMatrix extends Matrix {
     }
 
     private void addSub(Matrix mat, boolean add) {
-        if (hasSameDimensions(mat)) {
+        if (!hasSameDimensions(mat)) {
+            throw new IllegalArgumentException();
+        }
+
+        if (mat instanceof MapMatrix) {
+            // only the entries of mat change this matrix
+            MapMatrix mapMat = (MapMatrix) mat;
             for (int row = 0; row < this.getRows(); ++row) {
-                Map<Integer, Double> colMap = this.content.get(row);
-                for (int col = 0; col < this.getCols(); ++col) {
-                    if (add) {
-                        double value = this.get(row, col) + mat.get(row, col);
-                        if (value != DEFAULT_VALUE) {
-                            colMap.put(col, value);
-                        } else {
-                            colMap.remove(col);
-                        }
-                    } else {
-                        double value = this.get(row, col) - mat.get(row, col);
-                        if (value != DEFAULT_VALUE) {
-                            colMap.put(col, value);
-                        } else {
-                            colMap.remove(col);
-                        }
+                IntDoubleHashMap thatColMap = mapMat.content[row];
+                if (thatColMap == null || thatColMap.isEmpty()) {
+                    continue;
+                }
+                if (thatColMap == this.content[row]) {
+                    // mat is this matrix
+                    thatColMap = new IntDoubleHashMap(thatColMap);
+                }
+                for (int slot = 0; slot < thatColMap.getCapacity(); ++slot) {
+                    if (thatColMap.isUsedSlot(slot)) {
+                        double value = thatColMap.getValueAt(slot);
+                        addToEntry(row, thatColMap.getKeyAt(slot),
+                                add ? value : -value);
                     }
                 }
             }
         } else {
-            throw new IllegalArgumentException();
+            for (int row = 0; row < this.getRows(); ++row) {
+                RowCursor cursor = mat.getRowCursor(row);
+                while (cursor.next()) {
+                    double value = cursor.getValue();
+                    addToEntry(row, cursor.getCol(), add ? value : -value);
+                }
+            }
+        }
+    }
+
+    private void addToEntry(int row, int col, double value) {
+        double sum = this.get(row, col) + value;
+        if (sum != DEFAULT_VALUE) {
+            getOrCreateColMap(row).put(col, sum);
+        } else {
+            del(row, col);
+        }
+    }
+
+    @Override
+    protected void addSubInto(Matrix mat, Matrix target, boolean add) {
+        if (!(target instanceof MapMatrix)) {
+            super.addSubInto(mat, target, add);
+            return;
+        }
+        MapMatrix mapTarget = (MapMatrix) target;
+
+        for (int row = 0; row < rows; ++row) {
+            // the column maps of the target are reused
+            IntDoubleHashMap targetColMap = mapTarget.content[row];
+            if (targetColMap != null) {
+                targetColMap.clear();
+            }
+            mapTarget.copyRowFrom(this.content[row], row, 0);
+
+            RowCursor cursor = mat.getRowCursor(row);
+            while (cursor.next()) {
+                double value = cursor.getValue();
+                mapTarget.addToEntry(row, cursor.getCol(), add ? value
+                        : -value);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        // the column maps are kept for reuse
+        for (int row = 0; row < rows; ++row) {
+            if (content[row] != null) {
+                content[row].clear();
+            }
         }
     }
 
@@ -217,13 +395,9 @@ public class MapMatrix extends Matrix {
         MapMatrix clone = new MapMatrix(rows, cols);
 
         for (int row = 0; row < rows; row++) {
-            Map<Integer, Double> colMap = clone.content.get(row);
-            Map<Integer, Double> thisColMap = this.content.get(row);
-            for (int col = 0; col < cols; col++) {
-                Double value = thisColMap.get(col);
-                if (value != null && value != DEFAULT_VALUE) {
-                    colMap.put(col, value);
-                }
+            IntDoubleHashMap thisColMap = this.content[row];
+            if (thisColMap != null && !thisColMap.isEmpty()) {
+                clone.content[row] = new IntDoubleHashMap(thisColMap);
             }
         }
 
@@ -241,31 +415,33 @@ public class MapMatrix extends Matrix {
         MapMatrix c21 = (MapMatrix) downLeft;
         MapMatrix c22 = (MapMatrix) downRight;
 
-        int halfSize = upLeft.getRows();
+        int halfRows = upLeft.getRows();
+        int halfCols = upLeft.getCols();
         int rowShift = 0;
         MapMatrix leftCopyMat = c11;
         MapMatrix rightCopyMat = c12;
 
-        for (int row = 0; row < getRows(); row++) {
-            Map<Integer, Double> colMap = this.content.get(row);
-            if (row == halfSize) {
+        for (int row = 0; row < 2 * halfRows; row++) {
+            if (row == halfRows) {
                 leftCopyMat = c21;
                 rightCopyMat = c22;
-                rowShift = halfSize;
-            }
-            Map<Integer, Double> leftColMap = leftCopyMat.content.get(row
-                    - rowShift);
-            Map<Integer, Double> rightColMap = rightCopyMat.content.get(row
-                    - rowShift);
-
-            for (int col = 0; col < Math.min(halfSize, getCols()); col++) {
-                if (leftColMap.containsKey(col))
-                    colMap.put(col, leftColMap.get(col));
+                rowShift = halfRows;
             }
+            copyRowFrom(leftCopyMat.content[row - rowShift], row, 0);
+            copyRowFrom(rightCopyMat.content[row - rowShift], row, halfCols);
+        }
+    }
 
-            for (int col = halfSize; col < getCols(); col++) {
-                if (rightColMap.containsKey(col - halfSize))
-                    colMap.put(col, rightColMap.get(col - halfSize));
+    private void copyRowFrom(IntDoubleHashMap colMap, int row, int colShift) {
+        if (colMap == null) {
+            return;
+        }
+        for (int slot = 0; slot < colMap.getCapacity(); ++slot) {
+            if (colMap.isUsedSlot(slot)) {
+                int col = colMap.getKeyAt(slot) + colShift;
+                if (col < getCols()) {
+                    getOrCreateColMap(row).put(col, colMap.getValueAt(slot));
+                }
             }
         }
     }
@@ -288,6 +464,15 @@ public class MapMatrix extends Matrix {
         return result;
     }
 
+    @Override
+    public Matrix prlStrassenWinogradMultThisWith(Matrix matrix) {
+        MapMatrix result = new MapMatrix(this.getRows(), matrix.getCols());
+
+        prlStrassenWinogradMultThisWithInto(matrix, result, WRITE_BY_ROW);
+
+        return result;
+    }
+
     @Override
     public Matrix winogradMultThisWith(Matrix matrix) {
         MapMatrix result = new MapMatrix(this.getRows(), matrix.getCols());
@@ -313,10 +498,14 @@ public class MapMatrix extends Matrix {
         double result = 0;
 
         for (int row = 0; row < getRows(); ++row) {
-            for (int col = 0; col < getCols(); ++col) {
-                Double entry = content.get(row).get(col);
-                if (entry != null && Math.abs(entry) > result) {
-                    result = Math.abs(entry);
+            IntDoubleHashMap colMap = content[row];
+            if (colMap == null) {
+                continue;
+            }
+            for (int slot = 0; slot < colMap.getCapacity(); ++slot) {
+                if (colMap.isUsedSlot(slot)
+                        && Math.abs(colMap.getValueAt(slot)) > result) {
+                    result = Math.abs(colMap.getValueAt(slot));
                 }
             }
         }
@@ -328,9 +517,13 @@ public class MapMatrix extends Matrix {
         double result = 0;
 
         for (int row = 0; row < getRows(); ++row) {
-            for (int col = 0; col < getCols(); ++col) {
-                Double entry = content.get(row).get(col);
-                if (entry != null) {
+            IntDoubleHashMap colMap = content[row];
+            if (colMap == null) {
+                continue;
+            }
+            for (int slot = 0; slot < colMap.getCapacity(); ++slot) {
+                if (colMap.isUsedSlot(slot)) {
+                    double entry = colMap.getValueAt(slot);
                     result += entry * entry;
                 }
             }
@@ -344,11 +537,15 @@ public class MapMatrix extends Matrix {
         double rowSum;
 
         for (int row = 0; row < getRows(); row++) {
+            IntDoubleHashMap colMap = content[row];
+            if (colMap == null) {
+                continue;
+            }
+
             rowSum = 0.0;
-            Map<Integer, Double> colMap = content.get(row);
-            for (int col = 0; col < getCols(); ++col) {
-                if (colMap.containsKey(col)) {
-                    rowSum += colMap.get(col);
+            for (int slot = 0; slot < colMap.getCapacity(); ++slot) {
+                if (colMap.isUsedSlot(slot)) {
+                    rowSum += colMap.getValueAt(slot);
                 }
             }
 
@@ -356,22 +553,45 @@ public class MapMatrix extends Matrix {
                 rowSum = 1.0;
             }
 
-            for (int col = 0; col < getCols(); ++col) {
-                if (colMap.containsKey(col)) {
-                    colMap.put(col, colMap.get(col)
+            for (int slot = 0; slot < colMap.getCapacity(); ++slot) {
+                if (colMap.isUsedSlot(slot)) {
+                    colMap.setValueAt(slot, colMap.getValueAt(slot)
                             * (stabilizeRowsTo / rowSum));
                 }
             }
         }
     }
 
+    @Override
+    public void scaleRows(double[] factors) {
+        if (factors.length != getRows()) {
+            throw new IllegalArgumentException();
+        }
+
+        for (int row = 0; row < getRows(); row++) {
+            IntDoubleHashMap colMap = content[row];
+            if (colMap == null) {
+                continue;
+            }
+
+            for (int slot = 0; slot < colMap.getCapacity(); ++slot) {
+                if (colMap.isUsedSlot(slot)) {
+                    colMap.setValueAt(slot, colMap.getValueAt(slot)
+                            * factors[row]);
+                }
+            }
+        }
+    }
+
     @Override
     public boolean isNonNegative() {
         for (int row = 0; row < getRows(); ++row) {
-            Map<Integer, Double> colMap = content.get(row);
-            for (int col = 0; col < getCols(); ++col) {
-                Double value = colMap.get(col);
-                if (value != null && value < 0) {
+            IntDoubleHashMap colMap = content[row];
+            if (colMap == null) {
+                continue;
+            }
+            for (int slot = 0; slot < colMap.getCapacity(); ++slot) {
+                if (colMap.isUsedSlot(slot) && colMap.getValueAt(slot) < 0) {
                     return false;
                 }
             }
@@ -382,13 +602,18 @@ public class MapMatrix extends Matrix {
 
     @Override
     public boolean isPositive() {
+        if (getCols() == 0) {
+            return true;
+        }
+
         for (int row = 0; row < getRows(); ++row) {
-            Map<Integer, Double> colMap = content.get(row);
-            for (int col = 0; col < getCols(); ++col) {
-                Double value = colMap.get(col);
-                if (value != null && value <= 0) {
-                    return false;
-                } else if (value == null) {
+            IntDoubleHashMap colMap = content[row];
+            // zero entries are not stored
+            if (colMap == null || colMap.size() < getCols()) {
+                return false;
+            }
+            for (int slot = 0; slot < colMap.getCapacity(); ++slot) {
+                if (colMap.isUsedSlot(slot) && colMap.getValueAt(slot) <= 0) {
                     return false;
                 }
             }
@@ -398,28 +623,32 @@ public class MapMatrix extends Matrix {
     }
 
     @Override
-    protected void setNegativeEntriesToZero(boolean showModifications) {
+    public double setNegativeEntriesToZero() {
         double minValueSetToZero = 0.0;
         for (int row = 0; row < getRows(); ++row) {
-            Map<Integer, Double> colMap = content.get(row);
-            for (int col = 0; col < getCols(); ++col) {
-                if (colMap.containsKey(col) && colMap.get(col) < 0) {
-                    if (showModifications
-                            && minValueSetToZero > colMap.get(col)) {
-                        minValueSetToZero = colMap.get(col);
+            IntDoubleHashMap colMap = content[row];
+            if (colMap == null) {
+                continue;
+            }
+
+            int[] negativeCols = new int[colMap.size()];
+            int negativeCount = 0;
+            for (int slot = 0; slot < colMap.getCapacity(); ++slot) {
+                if (colMap.isUsedSlot(slot) && colMap.getValueAt(slot) < 0) {
+                    if (minValueSetToZero > colMap.getValueAt(slot)) {
+                        minValueSetToZero = colMap.getValueAt(slot);
                     }
-                    // if (DEFAULT_VALUE == 0) {
-                    colMap.remove(col);
-                    // } else {
-                    // colMap.put(col, 0.0);
-                    // }
+                    negativeCols[negativeCount++] = colMap.getKeyAt(slot);
                 }
             }
+
+            // removing shifts entries between slots, so remove afterwards
+            for (int i = 0; i < negativeCount; ++i) {
+                colMap.remove(negativeCols[i]);
+            }
         }
-        if (showModifications && minValueSetToZero < 0) {
-            System.out.println("MINIMAL NEGATIVE ENTRY SET TO ZERO: "
-                    + minValueSetToZero);
-        }
+
+        return minValueSetToZero;
     }
 
     public static void main(String[] args) {
@@ -458,10 +687,16 @@ public class MapMatrix extends Matrix {
         // the maximum for an entry of a stochastic matrix is 1.0
         double minimum = 2.0;
         for (int row = 0; row < getRows(); ++row) {
-            Map<Integer, Double> colMap = content.get(row);
+            IntDoubleHashMap colMap = content[row];
+            if (colMap == null) {
+                continue;
+            }
             // colMaps do never contain zero values
-            if (colMap.values().size() > 0)
-                minimum = Math.min(minimum, Collections.min(colMap.values()));
+            for (int slot = 0; slot < colMap.getCapacity(); ++slot) {
+                if (colMap.isUsedSlot(slot)) {
+                    minimum = Math.min(minimum, colMap.getValueAt(slot));
+                }
+            }
         }
 
         if (minimum == 2.0) {
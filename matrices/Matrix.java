@@ -2,6 +2,8 @@ package matrices;
 
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.RecursiveTask;
 
 public abstract class Matrix {
@@ -27,7 +29,25 @@ public abstract class Matrix {
      */
     private static final int STRASSEN_PARALLEL_LEVEL_LIMIT = 1;
 
-    private static final boolean SHOW_MODIFICATIONS = true;
+    /**
+     * The Strassen-Winograd algorithm forks its seven products if a product
+     * has at least this number of scalar multiplications...
+     */
+    private static final long STRASSEN_WINOGRAD_MIN_FORK_WORK = 128L * 128 * 128;
+
+    /**
+     * ...and if the current worker thread has at most this number of queued
+     * tasks, which have not been stolen by other workers yet.
+     */
+    private static final int STRASSEN_WINOGRAD_MAX_SURPLUS_TASKS = 3;
+
+    /**
+     * The Strassen algorithms use the multiplication of the storage type, if
+     * both factors use sparse storage and have at most this ratio of non-zero
+     * entries.
+     */
+    private static final double SPARSE_KERNEL_DENSITY = 0.1;
+
 
     public abstract Matrix clone();
 
@@ -51,8 +71,119 @@ public abstract class Matrix {
 
     public abstract Matrix getPart(int row1, int col1, int row2, int col2);
 
+    /**
+     * Returns the same part as {@link #getPart(int, int, int, int)}, but
+     * storage types may share their storage with the returned matrix instead
+     * of copying it. Changes of the part may be visible in this matrix and vice
+     * versa, so the part should only be read. The default implementation
+     * copies.
+     */
+    public Matrix getPartView(int row1, int col1, int row2, int col2) {
+        return getPart(row1, col1, row2, col2);
+    }
+
     public abstract Matrix getNewInstance(int rows, int cols);
 
+    /**
+     * Returns a cursor over the non-zero entries of a row. Storage types
+     * should override this method: the default implementation calls
+     * {@link #get(int, int)} for every column.
+     * 
+     * @param row
+     *            is a valid row index.
+     * @return a cursor placed before the first non-zero entry of the row.
+     */
+    public RowCursor getRowCursor(final int row) {
+        if (row < 0 || row >= getRows()) {
+            throw new IllegalArgumentException();
+        }
+
+        return new RowCursor() {
+            private int col = -1;
+            private double value;
+
+            @Override
+            public boolean next() {
+                while (++col < getCols()) {
+                    value = get(row, col);
+                    if (value != 0) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public int getCol() {
+                return col;
+            }
+
+            @Override
+            public double getValue() {
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Calls the visitor for every non-zero entry of this matrix, row by row.
+     * The cost is proportional to the number of non-zero entries for sparse
+     * storage types.
+     */
+    public void forEachNonZero(EntryVisitor visitor) {
+        for (int row = 0; row < getRows(); ++row) {
+            RowCursor cursor = getRowCursor(row);
+            while (cursor.next()) {
+                visitor.visit(row, cursor.getCol(), cursor.getValue());
+            }
+        }
+    }
+
+    /**
+     * Adds vectors[v] * this to results[v] for every v: the vectors have
+     * getRows() entries, the results getCols(). Rows, for which every vector
+     * is zero, are skipped, so the cost is proportional to the number of
+     * non-zero entries in the other rows.
+     */
+    void addRowVectorProductsTo(double[][] vectors, double[][] results) {
+        for (int row = 0; row < getRows(); ++row) {
+            if (isZeroInAll(vectors, row)) {
+                continue;
+            }
+            RowCursor cursor = getRowCursor(row);
+            while (cursor.next()) {
+                for (int v = 0; v < vectors.length; ++v) {
+                    results[v][cursor.getCol()] += vectors[v][row]
+                            * cursor.getValue();
+                }
+            }
+        }
+    }
+
+    static boolean isZeroInAll(double[][] vectors, int index) {
+        for (int v = 0; v < vectors.length; ++v) {
+            if (vectors[v][index] != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the number of non-zero entries of this matrix.
+     */
+    public int nnz() {
+        int result = 0;
+        for (int row = 0; row < getRows(); ++row) {
+            RowCursor cursor = getRowCursor(row);
+            while (cursor.next()) {
+                result++;
+            }
+        }
+        return result;
+    }
+
     /**
      * Checks if this matrix is nonnegative.
      * 
@@ -68,14 +199,60 @@ public abstract class Matrix {
      */
     public abstract boolean isPositive();
 
-    public void setNegativeEntriesToZero() {
-        setNegativeEntriesToZero(SHOW_MODIFICATIONS);
-    }
+    /**
+     * Sets every negative entry to zero.
+     * 
+     * @return the smallest entry, which was set to zero, or 0 if there was
+     *         none.
+     */
+    public abstract double setNegativeEntriesToZero();
 
-    protected abstract void setNegativeEntriesToZero(boolean showModifications);
+    /**
+     * Applies the epilogue to every row of this matrix in one pass. Storage
+     * types should override this method: the default implementation reads
+     * the rows by cursors and writes every non-zero entry back.
+     */
+    public void applyRowEpilogue(RowEpilogue epilogue) {
+        RowEpilogue.Chunk chunk = epilogue.startChunk();
+        double[] values = new double[getCols()];
+        int[] cols = new int[getCols()];
+        for (int row = 0; row < getRows(); ++row) {
+            int count = 0;
+            RowCursor cursor = getRowCursor(row);
+            while (cursor.next()) {
+                cols[count++] = cursor.getCol();
+                values[cursor.getCol()] = cursor.getValue();
+            }
+
+            chunk.apply(values, cols, count);
+            for (int i = 0; i < count; ++i) {
+                put(values[cols[i]], row, cols[i]);
+            }
+        }
+        chunk.finish();
+    }
 
     public abstract void add(Matrix mat);
 
+    /**
+     * Sets all entries to zero. Storage types should override this method:
+     * the default implementation deletes every non-zero entry.
+     */
+    public void clear() {
+        for (int row = 0; row < getRows(); ++row) {
+            // the columns are collected first, del may change the row
+            int[] cols = new int[getCols()];
+            int count = 0;
+            RowCursor cursor = getRowCursor(row);
+            while (cursor.next()) {
+                cols[count++] = cursor.getCol();
+            }
+            for (int i = 0; i < count; ++i) {
+                del(row, cols[i]);
+            }
+        }
+    }
+
     public Matrix getZero() {
         return getNewInstance(this.getRows(), this.getCols());
     }
@@ -92,6 +269,11 @@ public abstract class Matrix {
 
     public abstract void stabilizeRowsTo(double stabilizeRowsTo);
 
+    /**
+     * Multiplies every row with its factor, keeping the storage type.
+     */
+    public abstract void scaleRows(double[] factors);
+
     public Matrix cloneAdd(Matrix mat) {
         Matrix result = this.clone();
         result.add(mat);
@@ -106,6 +288,85 @@ public abstract class Matrix {
         return result;
     }
 
+    /**
+     * Writes this + mat into target, which has to be a different matrix of the
+     * same dimensions. In contrast to {@link #cloneAdd(Matrix)}, no matrix is
+     * allocated if the storage of target can be reused.
+     */
+    public void addInto(Matrix mat, Matrix target) {
+        if (!hasSameDimensions(mat) || !hasSameDimensions(target)
+                || target == this || target == mat) {
+            throw new IllegalArgumentException();
+        }
+
+        addSubInto(mat, target, true);
+    }
+
+    /**
+     * Writes this - mat into target, see {@link #addInto(Matrix, Matrix)}.
+     */
+    public void subInto(Matrix mat, Matrix target) {
+        if (!hasSameDimensions(mat) || !hasSameDimensions(target)
+                || target == this || target == mat) {
+            throw new IllegalArgumentException();
+        }
+
+        addSubInto(mat, target, false);
+    }
+
+    /**
+     * Writes this * matrix into result, which has to be a different matrix of
+     * the dimensions of the product. Repeated multiplications of the same
+     * size, e.g. in {@link MatrixPowerer}, can reuse result instead of
+     * allocating a new product every time.
+     */
+    public void multWithInto(Matrix matrix, Matrix result,
+            MatrixMultType multType) {
+        if (!multPossible(matrix) || result.getRows() != getRows()
+                || result.getCols() != matrix.getCols() || result == this
+                || result == matrix) {
+            throw new IllegalArgumentException();
+        }
+
+        multInto(matrix, result, multType);
+    }
+
+    /**
+     * Storage types should override this method: the default implementation
+     * copies the product into result.
+     */
+    protected void multInto(Matrix matrix, Matrix result,
+            MatrixMultType multType) {
+        result.putPart(multWith(matrix, multType), 0, 0);
+    }
+
+    /**
+     * Is true, if {@link #multInto(Matrix, Matrix, MatrixMultType)} writes the
+     * product with matrix directly into a result of the storage type of this
+     * matrix. Storage types overriding multInto with such a kernel should
+     * override this method as well: the default implementation copies.
+     */
+    protected boolean hasMultIntoKernel(Matrix matrix,
+            MatrixMultType multType) {
+        return false;
+    }
+
+    /**
+     * Storage types should override this method: the default implementation
+     * writes every entry of target.
+     */
+    protected void addSubInto(Matrix mat, Matrix target, boolean add) {
+        for (int row = 0; row < getRows(); ++row) {
+            for (int col = 0; col < getCols(); ++col) {
+                if (add) {
+                    target.put(this.get(row, col) + mat.get(row, col), row, col);
+                } else {
+                    target.put(this.get(row, col) - mat.get(row, col), row, col);
+                }
+            }
+        }
+    }
+
     public boolean hasSameDimensions(Matrix mat) {
         return this.getCols() == mat.getCols()
                 && this.getRows() == mat.getRows();
@@ -120,6 +381,11 @@ public abstract class Matrix {
      * @return
      */
     public Matrix multWith(Matrix matrix, MatrixMultType multType) {
+        Matrix product = matrix.multFromLeft(this, multType);
+        if (product != null) {
+            return product;
+        }
+
         switch (multType) {
         case NAIVE:
             return this.multWith(matrix);
@@ -131,59 +397,161 @@ public abstract class Matrix {
             return this.strassenMultThisWith(matrix);
         case WINOGRAD:
             return this.winogradMultThisWith(matrix);
+        case PARALLEL_STRASSEN_WINOGRAD_HYBRID:
+            return this.prlStrassenWinogradMultThisWith(matrix);
+        case AUTO:
+            return MultCostModel.multiply(this, matrix);
         default:
             throw new IllegalArgumentException();
         }
     }
 
+    /**
+     * Returns matrix * this, if the storage type of this right factor decides
+     * how the product is calculated, e.g. to keep its structure, or null, so
+     * the left factor multiplies by multType. Storage types overriding this
+     * method should also override {@link #isMultipliedFromLeft()}.
+     */
+    protected Matrix multFromLeft(Matrix matrix, MatrixMultType multType) {
+        return null;
+    }
+
+    /**
+     * Is true, if {@link #multFromLeft(Matrix, MatrixMultType)} calculates the
+     * products with this right factor, so the left factor must not use its own
+     * kernels.
+     */
+    protected boolean isMultipliedFromLeft() {
+        return false;
+    }
+
+    /**
+     * Calculates this * matrix and applies the epilogue to every row of the
+     * product, see {@link RowEpilogue}. Storage types apply it within the
+     * naive multiplication, while the rows are written; the other
+     * multiplication types apply it in one pass afterwards.
+     * 
+     * @param epilogue
+     *            may be null
+     */
+    public Matrix multWith(Matrix matrix, MatrixMultType multType,
+            RowEpilogue epilogue) {
+        Matrix result = multWith(matrix, multType);
+        if (epilogue != null) {
+            result.applyRowEpilogue(epilogue);
+        }
+
+        return result;
+    }
+
     protected abstract Matrix strassenMultThisWith(Matrix matrix);
 
     protected void strassenMultThisWithInto(Matrix matrix, Matrix result,
             boolean writeByRow) {
+        reserveStrassenWorkspace(matrix, result);
         strassenMultThisWithInto(matrix, result, writeByRow,
                 STRASSEN_MATRIX_SIZE_LIMIT);
     }
 
+    /**
+     * Allocates the temporary matrices of all recursion levels in the
+     * workspace of the current thread, unless they are left from an earlier
+     * multiplication of the same size. Every level needs seven products and
+     * two sums, which are released before the next level of the same size
+     * starts.
+     */
+    private void reserveStrassenWorkspace(Matrix matrix, Matrix result) {
+        reserveStrassenWorkspace(matrix, result, 1);
+    }
+
+    private void reserveStrassenWorkspace(Matrix matrix, Matrix result,
+            int sumsPerFactor) {
+        Workspace workspace = Workspace.get();
+        int rows = this.getRows();
+        int inner = this.getCols();
+        int cols = matrix.getCols();
+        while (!isStrassenBaseCase(rows, inner, cols)) {
+            rows /= 2;
+            inner /= 2;
+            cols /= 2;
+            workspace.reserve(result, rows, cols, 7);
+            workspace.reserve(this, rows, inner, sumsPerFactor);
+            workspace.reserve(matrix, inner, cols, sumsPerFactor);
+        }
+    }
+
+    private static boolean isStrassenBaseCase(int rows, int inner, int cols) {
+        return rows <= STRASSEN_MATRIX_SIZE_LIMIT
+                || inner <= STRASSEN_MATRIX_SIZE_LIMIT
+                || cols <= STRASSEN_MATRIX_SIZE_LIMIT;
+    }
+
+    /**
+     * Calculates this * matrix into the empty matrix result. Odd dimensions
+     * are handled by dynamic peeling: the Strassen algorithm is applied to the
+     * largest part of even dimensions, the last row, the last column and the
+     * last inner index are added by a vector-matrix product, a matrix-vector
+     * product and a rank-1 update. Therefore no padding is needed and
+     * rectangular matrices are supported.
+     */
     private void strassenMultThisWithInto(Matrix matrix, Matrix result,
             boolean writeByRow, final int level) {
-        // calculate size for strassen algorithm
-        int size = getStrassenCalcSize(matrix);
+        int rows = this.getRows();
+        int inner = this.getCols();
+        int cols = matrix.getCols();
 
-        if (size < 1) {
+        if (rows < 1 || inner < 1 || cols < 1) {
             throw new IllegalStateException();
-        } else if (size == 1) {
+        } else if (rows == 1 && inner == 1 && cols == 1) {
             result.put(this.get(0, 0) * matrix.get(0, 0), 0, 0);
-        } else if (size <= STRASSEN_MATRIX_SIZE_LIMIT) {
+        } else if (isStrassenBaseCase(rows, inner, cols)) {
             multThisWithInto(matrix, result, writeByRow);
-        } else if (size == 2) {
+        } else if (rows == 2 && inner == 2 && cols == 2) {
             strassenMultForTwoTimesTwo(matrix, result);
+        } else if (isSparseKernelCase(matrix)) {
+            // the parallel levels use the parallel kernel
+            multInto(matrix, result, level < STRASSEN_PARALLEL_LEVEL_LIMIT
+                    ? MatrixMultType.PARALLEL_NAIVE : MatrixMultType.NAIVE);
         } else {
-            int outerHalfSize = size / 2;
-            int innerHalfSize = outerHalfSize - 1;
-
-            Matrix A11 = this.getPart(0, 0, innerHalfSize, innerHalfSize);
-            Matrix A21 = this
-                    .getPart(outerHalfSize, 0, size - 1, innerHalfSize);
-            Matrix A12 = this
-                    .getPart(0, outerHalfSize, innerHalfSize, size - 1);
-            Matrix A22 = this.getPart(outerHalfSize, outerHalfSize, size - 1,
-                    size - 1);
-
-            Matrix B11 = matrix.getPart(0, 0, innerHalfSize, innerHalfSize);
-            Matrix B21 = matrix.getPart(outerHalfSize, 0, size - 1,
-                    innerHalfSize);
-            Matrix B12 = matrix.getPart(0, outerHalfSize, innerHalfSize,
-                    size - 1);
-            Matrix B22 = matrix.getPart(outerHalfSize, outerHalfSize, size - 1,
-                    size - 1);
-
-            Matrix I = result.getNewInstance(outerHalfSize, outerHalfSize);
-            Matrix II = result.getNewInstance(outerHalfSize, outerHalfSize);
-            Matrix III = result.getNewInstance(outerHalfSize, outerHalfSize);
-            Matrix IV = result.getNewInstance(outerHalfSize, outerHalfSize);
-            Matrix V = result.getNewInstance(outerHalfSize, outerHalfSize);
-            Matrix VI = result.getNewInstance(outerHalfSize, outerHalfSize);
-            Matrix VII = result.getNewInstance(outerHalfSize, outerHalfSize);
+            int halfRows = rows / 2;
+            int halfInner = inner / 2;
+            int halfCols = cols / 2;
+
+            // the parts are only read, so they may share storage
+            Matrix A11 = this.getPartView(0, 0, halfRows - 1, halfInner - 1);
+            Matrix A21 = this.getPartView(halfRows, 0, 2 * halfRows - 1,
+                    halfInner - 1);
+            Matrix A12 = this.getPartView(0, halfInner, halfRows - 1,
+                    2 * halfInner - 1);
+            Matrix A22 = this.getPartView(halfRows, halfInner,
+                    2 * halfRows - 1, 2 * halfInner - 1);
+
+            Matrix B11 = matrix.getPartView(0, 0, halfInner - 1, halfCols - 1);
+            Matrix B21 = matrix.getPartView(halfInner, 0, 2 * halfInner - 1,
+                    halfCols - 1);
+            Matrix B12 = matrix.getPartView(0, halfCols, halfInner - 1,
+                    2 * halfCols - 1);
+            Matrix B22 = matrix.getPartView(halfInner, halfCols,
+                    2 * halfInner - 1, 2 * halfCols - 1);
+
+            if (isStructurallyZero(A11) || isStructurallyZero(A12)
+                    || isStructurallyZero(A21) || isStructurallyZero(A22)
+                    || isStructurallyZero(B11) || isStructurallyZero(B12)
+                    || isStructurallyZero(B21) || isStructurallyZero(B22)) {
+                // at most six of the eight block products are needed
+                blockMultInto(matrix, result, A11, A12, A21, A22, B11, B12,
+                        B21, B22, writeByRow, level);
+                return;
+            }
+
+            Workspace workspace = Workspace.get();
+            Matrix I = workspace.acquire(result, halfRows, halfCols);
+            Matrix II = workspace.acquire(result, halfRows, halfCols);
+            Matrix III = workspace.acquire(result, halfRows, halfCols);
+            Matrix IV = workspace.acquire(result, halfRows, halfCols);
+            Matrix V = workspace.acquire(result, halfRows, halfCols);
+            Matrix VI = workspace.acquire(result, halfRows, halfCols);
+            Matrix VII = workspace.acquire(result, halfRows, halfCols);
 
             RecursiveTask<Double> recTaskForI = null;
             RecursiveTask<Double> recTaskForII = null;
@@ -198,8 +566,8 @@ public abstract class Matrix {
 
                     @Override
                     protected Double compute() {
-                        (A12.cloneSub(A22)).strassenMultThisWithInto(
-                                B21.cloneAdd(B22), I, writeByRow, level + 1);
+                        multSumsInto(A12, A22, false, B21, B22, true, I,
+                                writeByRow, level + 1);
                         return 0.0; // no result needed
                     }
                 };
@@ -210,8 +578,8 @@ public abstract class Matrix {
 
                     @Override
                     protected Double compute() {
-                        (A11.cloneAdd(A22)).strassenMultThisWithInto(
-                                B11.cloneAdd(B22), II, writeByRow, level + 1);
+                        multSumsInto(A11, A22, true, B11, B22, true, II,
+                                writeByRow, level + 1);
                         return 0.0; // no result needed
                     }
                 };
@@ -222,8 +590,8 @@ public abstract class Matrix {
 
                     @Override
                     protected Double compute() {
-                        (A11.cloneSub(A21)).strassenMultThisWithInto(
-                                B11.cloneAdd(B12), III, writeByRow, level + 1);
+                        multSumsInto(A11, A21, false, B11, B12, true, III,
+                                writeByRow, level + 1);
                         return 0.0; // no result needed
                     }
                 };
@@ -234,7 +602,7 @@ public abstract class Matrix {
 
                     @Override
                     protected Double compute() {
-                        (A11.cloneAdd(A12)).strassenMultThisWithInto(B22, IV,
+                        multSumsInto(A11, A12, true, B22, null, true, IV,
                                 writeByRow, level + 1);
                         return 0.0; // no result needed
                     }
@@ -246,7 +614,7 @@ public abstract class Matrix {
 
                     @Override
                     protected Double compute() {
-                        A11.strassenMultThisWithInto(B12.cloneSub(B22), V,
+                        multSumsInto(A11, null, true, B12, B22, false, V,
                                 writeByRow, level + 1);
                         return 0.0; // no result needed
                     }
@@ -258,30 +626,51 @@ public abstract class Matrix {
 
                     @Override
                     protected Double compute() {
-                        A22.strassenMultThisWithInto(B21.cloneSub(B11), VI,
+                        multSumsInto(A22, null, true, B21, B11, false, VI,
                                 writeByRow, level + 1);
                         return 0.0; // no result needed
                     }
                 };
                 recTaskForVI.fork();
+
+                // do the last calculation in this thread
+                multSumsInto(A21, A22, true, B11, null, true, VII, writeByRow,
+                        STRASSEN_PARALLEL_LEVEL_LIMIT);
             } else {
-                (A12.cloneSub(A22)).strassenMultThisWithInto(B21.cloneAdd(B22),
-                        I, writeByRow, level + 1);
-                (A11.cloneAdd(A22)).strassenMultThisWithInto(B11.cloneAdd(B22),
-                        II, writeByRow, level + 1);
-                (A11.cloneSub(A21)).strassenMultThisWithInto(B11.cloneAdd(B12),
-                        III, writeByRow, level + 1);
-                (A11.cloneAdd(A12)).strassenMultThisWithInto(B22, IV,
-                        writeByRow, level + 1);
-                A11.strassenMultThisWithInto(B12.cloneSub(B22), V, writeByRow,
+                // the sums of the parts are written into two buffers, which
+                // are reused for all seven products
+                Matrix leftSum = workspace.acquire(this, halfRows, halfInner);
+                Matrix rightSum = workspace.acquire(matrix, halfInner,
+                        halfCols);
+
+                A12.subInto(A22, leftSum);
+                B21.addInto(B22, rightSum);
+                leftSum.strassenMultThisWithInto(rightSum, I, writeByRow,
                         level + 1);
-                A22.strassenMultThisWithInto(B21.cloneSub(B11), VI, writeByRow,
+                A11.addInto(A22, leftSum);
+                B11.addInto(B22, rightSum);
+                leftSum.strassenMultThisWithInto(rightSum, II, writeByRow,
+                        level + 1);
+                A11.subInto(A21, leftSum);
+                B11.addInto(B12, rightSum);
+                leftSum.strassenMultThisWithInto(rightSum, III, writeByRow,
+                        level + 1);
+                A11.addInto(A12, leftSum);
+                leftSum.strassenMultThisWithInto(B22, IV, writeByRow,
+                        level + 1);
+                B12.subInto(B22, rightSum);
+                A11.strassenMultThisWithInto(rightSum, V, writeByRow,
+                        level + 1);
+                B21.subInto(B11, rightSum);
+                A22.strassenMultThisWithInto(rightSum, VI, writeByRow,
+                        level + 1);
+                A21.addInto(A22, leftSum);
+                leftSum.strassenMultThisWithInto(B11, VII, writeByRow,
                         level + 1);
-            }
 
-            // do the last calculation in this thread
-            (A21.cloneAdd(A22)).strassenMultThisWithInto(B11, VII, writeByRow,
-                    STRASSEN_PARALLEL_LEVEL_LIMIT);
+                workspace.release(leftSum);
+                workspace.release(rightSum);
+            }
 
             if (level < STRASSEN_PARALLEL_LEVEL_LIMIT) {
                 recTaskForVI.join();
@@ -292,29 +681,280 @@ public abstract class Matrix {
                 recTaskForI.join();
             }
 
-            collectSubMatrices(result, I, II, III, IV, V, VI, VII);
+            collectSubMatrices(I, II, III, IV, V, VI, VII);
+            poolWithPeeledParts(matrix, result, I, IV, VI, II, writeByRow);
+
+            workspace.release(I);
+            workspace.release(II);
+            workspace.release(III);
+            workspace.release(IV);
+            workspace.release(V);
+            workspace.release(VI);
+            workspace.release(VII);
+        }
+    }
+
+    /**
+     * Returns true if both factors use sparse storage and are sparse enough
+     * for the sparse multiplication of their storage type.
+     */
+    private boolean isSparseKernelCase(Matrix matrix) {
+        if (this instanceof ArrayMatrix || matrix instanceof ArrayMatrix) {
+            return false;
+        }
+
+        return this.nnz() <= SPARSE_KERNEL_DENSITY * getRows() * getCols()
+                && matrix.nnz() <= SPARSE_KERNEL_DENSITY * matrix.getRows()
+                        * matrix.getCols();
+    }
+
+    /**
+     * Returns true if the matrix has no non-zero entry. Stops at the first
+     * non-zero entry, so dense matrices are checked at once.
+     */
+    private static boolean isStructurallyZero(Matrix mat) {
+        for (int row = 0; row < mat.getRows(); ++row) {
+            if (mat.getRowCursor(row).next()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Calculates this * matrix into result by the classical block formula
+     * C_ij = A_i1 * B_1j + A_i2 * B_2j, where the block products with a zero
+     * factor are skipped. For block-structured matrices this needs fewer than
+     * the seven products of the Strassen algorithm, e.g. two for block
+     * diagonal matrices. Like the seven products, the parts of the result are
+     * calculated in parallel on the parallel levels.
+     */
+    private void blockMultInto(Matrix matrix, Matrix result, Matrix A11,
+            Matrix A12, Matrix A21, Matrix A22, Matrix B11, Matrix B12,
+            Matrix B21, Matrix B22, boolean writeByRow, int level) {
+        Workspace workspace = Workspace.get();
+        Matrix C11 = workspace.acquire(result, A11.getRows(), B11.getCols());
+        Matrix C12 = workspace.acquire(result, A11.getRows(), B11.getCols());
+        Matrix C21 = workspace.acquire(result, A11.getRows(), B11.getCols());
+        Matrix C22 = workspace.acquire(result, A11.getRows(), B11.getCols());
+
+        if (level < STRASSEN_PARALLEL_LEVEL_LIMIT) {
+            RecursiveTask<Double> recTaskForC11 = forkBlockProducts(A11, B11,
+                    A12, B21, C11, writeByRow, level);
+            RecursiveTask<Double> recTaskForC12 = forkBlockProducts(A11, B12,
+                    A12, B22, C12, writeByRow, level);
+            RecursiveTask<Double> recTaskForC21 = forkBlockProducts(A21, B11,
+                    A22, B21, C21, writeByRow, level);
+
+            // do the last part in this thread
+            addBlockProductsInto(A21, B12, A22, B22, C22, writeByRow,
+                    STRASSEN_PARALLEL_LEVEL_LIMIT);
+
+            recTaskForC21.join();
+            recTaskForC12.join();
+            recTaskForC11.join();
+        } else {
+            addBlockProductsInto(A11, B11, A12, B21, C11, writeByRow, level);
+            addBlockProductsInto(A11, B12, A12, B22, C12, writeByRow, level);
+            addBlockProductsInto(A21, B11, A22, B21, C21, writeByRow, level);
+            addBlockProductsInto(A21, B12, A22, B22, C22, writeByRow, level);
+        }
+
+        poolWithPeeledParts(matrix, result, C11, C12, C21, C22, writeByRow);
+
+        workspace.release(C11);
+        workspace.release(C12);
+        workspace.release(C21);
+        workspace.release(C22);
+    }
+
+    /**
+     * Forks a task, which calls
+     * {@link #addBlockProductsInto(Matrix, Matrix, Matrix, Matrix, Matrix, boolean, int)}
+     * . Its product buffer is taken from the workspace of the thread, which
+     * executes the task.
+     */
+    private static RecursiveTask<Double> forkBlockProducts(final Matrix left1,
+            final Matrix right1, final Matrix left2, final Matrix right2,
+            final Matrix target, final boolean writeByRow, final int level) {
+        RecursiveTask<Double> recTask = new RecursiveTask<Double>() {
+            private static final long serialVersionUID = 5417305941733108823L;
+
+            @Override
+            protected Double compute() {
+                addBlockProductsInto(left1, right1, left2, right2, target,
+                        writeByRow, level);
+                return 0.0; // no result needed
+            }
+        };
+        recTask.fork();
+
+        return recTask;
+    }
+
+    /**
+     * Calculates left1 * right1 + left2 * right2 into the empty matrix target,
+     * skipping products with a zero factor.
+     */
+    private static void addBlockProductsInto(Matrix left1, Matrix right1,
+            Matrix left2, Matrix right2, Matrix target, boolean writeByRow,
+            int level) {
+        boolean first = !isStructurallyZero(left1)
+                && !isStructurallyZero(right1);
+        boolean second = !isStructurallyZero(left2)
+                && !isStructurallyZero(right2);
+
+        if (first) {
+            left1.strassenMultThisWithInto(right1, target, writeByRow,
+                    level + 1);
+        }
+        if (second && !first) {
+            left2.strassenMultThisWithInto(right2, target, writeByRow,
+                    level + 1);
+        } else if (second) {
+            Workspace workspace = Workspace.get();
+            Matrix product = workspace.acquire(target, target.getRows(),
+                    target.getCols());
+            left2.strassenMultThisWithInto(right2, product, writeByRow,
+                    level + 1);
+            target.add(product);
+            workspace.release(product);
+        }
+    }
+
+    /**
+     * Calculates (left1 +/- left2) * (right1 +/- right2) into product, where a
+     * missing second summand is null. Used by forked tasks: the sums are stored
+     * in the workspace of the thread which executes the task.
+     */
+    private static void multSumsInto(Matrix left1, Matrix left2,
+            boolean addLeft, Matrix right1, Matrix right2, boolean addRight,
+            Matrix product, boolean writeByRow, int level) {
+        Workspace workspace = Workspace.get();
+        Matrix left = left1;
+        Matrix right = right1;
+
+        if (left2 != null) {
+            left = workspace.acquire(left1, left1.getRows(), left1.getCols());
+            if (addLeft) {
+                left1.addInto(left2, left);
+            } else {
+                left1.subInto(left2, left);
+            }
+        }
+        if (right2 != null) {
+            right = workspace.acquire(right1, right1.getRows(),
+                    right1.getCols());
+            if (addRight) {
+                right1.addInto(right2, right);
+            } else {
+                right1.subInto(right2, right);
+            }
         }
+
+        left.strassenMultThisWithInto(right, product, writeByRow, level);
+
+        if (left2 != null) {
+            workspace.release(left);
+        }
+        if (right2 != null) {
+            workspace.release(right);
+        }
+    }
+
+    /**
+     * Writes the parts C11, C12, C21 and C22 of this * matrix, which have
+     * even dimensions, into result and adds the peeled last inner index, last
+     * column and last row.
+     */
+    private void poolWithPeeledParts(Matrix matrix, Matrix result,
+            Matrix C11, Matrix C12, Matrix C21, Matrix C22, boolean writeByRow) {
+        int rows = this.getRows();
+        int inner = this.getCols();
+        int cols = matrix.getCols();
+        Workspace workspace = Workspace.get();
+
+        if (inner % 2 == 1) {
+            addPeeledInnerIndex(matrix, C11, C12, C21, C22);
+        }
+        result.pool(C11, C12, C21, C22);
+
+        if (cols % 2 == 1) {
+            // last column: matrix-vector product
+            Matrix column = workspace.acquire(result, rows, 1);
+            multThisWithInto(
+                    matrix.getPartView(0, cols - 1, inner - 1, cols - 1),
+                    column, writeByRow);
+            result.putPart(column, 0, cols - 1);
+            workspace.release(column);
+        }
+        if (rows % 2 == 1) {
+            // last row without its last entry: vector-matrix product
+            Matrix row = workspace.acquire(result, 1, cols - cols % 2);
+            this.getPartView(rows - 1, 0, rows - 1, inner - 1)
+                    .multThisWithInto(
+                            matrix.getPartView(0, 0, inner - 1,
+                                    cols - cols % 2 - 1), row, writeByRow);
+            result.putPart(row, rows - 1, 0);
+            workspace.release(row);
+        }
+    }
+
+    /**
+     * Adds the rank-1 update of the last inner index to the parts of the
+     * result, which omit it.
+     */
+    private void addPeeledInnerIndex(Matrix matrix, Matrix C11, Matrix C12,
+            Matrix C21, Matrix C22) {
+        int halfRows = C11.getRows();
+        int halfCols = C11.getCols();
+        int lastInner = this.getCols() - 1;
+        Matrix upperColumn = this.getPartView(0, lastInner, halfRows - 1,
+                lastInner);
+        Matrix lowerColumn = this.getPartView(halfRows, lastInner,
+                2 * halfRows - 1, lastInner);
+        Matrix leftRow = matrix.getPartView(lastInner, 0, lastInner,
+                halfCols - 1);
+        Matrix rightRow = matrix.getPartView(lastInner, halfCols, lastInner,
+                2 * halfCols - 1);
+
+        addProductTo(upperColumn, leftRow, C11);
+        addProductTo(upperColumn, rightRow, C12);
+        addProductTo(lowerColumn, leftRow, C21);
+        addProductTo(lowerColumn, rightRow, C22);
+    }
+
+    private static void addProductTo(Matrix left, Matrix right, Matrix target) {
+        Workspace workspace = Workspace.get();
+        Matrix product = workspace.acquire(target, target.getRows(),
+                target.getCols());
+        left.multThisWithInto(right, product, true);
+        target.add(product);
+        workspace.release(product);
     }
 
-    private void collectSubMatrices(Matrix result, Matrix I, Matrix II,
-            Matrix III, Matrix IV, Matrix V, Matrix VI, Matrix VII) {
-        Matrix C11 = I;
+    /**
+     * Combines the seven products in place: I, IV, VI and II become the parts
+     * C11, C12, C21 and C22 of the result.
+     */
+    private static void collectSubMatrices(Matrix I, Matrix II, Matrix III,
+            Matrix IV, Matrix V, Matrix VI, Matrix VII) {
+        // C11
         I.add(II);
         I.sub(IV);
         I.add(VI);
 
-        Matrix C12 = IV;
+        // C12
         IV.add(V);
 
-        Matrix C21 = VI;
+        // C21
         VI.add(VII);
 
-        Matrix C22 = II;
+        // C22
         II.sub(III);
         II.add(V);
         II.sub(VII);
-
-        result.pool(C11, C12, C21, C22);
     }
 
     private void strassenMultForTwoTimesTwo(Matrix matrix, Matrix result) {
@@ -343,6 +983,11 @@ public abstract class Matrix {
         result.put(ii - iii + v - vii, 1, 1);
     }
 
+    /**
+     * Writes the four parts into the upper left part of this matrix, which has
+     * twice the rows and columns of a part. The remaining rows and columns may
+     * be changed: they have to be written afterwards.
+     */
     protected abstract void pool(Matrix upLeft, Matrix upRight,
             Matrix downLeft, Matrix downRight);
 
@@ -351,34 +996,188 @@ public abstract class Matrix {
         return upLeft.hasSameDimensions(upRight)
                 && upRight.hasSameDimensions(downLeft)
                 && downLeft.hasSameDimensions(downRight)
-                && upLeft.getRows() == upLeft.getCols();
+                && 2 * upLeft.getRows() <= this.getRows()
+                && 2 * upLeft.getCols() <= this.getCols();
     }
 
-    private int getStrassenCalcSize(Matrix matrix) {
-        int max = Math.max(
-                this.getCols(),
-                Math.max(this.getRows(),
-                        Math.max(matrix.getCols(), matrix.getRows())));
-        int newSize = 1;
-        while (newSize < max) {
-            newSize *= 2;
+    /**
+     * Overwrites the part of this matrix, which starts at (row, col) and has
+     * the dimensions of part. Storage types should override this method: the
+     * default implementation writes every entry of the part.
+     */
+    protected void putPart(Matrix part, int row, int col) {
+        if (!isValidEntryLocation(row, col)
+                || !isValidEntryLocation(row + part.getRows() - 1,
+                        col + part.getCols() - 1)) {
+            throw new IllegalArgumentException();
+        }
+
+        for (int r = 0; r < part.getRows(); ++r) {
+            for (int c = 0; c < part.getCols(); ++c) {
+                this.put(part.get(r, c), row + r, col + c);
+            }
         }
-        return newSize;
     }
 
     protected abstract Matrix prlStrassenMultThisWith(Matrix matrix);
 
     protected void prlStrassenMultThisWithInto(Matrix matrix, Matrix result,
             boolean writeByRow) {
+        // forked tasks reserve their sums in the workspaces of their threads
+        reserveStrassenWorkspace(matrix, result);
         strassenMultThisWithInto(matrix, result, writeByRow, 0);
     }
 
+    protected abstract Matrix prlStrassenWinogradMultThisWith(Matrix matrix);
+
+    protected void prlStrassenWinogradMultThisWithInto(Matrix matrix,
+            Matrix result, boolean writeByRow) {
+        reserveStrassenWorkspace(matrix, result, 4);
+        strassenWinogradMultThisWithInto(matrix, result, writeByRow);
+    }
+
+    /**
+     * Calculates this * matrix into the empty matrix result by the Winograd
+     * form of the Strassen algorithm, which needs seven multiplications and
+     * 15 additions of parts: eight for the sums S1, ..., S4 and T1, ..., T4
+     * and seven for the parts of the result. Odd dimensions are peeled as in
+     * {@link #strassenMultThisWithInto(Matrix, Matrix, boolean, int)}.
+     * 
+     * The seven products are forked as long as they are large enough and the
+     * fork/join pool has idle workers, i.e. the current worker has few queued
+     * tasks. So the first levels of the recursion are distributed over all
+     * workers, independent of a fixed level.
+     */
+    private void strassenWinogradMultThisWithInto(Matrix matrix,
+            Matrix result, boolean writeByRow) {
+        int rows = this.getRows();
+        int inner = this.getCols();
+        int cols = matrix.getCols();
+
+        if (rows < 1 || inner < 1 || cols < 1) {
+            throw new IllegalStateException();
+        } else if (isStrassenBaseCase(rows, inner, cols)) {
+            multThisWithInto(matrix, result, writeByRow);
+            return;
+        }
+
+        int halfRows = rows / 2;
+        int halfInner = inner / 2;
+        int halfCols = cols / 2;
+
+        // the parts are only read, so they may share storage
+        Matrix A11 = this.getPartView(0, 0, halfRows - 1, halfInner - 1);
+        Matrix A21 = this.getPartView(halfRows, 0, 2 * halfRows - 1,
+                halfInner - 1);
+        Matrix A12 = this.getPartView(0, halfInner, halfRows - 1,
+                2 * halfInner - 1);
+        Matrix A22 = this.getPartView(halfRows, halfInner, 2 * halfRows - 1,
+                2 * halfInner - 1);
+
+        Matrix B11 = matrix.getPartView(0, 0, halfInner - 1, halfCols - 1);
+        Matrix B21 = matrix.getPartView(halfInner, 0, 2 * halfInner - 1,
+                halfCols - 1);
+        Matrix B12 = matrix.getPartView(0, halfCols, halfInner - 1,
+                2 * halfCols - 1);
+        Matrix B22 = matrix.getPartView(halfInner, halfCols,
+                2 * halfInner - 1, 2 * halfCols - 1);
+
+        Workspace workspace = Workspace.get();
+        Matrix S1 = workspace.acquire(this, halfRows, halfInner);
+        Matrix S2 = workspace.acquire(this, halfRows, halfInner);
+        Matrix S3 = workspace.acquire(this, halfRows, halfInner);
+        Matrix S4 = workspace.acquire(this, halfRows, halfInner);
+        Matrix T1 = workspace.acquire(matrix, halfInner, halfCols);
+        Matrix T2 = workspace.acquire(matrix, halfInner, halfCols);
+        Matrix T3 = workspace.acquire(matrix, halfInner, halfCols);
+        Matrix T4 = workspace.acquire(matrix, halfInner, halfCols);
+
+        A21.addInto(A22, S1);
+        S1.subInto(A11, S2);
+        A11.subInto(A21, S3);
+        A12.subInto(S2, S4);
+        B12.subInto(B11, T1);
+        B22.subInto(T1, T2);
+        B22.subInto(B12, T3);
+        T2.subInto(B21, T4);
+
+        Matrix[] P = new Matrix[7];
+        for (int i = 0; i < P.length; ++i) {
+            P[i] = workspace.acquire(result, halfRows, halfCols);
+        }
+
+        ProductTask[] tasks = new ProductTask[] {
+                new ProductTask(A11, B11, P[0], writeByRow),
+                new ProductTask(A12, B21, P[1], writeByRow),
+                new ProductTask(S4, B22, P[2], writeByRow),
+                new ProductTask(A22, T4, P[3], writeByRow),
+                new ProductTask(S1, T1, P[4], writeByRow),
+                new ProductTask(S2, T2, P[5], writeByRow),
+                new ProductTask(S3, T3, P[6], writeByRow) };
+
+        long productWork = (long) halfRows * halfInner * halfCols;
+        if (productWork >= STRASSEN_WINOGRAD_MIN_FORK_WORK
+                && ForkJoinTask.getSurplusQueuedTaskCount() <= STRASSEN_WINOGRAD_MAX_SURPLUS_TASKS) {
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            for (ProductTask task : tasks) {
+                task.compute();
+            }
+        }
+
+        // U2 = P1 + P6, C11 = P1 + P2, U3 = U2 + P7, U4 = U2 + P5,
+        // C12 = U4 + P3, C22 = U3 + P5, C21 = U3 - P4
+        P[5].add(P[0]);
+        P[0].add(P[1]);
+        P[6].add(P[5]);
+        P[5].add(P[4]);
+        P[2].add(P[5]);
+        P[4].add(P[6]);
+        P[6].sub(P[3]);
+
+        poolWithPeeledParts(matrix, result, P[0], P[2], P[6], P[4],
+                writeByRow);
+
+        for (Matrix product : P) {
+            workspace.release(product);
+        }
+        workspace.release(S1);
+        workspace.release(S2);
+        workspace.release(S3);
+        workspace.release(S4);
+        workspace.release(T1);
+        workspace.release(T2);
+        workspace.release(T3);
+        workspace.release(T4);
+    }
+
+    private static class ProductTask extends RecursiveTask<Double> {
+        private static final long serialVersionUID = -2315408318867716472L;
+        private Matrix left, right, product;
+        private boolean writeByRow;
+
+        private ProductTask(Matrix left, Matrix right, Matrix product,
+                boolean writeByRow) {
+            this.left = left;
+            this.right = right;
+            this.product = product;
+            this.writeByRow = writeByRow;
+        }
+
+        @Override
+        protected Double compute() {
+            left.strassenWinogradMultThisWithInto(right, product, writeByRow);
+            return 0.0; // no result needed
+        }
+    }
+
     protected abstract Matrix winogradMultThisWith(Matrix matrix);
 
     protected void winogradMultThisWithInto(Matrix matrix, Matrix result,
             boolean writeByRow) {
-        double[] A = new double[this.getRows()];
-        double[] B = new double[matrix.getCols()];
+        Workspace workspace = Workspace.get();
+        double[] A = workspace.acquireArray(this.getRows());
+        double[] B = workspace.acquireArray(matrix.getCols());
 
         for (int leftRow = 0; leftRow < this.getRows(); ++leftRow) {
             A[leftRow] = 0;
@@ -408,6 +1207,9 @@ public abstract class Matrix {
                 }
             }
         }
+
+        workspace.releaseArray(A);
+        workspace.releaseArray(B);
     }
 
     private void writeEntryWithTo(Matrix matrix, Matrix result, double[] A,
@@ -429,21 +1231,33 @@ public abstract class Matrix {
             return false;
         }
 
-        for (int c = 0; c < this.getCols(); ++c) {
-            for (int r = 0; r < this.getRows(); ++r) {
-                if (this.get(r, c) != mat.get(r, c)) {
+        // every entry which is non-zero in one of the matrices is compared
+        for (int r = 0; r < this.getRows(); ++r) {
+            if (!hasEqualNonZerosInRow(this, mat, r)
+                    || !hasEqualNonZerosInRow(mat, this, r)) {
+                return false;
+            }
+        }
 
-                    if (SHOW_MATRICES_WHEN_NOT_EQUAL) {
-                        // System.err.println("\n" + this);
-                        System.err.println("\nERROR AT ENTRY (" + r + ", " + c
-                                + "): " + this.get(r, c) + " VS "
-                                + mat.get(r, c) + ":\t"
-                                + (this.get(r, c) - mat.get(r, c)) + "\n");
-                        // System.err.println(mat);
-                    }
+        return true;
+    }
 
-                    return false;
+    private static boolean hasEqualNonZerosInRow(Matrix mat1, Matrix mat2,
+            int r) {
+        RowCursor cursor = mat1.getRowCursor(r);
+        while (cursor.next()) {
+            int c = cursor.getCol();
+            if (cursor.getValue() != mat2.get(r, c)) {
+
+                if (SHOW_MATRICES_WHEN_NOT_EQUAL) {
+                    // System.err.println("\n" + mat1);
+                    System.err.println("\nERROR AT ENTRY (" + r + ", " + c
+                            + "): " + mat1.get(r, c) + " VS " + mat2.get(r, c)
+                            + ":\t" + (mat1.get(r, c) - mat2.get(r, c)) + "\n");
+                    // System.err.println(mat2);
                 }
+
+                return false;
             }
         }
 
@@ -453,11 +1267,7 @@ public abstract class Matrix {
     protected void multThisWithInto(Matrix matrix, Matrix result,
             boolean writeByRow) {
         if (writeByRow) {
-            for (int thisRow = 0; thisRow < this.getRows(); ++thisRow) {
-                for (int thatCol = 0; thatCol < matrix.getCols(); ++thatCol) {
-                    writeEntryFromInto(matrix, result, thisRow, thatCol);
-                }
-            }
+            multRowsInto(matrix, result, null);
         } else {
             for (int thatCol = 0; thatCol < matrix.getCols(); ++thatCol) {
                 for (int thisRow = 0; thisRow < this.getRows(); ++thisRow) {
@@ -467,6 +1277,65 @@ public abstract class Matrix {
         }
     }
 
+    /**
+     * Writes this * matrix into result row by row and applies the epilogue,
+     * which may be null, to every row before it is written.
+     */
+    protected void multRowsInto(Matrix matrix, Matrix result,
+            RowEpilogue epilogue) {
+        double[] accumulator = new double[matrix.getCols()];
+        boolean[] used = new boolean[matrix.getCols()];
+        int[] usedCols = new int[matrix.getCols()];
+        RowEpilogue.Chunk chunk = epilogue == null ? null : epilogue
+                .startChunk();
+        for (int thisRow = 0; thisRow < this.getRows(); ++thisRow) {
+            writeRowFromInto(matrix, result, thisRow, accumulator, used,
+                    usedCols, chunk);
+        }
+        if (chunk != null) {
+            chunk.finish();
+        }
+    }
+
+    /**
+     * Writes a complete row of this * matrix into result, which has to be
+     * zero in this row. Only the non-zero entries of both factors are visited:
+     * the row is accumulated as a sum of scaled rows of matrix. The epilogue
+     * chunk may be null.
+     */
+    private void writeRowFromInto(Matrix matrix, Matrix result, int thisRow,
+            double[] accumulator, boolean[] used, int[] usedCols,
+            RowEpilogue.Chunk chunk) {
+        int usedColCount = 0;
+        RowCursor thisCursor = this.getRowCursor(thisRow);
+        while (thisCursor.next()) {
+            double factor = thisCursor.getValue();
+            RowCursor thatCursor = matrix.getRowCursor(thisCursor.getCol());
+            while (thatCursor.next()) {
+                int col = thatCursor.getCol();
+                if (!used[col]) {
+                    used[col] = true;
+                    accumulator[col] = 0;
+                    usedCols[usedColCount++] = col;
+                }
+                accumulator[col] += factor * thatCursor.getValue();
+            }
+        }
+
+        // sorted columns are cheapest for CRS results, the epilogue needs
+        // them for the ties of top k
+        Arrays.sort(usedCols, 0, usedColCount);
+        if (chunk != null) {
+            chunk.apply(accumulator, usedCols, usedColCount);
+        }
+
+        for (int i = 0; i < usedColCount; ++i) {
+            int col = usedCols[i];
+            result.put(accumulator[col], thisRow, col);
+            used[col] = false;
+        }
+    }
+
     private void writeEntryFromInto(Matrix matrix, Matrix result, int thisRow,
             int thatCol) {
         double entry = 0;
@@ -541,12 +1410,14 @@ public abstract class Matrix {
                     }
                 }
             } else {
+                double[] accumulator = new double[right.getCols()];
+                boolean[] used = new boolean[right.getCols()];
+                int[] usedCols = new int[right.getCols()];
                 // computes every (id + i*threads) row for i = 0, 1*threads,
                 // 2*threads...
                 for (int leftRow = id; leftRow < left.getRows(); leftRow += threads) {
-                    for (int rightCol = 0; rightCol < right.getCols(); rightCol++) {
-                        writeEntryAt(leftRow, rightCol);
-                    }
+                    left.writeRowFromInto(right, target, leftRow, accumulator,
+                            used, usedCols, null);
                 }
             }
 
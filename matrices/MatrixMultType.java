@@ -10,6 +10,10 @@ public enum MatrixMultType {
 
     STRASSEN_NAIVE_HYBRID,
 
-    PARALLEL_STRASSEN_NAIVE_HYBRID
+    PARALLEL_STRASSEN_NAIVE_HYBRID,
+
+    PARALLEL_STRASSEN_WINOGRAD_HYBRID,
+
+    AUTO
 
 }
\ No newline at end of file
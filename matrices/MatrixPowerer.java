@@ -1,14 +1,52 @@
 package matrices;
 
-import java.util.Collections;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.RecursiveTask;
 
-import tools.MathHelper;
+import tools.ExponentiationPlan;
 
 public class MatrixPowerer {
 
     public static final double NO_STABILIZE = 0;
 
+    // disables the conversion to LowRankSparseMatrix
+    public static final double NO_LOW_RANK = -1;
+
+    // print every change of the storage type
+    private static final boolean SHOW_FORMAT_SWITCHES = true;
+
+    /*
+     * Sparse matrices with at least this ratio of non-zero entries are
+     * converted to ArrayMatrix. Measured for the squaring of 1024x1024
+     * matrices, see calibrateDenseThreshold().
+     */
+    private static volatile double denseThreshold = 0.15;
+
+    /*
+     * Dense matrices are converted back to CrsMatrix below this share of the
+     * dense threshold. The gap prevents switching back and forth.
+     */
+    private static final double SPARSE_HYSTERESIS = 0.5;
+
+    /*
+     * Dense square matrices are converted to LowRankSparseMatrix, if they
+     * differ from a matrix with equal rows in at most this share of their
+     * entries by more than the low rank tolerance.
+     */
+    private static final double LOW_RANK_RESIDUAL_DENSITY = 0.05;
+
+    private static volatile double lowRankTolerance = 1e-14;
+
+    private static final int CALIBRATION_SIZE = 256;
+    private static final int CALIBRATION_RUNS = 3;
+    private static final long CALIBRATION_SEED = 42;
+    private static final double[] CALIBRATION_DENSITIES = { 0.02, 0.05, 0.1,
+            0.15, 0.2, 0.3, 0.5, 1 };
+
     public static void main(String[] args) {
         double[][] arr = { { 9, 1 }, { 1, 99 } };
 
@@ -33,34 +71,36 @@ public class MatrixPowerer {
     public static Matrix stdPower(Matrix mat, MatrixMultType matMultType,
             int exponent, double stabilizeRowsTo,
             boolean setNegativeEntriesToZero) {
+        return stdPower(mat, matMultType, exponent, RowEpilogue.createFor(
+                stabilizeRowsTo, setNegativeEntriesToZero));
+    }
+
+    /**
+     * Calculates mat^exponent by exponent - 1 multiplications. The epilogue,
+     * which may be null, is applied to mat itself and to every product, and
+     * collects the statistics of the whole powering, like the dropped mass.
+     */
+    public static Matrix stdPower(Matrix mat, MatrixMultType matMultType,
+            int exponent, RowEpilogue epilogue) {
         if (exponent == 0) {
             Matrix result = mat.getOne();
-            if (setNegativeEntriesToZero)
-                result.setNegativeEntriesToZero();
-            if (stabilizeRowsTo != NO_STABILIZE)
-                result.stabilizeRowsTo(stabilizeRowsTo);
+            if (epilogue != null)
+                result.applyRowEpilogue(epilogue);
 
             return result;
         }
 
         Matrix argumentMatrix = mat;
-        if (setNegativeEntriesToZero)
-            argumentMatrix.setNegativeEntriesToZero();
-        if (stabilizeRowsTo != NO_STABILIZE)
-            argumentMatrix.stabilizeRowsTo(stabilizeRowsTo);
+        if (epilogue != null)
+            argumentMatrix.applyRowEpilogue(epilogue);
+
+        argumentMatrix = adaptFormat(argumentMatrix, matMultType, "ARGUMENT");
 
         Matrix qn = argumentMatrix.clone();
-        if (setNegativeEntriesToZero)
-            qn.setNegativeEntriesToZero();
-        if (stabilizeRowsTo != NO_STABILIZE)
-            qn.stabilizeRowsTo(stabilizeRowsTo);
 
         for (int i = 1; i < exponent; ++i) {
-            qn = qn.multWith(argumentMatrix, matMultType);
-            if (setNegativeEntriesToZero)
-                qn.setNegativeEntriesToZero();
-            if (stabilizeRowsTo != NO_STABILIZE)
-                qn.stabilizeRowsTo(stabilizeRowsTo);
+            qn = multiply(qn, argumentMatrix, matMultType, epilogue,
+                    "POWER " + (i + 1));
         }
 
         return qn;
@@ -69,54 +109,879 @@ public class MatrixPowerer {
     public static Matrix logPower(Matrix mat, MatrixMultType matMultType,
             int exponent, double stabilizeRowsTo,
             boolean setNegativeEntriesToZero) {
+        return logPower(mat, matMultType, exponent, RowEpilogue.createFor(
+                stabilizeRowsTo, setNegativeEntriesToZero));
+    }
+
+    /**
+     * Calculates mat^exponent by repeated squaring. The epilogue, which may
+     * be null, is applied to every product and collects the statistics of
+     * the whole powering: with a {@link DropTolerance}, the powers of sparse
+     * matrices stay sparse and the epilogue reports the dropped mass.
+     */
+    public static Matrix logPower(Matrix mat, MatrixMultType matMultType,
+            int exponent, RowEpilogue epilogue) {
         if (exponent == 0) {
             Matrix result = mat.getOne();
-            if (setNegativeEntriesToZero) {
-                result.setNegativeEntriesToZero();
-            }
-            if (stabilizeRowsTo != NO_STABILIZE) {
-                result.stabilizeRowsTo(stabilizeRowsTo);
+            if (epilogue != null) {
+                result.applyRowEpilogue(epilogue);
             }
             return result;
         }
 
-        List<Integer> twoPowers = MathHelper.twoPowersNeededFor(exponent);
-
         Matrix qn;
-        if (twoPowers.contains(0)) {
+        if (hasTwoPower(exponent, 0)) {
             qn = mat.clone();
         } else {
             qn = mat.getOne();
         }
-        if (setNegativeEntriesToZero)
-            qn.setNegativeEntriesToZero();
-        if (stabilizeRowsTo != NO_STABILIZE)
-            qn.stabilizeRowsTo(stabilizeRowsTo);
+        qn = finishProduct(qn, matMultType, epilogue, "RESULT");
 
-        int maxPower = Collections.max(twoPowers);
-        Matrix temp = mat.clone();
-        if (setNegativeEntriesToZero)
-            temp.setNegativeEntriesToZero();
-        if (stabilizeRowsTo != NO_STABILIZE)
-            temp.stabilizeRowsTo(stabilizeRowsTo);
+        int maxPower = getMaxTwoPower(exponent);
+        Matrix temp = finishProduct(mat.clone(), matMultType, epilogue,
+                "SQUARE 0");
 
         for (int i = 1; i <= maxPower; ++i) {
-            temp = temp.multWith(temp, matMultType);
+            temp = multiply(temp, temp, matMultType, epilogue, "SQUARE " + i);
+
+            if (hasTwoPower(exponent, i)) {
+                qn = multiply(qn, temp, matMultType, epilogue, "RESULT");
+            }
+        }
+
+        return qn;
+    }
+
+    /**
+     * Calculates the same power as
+     * {@link #logPower(Matrix, MatrixMultType, int, double, boolean)}, but the
+     * multiplication of the result with the current square runs in a forked
+     * task, while the next square is calculated: both only read the current
+     * square. If the storage type has a kernel writing into a matrix of its
+     * own type, see {@link Matrix#hasMultIntoKernel(Matrix, MatrixMultType)},
+     * the products are written into one spare buffer per chain, which is
+     * swapped with the matrix it replaces. Otherwise every product is
+     * allocated by {@link Matrix#multWith(Matrix, MatrixMultType)}, which keeps
+     * the storage type chosen for it, e.g. by {@link MatrixMultType#AUTO}.
+     */
+    public static Matrix pipelinedLogPower(Matrix mat,
+            MatrixMultType matMultType, int exponent, double stabilizeRowsTo,
+            boolean setNegativeEntriesToZero) {
+        return pipelinedLogPower(mat, matMultType, exponent,
+                RowEpilogue.createFor(stabilizeRowsTo,
+                        setNegativeEntriesToZero));
+    }
+
+    /**
+     * Calculates the same power as
+     * {@link #pipelinedLogPower(Matrix, MatrixMultType, int, double, boolean)}
+     * . The epilogue, which may be null, is applied to every product and
+     * collects the statistics of the whole powering.
+     */
+    public static Matrix pipelinedLogPower(Matrix mat,
+            MatrixMultType matMultType, int exponent, RowEpilogue epilogue) {
+        if (exponent == 0) {
+            return logPower(mat, matMultType, exponent, epilogue);
+        }
 
-            if (setNegativeEntriesToZero)
-                temp.setNegativeEntriesToZero();
-            if (stabilizeRowsTo != NO_STABILIZE)
-                temp.stabilizeRowsTo(stabilizeRowsTo);
+        int maxPower = getMaxTwoPower(exponent);
 
-            if (twoPowers.contains(i)) {
-                qn = qn.multWith(temp, matMultType);
-                if (setNegativeEntriesToZero)
-                    qn.setNegativeEntriesToZero();
-                if (stabilizeRowsTo != NO_STABILIZE)
-                    qn.stabilizeRowsTo(stabilizeRowsTo);
+        Matrix temp = mat.clone();
+        temp = finishProduct(temp, matMultType, epilogue, "SQUARE 0");
+        Matrix tempBuffer = null;
+
+        // the identity is never multiplied: qn starts with the first square
+        Matrix qn = null;
+        Matrix qnBuffer = null;
+
+        for (int i = 0; i <= maxPower; ++i) {
+            ProductTask accumulation = null;
+            if (hasTwoPower(exponent, i)) {
+                if (qn == null) {
+                    qn = temp.clone();
+                } else {
+                    accumulation = new ProductTask(qn, temp, qnBuffer,
+                            matMultType);
+                    accumulation.fork();
+                }
+            }
+
+            Matrix square = null;
+            if (i < maxPower) {
+                square = multiplyInto(temp, temp, tempBuffer, matMultType);
+            }
+
+            if (accumulation != null) {
+                Matrix product = accumulation.join();
+                qnBuffer = getSpare(qn, matMultType);
+                qn = finishProduct(product, matMultType, epilogue, "RESULT");
+            }
+
+            if (i < maxPower) {
+                tempBuffer = getSpare(temp, matMultType);
+                temp = finishProduct(square, matMultType, epilogue, "SQUARE "
+                        + (i + 1));
             }
         }
 
         return qn;
     }
+
+    private static boolean hasTwoPower(int exponent, int power) {
+        return ((exponent >> power) & 1) != 0;
+    }
+
+    private static int getMaxTwoPower(int exponent) {
+        return 31 - Integer.numberOfLeadingZeros(exponent);
+    }
+
+    /**
+     * Calculates mat^exponent by the shortest {@link ExponentiationPlan}, see
+     * {@link #plannedPower(Matrix, MatrixMultType, ExponentiationPlan, double, boolean)}
+     * .
+     */
+    public static Matrix plannedPower(Matrix mat, MatrixMultType matMultType,
+            long exponent, double stabilizeRowsTo,
+            boolean setNegativeEntriesToZero) {
+        return plannedPower(mat, matMultType,
+                ExponentiationPlan.shortest(exponent), stabilizeRowsTo,
+                setNegativeEntriesToZero);
+    }
+
+    /**
+     * Calculates mat^plan.getExponent() by the multiplications of plan. Every
+     * power is dropped after its last use, so no more than
+     * plan.getPeakLiveMatrices() matrices are held. If the storage type has a
+     * kernel writing into a matrix of its own type, the dropped matrices take
+     * later products.
+     */
+    public static Matrix plannedPower(Matrix mat, MatrixMultType matMultType,
+            ExponentiationPlan plan, double stabilizeRowsTo,
+            boolean setNegativeEntriesToZero) {
+        return plannedPower(mat, matMultType, plan, RowEpilogue.createFor(
+                stabilizeRowsTo, setNegativeEntriesToZero));
+    }
+
+    /**
+     * Calculates mat^plan.getExponent() by the multiplications of plan, see
+     * {@link #plannedPower(Matrix, MatrixMultType, ExponentiationPlan, double, boolean)}
+     * . The epilogue, which may be null, is applied to every product and
+     * collects the statistics of the whole powering.
+     */
+    public static Matrix plannedPower(Matrix mat, MatrixMultType matMultType,
+            ExponentiationPlan plan, RowEpilogue epilogue) {
+        if (plan.getExponent() == 0) {
+            return logPower(mat, matMultType, 0, epilogue);
+        }
+
+        Matrix[] values = new Matrix[plan.getValueCount()];
+        values[0] = finishProduct(mat.clone(), matMultType, epilogue,
+                "POWER 1");
+        Deque<Matrix> free = new ArrayDeque<Matrix>();
+
+        for (int step = 0; step < plan.getMultiplicationCount(); ++step) {
+            int left = plan.getLeft(step);
+            int right = plan.getRight(step);
+
+            Matrix product = multiplyInto(values[left], values[right],
+                    free.poll(), matMultType);
+            values[step + 1] = finishProduct(product, matMultType, epilogue,
+                    "POWER " + plan.getExponentOf(step + 1));
+
+            if (plan.getLastUse(left) == step) {
+                addSpare(free, values[left], matMultType);
+                values[left] = null;
+            }
+            if (right != left && plan.getLastUse(right) == step) {
+                addSpare(free, values[right], matMultType);
+                values[right] = null;
+            }
+        }
+
+        return values[values.length - 1];
+    }
+
+    /**
+     * Calculates mat^exponent for every exponent, see
+     * {@link #batchPower(Matrix, MatrixMultType, long[], double, boolean, PowerCache)}
+     * .
+     */
+    public static Matrix[] batchPower(Matrix mat, MatrixMultType matMultType,
+            long[] exponents, double stabilizeRowsTo,
+            boolean setNegativeEntriesToZero) {
+        return batchPower(mat, matMultType, exponents, stabilizeRowsTo,
+                setNegativeEntriesToZero, null);
+    }
+
+    /**
+     * Calculates mat^exponent for every exponent. Every square P^(2^i) is
+     * calculated once and multiplied into the powers of all exponents, which
+     * have bit i set, so only the results and the current square are held.
+     * The squares are taken from and stored in cache, unless it is null.
+     * 
+     * @return the powers in the order of the exponents
+     */
+    public static Matrix[] batchPower(Matrix mat, MatrixMultType matMultType,
+            long[] exponents, double stabilizeRowsTo,
+            boolean setNegativeEntriesToZero, PowerCache cache) {
+        return batchPower(mat, matMultType, exponents, RowEpilogue.createFor(
+                stabilizeRowsTo, setNegativeEntriesToZero), cache);
+    }
+
+    /**
+     * Calculates mat^exponent for every exponent, see
+     * {@link #batchPower(Matrix, MatrixMultType, long[], double, boolean, PowerCache)}
+     * . The epilogue, which may be null, is applied to every calculated
+     * product and collects their statistics; squares taken from the cache
+     * are not counted again. The cache is not used, if the epilogue drops
+     * entries.
+     */
+    public static Matrix[] batchPower(Matrix mat, MatrixMultType matMultType,
+            long[] exponents, RowEpilogue epilogue, PowerCache cache) {
+        double stabilizeRowsTo = NO_STABILIZE;
+        boolean setNegativeEntriesToZero = false;
+        if (epilogue != null) {
+            stabilizeRowsTo = epilogue.getStabilizeRowsTo();
+            setNegativeEntriesToZero = epilogue.isSetNegativeEntriesToZero();
+            // the cache knows no drop tolerances
+            if (epilogue.getDropTolerance() != null) {
+                cache = null;
+            }
+        }
+
+        Matrix[] results = new Matrix[exponents.length];
+        int maxPower = -1;
+        for (int k = 0; k < exponents.length; ++k) {
+            if (exponents[k] < 0) {
+                throw new IllegalArgumentException();
+            }
+            if (exponents[k] == 0) {
+                results[k] = logPower(mat, matMultType, 0, epilogue);
+            }
+            maxPower = Math.max(maxPower,
+                    63 - Long.numberOfLeadingZeros(exponents[k]));
+        }
+
+        Object matrixKey = cache == null ? null : cache.getMatrixKey(mat);
+        Matrix temp = null;
+        for (int i = 0; i <= maxPower; ++i) {
+            Matrix square = null;
+            if (cache != null) {
+                square = cache.get(matrixKey, stabilizeRowsTo,
+                        setNegativeEntriesToZero, i);
+            }
+            if (square == null) {
+                if (i == 0) {
+                    square = finishProduct(mat.clone(), matMultType,
+                            epilogue, "SQUARE 0");
+                } else {
+                    square = multiply(temp, temp, matMultType, epilogue,
+                            "SQUARE " + i);
+                }
+                if (cache != null) {
+                    cache.put(matrixKey, stabilizeRowsTo,
+                            setNegativeEntriesToZero, i, square);
+                }
+            }
+            temp = square;
+
+            for (int k = 0; k < exponents.length; ++k) {
+                if (((exponents[k] >> i) & 1) == 0) {
+                    continue;
+                }
+                if (k > 0 && isCalculatedBefore(exponents, k)) {
+                    continue;
+                }
+
+                if (results[k] == null) {
+                    // the square may be cached or needed by other exponents
+                    results[k] = temp.clone();
+                } else {
+                    results[k] = multiply(results[k], temp, matMultType,
+                            epilogue, "POWER " + exponents[k]);
+                }
+            }
+        }
+
+        // repeated exponents get copies of the first power
+        for (int k = 1; k < exponents.length; ++k) {
+            if (exponents[k] != 0 && isCalculatedBefore(exponents, k)) {
+                for (int first = 0;; ++first) {
+                    if (exponents[first] == exponents[k]) {
+                        results[k] = results[first].clone();
+                        break;
+                    }
+                }
+            }
+        }
+
+        return results;
+    }
+
+    private static boolean isCalculatedBefore(long[] exponents, int k) {
+        for (int other = 0; other < k; ++other) {
+            if (exponents[other] == exponents[k]) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Calculates mat^exponent by repeated squaring in the block upper
+     * triangular form of mat, see {@link BlockTriangularForm}. Block (b, c)
+     * of a product is the sum of the products of the blocks (b, k) and
+     * (k, c) with b <= k <= c, and only the blocks, which are connected in
+     * the graph of mat, are calculated, in parallel. The diagonal blocks are
+     * powered like independent matrices, so a chain, whose closed classes
+     * have n_1, ..., n_m states, costs n_1^3 + ... + n_m^3 instead of n^3
+     * per multiplication; transient states add the products of the blocks
+     * they lead to. Matrices with one block are powered by
+     * {@link #plannedPower(Matrix, MatrixMultType, long, double, boolean)}.
+     *
+     * Negative entries are set to zero in every block, the rows are
+     * stabilized over all blocks of their block row.
+     */
+    public static Matrix blockPower(Matrix mat, MatrixMultType matMultType,
+            long exponent, double stabilizeRowsTo,
+            boolean setNegativeEntriesToZero) {
+        return blockPower(mat, matMultType, exponent, RowEpilogue.createFor(
+                stabilizeRowsTo, setNegativeEntriesToZero));
+    }
+
+    /**
+     * Calculates mat^exponent in the block upper triangular form of mat, see
+     * {@link #blockPower(Matrix, MatrixMultType, long, double, boolean)}. The
+     * epilogue, which may be null, must not drop entries: it gives the
+     * options and collects the entries set to zero. Its row statistics only
+     * cover matrices with one block, the rows of several blocks are
+     * stabilized separately.
+     */
+    public static Matrix blockPower(Matrix mat, MatrixMultType matMultType,
+            long exponent, RowEpilogue epilogue) {
+        if (exponent < 0 || epilogue != null
+                && epilogue.getDropTolerance() != null) {
+            throw new IllegalArgumentException();
+        }
+
+        BlockTriangularForm form = new BlockTriangularForm(mat);
+        if (exponent == 0 || form.getBlockCount() == 1) {
+            return plannedPower(mat, matMultType,
+                    ExponentiationPlan.shortest(exponent), epilogue);
+        }
+        showBlocks(form);
+
+        double stabilizeRowsTo = epilogue == null ? NO_STABILIZE : epilogue
+                .getStabilizeRowsTo();
+        RowEpilogue clamping = epilogue != null
+                && epilogue.isSetNegativeEntriesToZero() ? new RowEpilogue(
+                NO_STABILIZE, true) : null;
+        Matrix[][] square = form.split(mat);
+        finishBlocks(square, matMultType, clamping, stabilizeRowsTo,
+                "SQUARE 0");
+
+        int maxPower = 63 - Long.numberOfLeadingZeros(exponent);
+        Matrix[][] result = null;
+        for (int i = 0;; ++i) {
+            if (((exponent >> i) & 1) != 0) {
+                // square is not changed by the next squaring
+                result = result == null ? square : multiplyBlocks(result,
+                        square, matMultType, clamping, stabilizeRowsTo,
+                        "RESULT");
+            }
+            if (i == maxPower) {
+                break;
+            }
+            square = multiplyBlocks(square, square, matMultType, clamping,
+                    stabilizeRowsTo, "SQUARE " + (i + 1));
+        }
+        if (clamping != null) {
+            epilogue.addClampedEntries(clamping);
+        }
+
+        return form.join(result, denseThreshold);
+    }
+
+    private static Matrix[][] multiplyBlocks(Matrix[][] left,
+            Matrix[][] right, MatrixMultType matMultType,
+            RowEpilogue clamping, double stabilizeRowsTo, String name) {
+        int blocks = left.length;
+        Matrix[][] result = new Matrix[blocks][blocks];
+        List<BlockProductTask> tasks = new ArrayList<BlockProductTask>();
+        for (int b = 0; b < blocks; ++b) {
+            for (int c = b; c < blocks; ++c) {
+                for (int k = b; k <= c; ++k) {
+                    if (left[b][k] != null && right[k][c] != null) {
+                        BlockProductTask task = new BlockProductTask(left,
+                                right, result, b, c, matMultType);
+                        task.fork();
+                        tasks.add(task);
+                        break;
+                    }
+                }
+            }
+        }
+        for (int t = tasks.size() - 1; t >= 0; --t) {
+            tasks.get(t).join();
+        }
+
+        finishBlocks(result, matMultType, clamping, stabilizeRowsTo, name);
+        return result;
+    }
+
+    /**
+     * Clamps the blocks, stabilizes the rows over all blocks of a block row
+     * and adapts the storage type of every block.
+     */
+    private static void finishBlocks(Matrix[][] blocks,
+            MatrixMultType matMultType, RowEpilogue clamping,
+            double stabilizeRowsTo, String name) {
+        for (int b = 0; b < blocks.length; ++b) {
+            for (int c = b; c < blocks.length; ++c) {
+                if (blocks[b][c] != null && clamping != null) {
+                    blocks[b][c].applyRowEpilogue(clamping);
+                }
+            }
+            if (stabilizeRowsTo != NO_STABILIZE) {
+                stabilizeBlockRow(blocks[b], b, stabilizeRowsTo);
+            }
+            for (int c = b; c < blocks.length; ++c) {
+                if (blocks[b][c] != null) {
+                    blocks[b][c] = adaptFormat(blocks[b][c], matMultType,
+                            name + " BLOCK (" + b + ", " + c + ")");
+                }
+            }
+        }
+    }
+
+    /**
+     * Scales the rows of the blocks (b, b), (b, b + 1), ..., so that every
+     * row sums up to stabilizeRowsTo over all blocks. The blocks are scaled
+     * in place, keeping their storage types.
+     */
+    private static void stabilizeBlockRow(Matrix[] blockRow, int b,
+            double stabilizeRowsTo) {
+        double[] factors = null;
+        for (int c = b; c < blockRow.length; ++c) {
+            if (blockRow[c] == null) {
+                continue;
+            }
+            if (factors == null) {
+                factors = new double[blockRow[c].getRows()];
+            }
+            for (int row = 0; row < factors.length; ++row) {
+                RowCursor cursor = blockRow[c].getRowCursor(row);
+                while (cursor.next()) {
+                    factors[row] += cursor.getValue();
+                }
+            }
+        }
+        if (factors == null) {
+            return;
+        }
+
+        boolean scaled = false;
+        for (int row = 0; row < factors.length; ++row) {
+            // like Matrix.stabilizeRowsTo, zero rows stay zero
+            factors[row] = stabilizeRowsTo
+                    / (factors[row] == 0 ? 1 : factors[row]);
+            scaled |= factors[row] != 1;
+        }
+        if (!scaled) {
+            return;
+        }
+
+        for (int c = b; c < blockRow.length; ++c) {
+            if (blockRow[c] != null) {
+                blockRow[c].scaleRows(factors);
+            }
+        }
+    }
+
+    private static void showBlocks(BlockTriangularForm form) {
+        if (SHOW_FORMAT_SWITCHES) {
+            int largest = 0;
+            for (int block = 0; block < form.getBlockCount(); ++block) {
+                largest = Math.max(largest, form.getBlockSize(block));
+            }
+            System.out.println("BLOCK TRIANGULAR FORM: "
+                    + form.getBlockCount() + " BLOCKS OF "
+                    + form.getComponentCount() + " COMPONENTS (LARGEST: "
+                    + largest + " OF " + form.getSize() + " STATES)");
+        }
+    }
+
+    /**
+     * Calculates mat^exponent for a stochastic matrix, but stops as soon as a
+     * square or an intermediate power has a column spread of at most
+     * tolerance. The column spread is the largest difference of two entries
+     * in the same column. Every row of P * Q is a convex combination of the
+     * rows of Q, so the column spread of the powers of a stochastic matrix
+     * does not increase, and every later power, as well as the rank one limit
+     * of an ergodic matrix, differs from a power by at most its column spread
+     * in every entry. The rows are stabilized to one after every product.
+     */
+    public static ConvergedPower powerUntilConverged(Matrix mat,
+            MatrixMultType matMultType, long exponent, double tolerance,
+            boolean setNegativeEntriesToZero) {
+        if (exponent < 0 || tolerance < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (exponent == 0) {
+            return getConvergedPower(
+                    logPower(mat, matMultType, 0, 1.0,
+                            setNegativeEntriesToZero), 0, 0, 0, tolerance);
+        }
+
+        int maxPower = 63 - Long.numberOfLeadingZeros(exponent);
+        int multiplications = 0;
+        RowEpilogue epilogue = RowEpilogue.createFor(1.0,
+                setNegativeEntriesToZero);
+
+        Matrix temp = finishProduct(mat.clone(), matMultType, epilogue,
+                "SQUARE 0");
+        long tempExponent = 1;
+
+        Matrix qn = null;
+        long qnExponent = 0;
+
+        for (int i = 0;; ++i) {
+            if (getColumnSpread(temp) <= tolerance) {
+                return getConvergedPower(temp, exponent, tempExponent,
+                        multiplications, tolerance);
+            }
+
+            if (((exponent >> i) & 1) != 0) {
+                if (qn == null) {
+                    // temp is not changed by the next squaring
+                    qn = temp;
+                } else {
+                    qn = multiply(qn, temp, matMultType, epilogue, "RESULT");
+                    multiplications++;
+                }
+                qnExponent += tempExponent;
+
+                if (i == maxPower || getColumnSpread(qn) <= tolerance) {
+                    return getConvergedPower(qn, exponent, qnExponent,
+                            multiplications, tolerance);
+                }
+            }
+
+            temp = multiply(temp, temp, matMultType, epilogue,
+                    "SQUARE " + (i + 1));
+            tempExponent *= 2;
+            multiplications++;
+        }
+    }
+
+    private static ConvergedPower getConvergedPower(Matrix power,
+            long exponent, long reachedExponent, int multiplications,
+            double tolerance) {
+        double[] min = new double[power.getCols()];
+        double[] max = new double[power.getCols()];
+        double spread = getColumnRanges(power, min, max);
+
+        double[] limitRow = new double[power.getCols()];
+        for (int col = 0; col < limitRow.length; ++col) {
+            limitRow[col] = (min[col] + max[col]) / 2;
+        }
+
+        return new ConvergedPower(power, exponent, reachedExponent,
+                multiplications, spread, spread <= tolerance, limitRow);
+    }
+
+    /**
+     * Returns the largest difference of two entries in the same column.
+     */
+    public static double getColumnSpread(Matrix mat) {
+        return getColumnRanges(mat, new double[mat.getCols()],
+                new double[mat.getCols()]);
+    }
+
+    /**
+     * Writes the smallest and the largest entry of every column into min and
+     * max and returns the largest difference. Only the non-zero entries are
+     * visited.
+     */
+    private static double getColumnRanges(Matrix mat, final double[] min,
+            final double[] max) {
+        final int[] counts = new int[mat.getCols()];
+        for (int col = 0; col < mat.getCols(); ++col) {
+            min[col] = Double.POSITIVE_INFINITY;
+            max[col] = Double.NEGATIVE_INFINITY;
+        }
+        mat.forEachNonZero(new EntryVisitor() {
+            @Override
+            public void visit(int row, int col, double value) {
+                counts[col]++;
+                min[col] = Math.min(min[col], value);
+                max[col] = Math.max(max[col], value);
+            }
+        });
+
+        double result = 0;
+        for (int col = 0; col < mat.getCols(); ++col) {
+            if (counts[col] < mat.getRows()) {
+                min[col] = Math.min(min[col], 0);
+                max[col] = Math.max(max[col], 0);
+            }
+            result = Math.max(result, max[col] - min[col]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Calculates left * right and clamps and stabilizes the rows of the
+     * product, while they are written, see {@link RowEpilogue}.
+     */
+    private static Matrix multiply(Matrix left, Matrix right,
+            MatrixMultType matMultType, RowEpilogue epilogue, String name) {
+        Matrix product = left.multWith(right, matMultType, epilogue);
+
+        return adaptFormat(product, matMultType, name);
+    }
+
+    /**
+     * Clamps and stabilizes the rows of a finished product in one pass.
+     */
+    private static Matrix finishProduct(Matrix product,
+            MatrixMultType matMultType, RowEpilogue epilogue, String name) {
+        if (epilogue != null) {
+            product.applyRowEpilogue(epilogue);
+        }
+
+        return adaptFormat(product, matMultType, name);
+    }
+
+    /**
+     * Returns left * right. The product is written into buffer or a new matrix
+     * of the storage type of left, if left has a kernel for it. Otherwise the
+     * product is allocated by multWith, which chooses its storage type.
+     */
+    private static Matrix multiplyInto(Matrix left, Matrix right,
+            Matrix buffer, MatrixMultType matMultType) {
+        if (!left.hasMultIntoKernel(right, matMultType)) {
+            return left.multWith(right, matMultType);
+        }
+
+        Matrix result = getBuffer(buffer, left, right.getCols());
+        left.multWithInto(right, result, matMultType);
+        return result;
+    }
+
+    /**
+     * Returns matrix, if later products can be written into it, or null, so a
+     * replaced matrix is not kept without use.
+     */
+    private static Matrix getSpare(Matrix matrix, MatrixMultType matMultType) {
+        return matrix.hasMultIntoKernel(matrix, matMultType) ? matrix : null;
+    }
+
+    private static void addSpare(Deque<Matrix> free, Matrix matrix,
+            MatrixMultType matMultType) {
+        if (getSpare(matrix, matMultType) != null) {
+            free.push(matrix);
+        }
+    }
+
+    /**
+     * Returns buffer, if it can take the product of left with a matrix of the
+     * given number of columns, or a new matrix of the storage type of left.
+     */
+    private static Matrix getBuffer(Matrix buffer, Matrix left, int cols) {
+        if (buffer != null && buffer.getClass() == left.getClass()
+                && buffer.getRows() == left.getRows()
+                && buffer.getCols() == cols) {
+            return buffer;
+        }
+
+        return left.getNewInstance(left.getRows(), cols);
+    }
+
+    private static class ProductTask extends RecursiveTask<Matrix> {
+        private static final long serialVersionUID = -5104311726873450231L;
+        private final Matrix left, right, buffer;
+        private final MatrixMultType multType;
+
+        private ProductTask(Matrix left, Matrix right, Matrix buffer,
+                MatrixMultType multType) {
+            this.left = left;
+            this.right = right;
+            this.buffer = buffer;
+            this.multType = multType;
+        }
+
+        @Override
+        protected Matrix compute() {
+            return multiplyInto(left, right, buffer, multType);
+        }
+    }
+
+    /**
+     * Calculates block (b, c) of left * right.
+     */
+    private static class BlockProductTask extends RecursiveTask<Double> {
+        private static final long serialVersionUID = 2204681391577180563L;
+        private final Matrix[][] left, right, result;
+        private final int b, c;
+        private final MatrixMultType multType;
+
+        private BlockProductTask(Matrix[][] left, Matrix[][] right,
+                Matrix[][] result, int b, int c, MatrixMultType multType) {
+            this.left = left;
+            this.right = right;
+            this.result = result;
+            this.b = b;
+            this.c = c;
+            this.multType = multType;
+        }
+
+        @Override
+        protected Double compute() {
+            Matrix sum = null;
+            for (int k = b; k <= c; ++k) {
+                if (left[b][k] == null || right[k][c] == null) {
+                    continue;
+                }
+
+                Matrix term = left[b][k].multWith(right[k][c], multType);
+                if (sum == null) {
+                    sum = term;
+                } else {
+                    sum.add(term);
+                }
+            }
+            result[b][c] = sum;
+            return 0.0; // no result needed
+        }
+    }
+
+    /**
+     * Converts a sparse matrix, which has become dense enough, to
+     * {@link ArrayMatrix} and a dense matrix, which has become sparse enough,
+     * to {@link CrsMatrix}. A dense square matrix, whose rows have become
+     * almost equal, is converted to {@link LowRankSparseMatrix}, which is
+     * kept for all later products. {@link MatrixMultType#AUTO} chooses the
+     * storage types itself, so the matrix is returned unchanged.
+     */
+    private static Matrix adaptFormat(Matrix mat, MatrixMultType matMultType,
+            String name) {
+        if (matMultType == MatrixMultType.AUTO
+                || mat instanceof LowRankSparseMatrix) {
+            return mat;
+        }
+
+        double density = (double) mat.nnz() / mat.getRows() / mat.getCols();
+        if (density >= denseThreshold && mat.getRows() == mat.getCols()
+                && lowRankTolerance != NO_LOW_RANK) {
+            LowRankSparseMatrix lowRank = LowRankSparseMatrix.rankOneOf(mat,
+                    lowRankTolerance, (long) (LOW_RANK_RESIDUAL_DENSITY
+                            * mat.getRows() * mat.getCols()));
+            if (lowRank != null) {
+                showFormatSwitch(name, "LOW RANK", (double) lowRank
+                        .getResidual().nnz() / mat.getRows() / mat.getCols());
+                return lowRank;
+            }
+        }
+        if (!(mat instanceof ArrayMatrix) && density >= denseThreshold) {
+            showFormatSwitch(name, "DENSE", density);
+            return new ArrayMatrix(mat);
+        }
+        if (mat instanceof ArrayMatrix
+                && density < denseThreshold * SPARSE_HYSTERESIS) {
+            showFormatSwitch(name, "SPARSE", density);
+            return new CrsMatrix(mat);
+        }
+
+        return mat;
+    }
+
+    private static void showFormatSwitch(String name, String format,
+            double density) {
+        if (SHOW_FORMAT_SWITCHES) {
+            System.out.println(name + " SWITCHED TO " + format
+                    + " (DENSITY: " + String.format("%.3f", density) + ")");
+        }
+    }
+
+    public static double getDenseThreshold() {
+        return denseThreshold;
+    }
+
+    public static double getLowRankTolerance() {
+        return lowRankTolerance;
+    }
+
+    /**
+     * Sets the largest difference of an entry to its column mean, which is
+     * dropped when a matrix is converted to {@link LowRankSparseMatrix}, or
+     * {@link #NO_LOW_RANK}.
+     */
+    public static void setLowRankTolerance(double tolerance) {
+        if (tolerance < 0 && tolerance != NO_LOW_RANK) {
+            throw new IllegalArgumentException(
+                    "LOW RANK TOLERANCE MUST NOT BE NEGATIVE");
+        }
+
+        lowRankTolerance = tolerance;
+    }
+
+    public static void setDenseThreshold(double threshold) {
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("DENSE THRESHOLD MUST BE IN (0, 1]");
+        }
+
+        denseThreshold = threshold;
+    }
+
+    /**
+     * Measures the squaring of random matrices as {@link CrsMatrix} and as
+     * {@link ArrayMatrix} with increasing densities. The first density, for
+     * which the dense squaring is faster, becomes the dense threshold.
+     * 
+     * @return the new dense threshold
+     */
+    public static double calibrateDenseThreshold() {
+        Random random = new Random(CALIBRATION_SEED);
+
+        double threshold = 1;
+        for (double density : CALIBRATION_DENSITIES) {
+            double[][] arr = new double[CALIBRATION_SIZE][CALIBRATION_SIZE];
+            for (int row = 0; row < CALIBRATION_SIZE; ++row) {
+                for (int col = 0; col < CALIBRATION_SIZE; ++col) {
+                    if (random.nextDouble() < density) {
+                        arr[row][col] = random.nextDouble();
+                    }
+                }
+            }
+            Matrix dense = new ArrayMatrix(arr, false);
+            Matrix sparse = new CrsMatrix(dense);
+
+            if (getSquaringTime(dense) <= getSquaringTime(sparse)) {
+                threshold = density;
+                break;
+            }
+        }
+
+        setDenseThreshold(threshold);
+        System.out.println("DENSE THRESHOLD CALIBRATED TO " + threshold);
+
+        return threshold;
+    }
+
+    /**
+     * Returns the best time of some squarings in nanoseconds.
+     */
+    private static long getSquaringTime(Matrix mat) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < CALIBRATION_RUNS; ++run) {
+            long time = System.nanoTime();
+            mat.multWith(mat, MatrixMultType.NAIVE);
+            best = Math.min(best, System.nanoTime() - time);
+        }
+
+        return best;
+    }
 }
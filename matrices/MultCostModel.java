@@ -0,0 +1,342 @@
+package matrices;
+
+/**
+ * Chooses the multiplication algorithm and the storage types for
+ * {@link MatrixMultType#AUTO}. The costs of all candidates are estimated from
+ * the dimensions and the non-zero structure of the factors: the scalar
+ * multiplications of the dense and the sparse algorithms, the estimated number
+ * of non-zero entries of the product and the conversions of the factors. The
+ * cheapest candidate is used.
+ *
+ * The cost constants are nanoseconds per operation, measured with the tiled
+ * dense kernel and the two-phase CRS multiplication on a single core.
+ * {@link MapMatrix} is never chosen, since {@link CrsMatrix} is the faster
+ * sparse storage for multiplication.
+ */
+public class MultCostModel {
+
+    public enum Storage {
+        ARRAY, CRS
+    }
+
+    // print every decision
+    private static final boolean SHOW_DECISIONS = true;
+
+    private static final int NUMBER_OF_THREADS = Runtime.getRuntime()
+            .availableProcessors();
+
+    // a parallel multiplication should have at least this number of flops
+    private static final double MIN_PARALLEL_FLOPS = 1 << 20;
+
+    // share of the threads which is gained by parallel multiplication
+    private static final double PARALLEL_EFFICIENCY = 0.8;
+
+    private static final double DENSE_FLOP_COST = 0.35;
+    // the rows of the dense factor are added without tiling
+    private static final double MIXED_FLOP_COST = 1.5;
+    private static final double SPARSE_FLOP_COST = 15;
+    private static final double SPARSE_OUTPUT_ENTRY_COST = 40;
+    private static final double SPARSE_ROW_COST = 20;
+
+    // dense storage: writing an entry; sparse storage: writing a non-zero
+    private static final double ARRAY_ENTRY_COST = 1;
+    private static final double CRS_ENTRY_COST = 10;
+
+    // the Strassen algorithms stop at this size, see Matrix
+    private static final int STRASSEN_MATRIX_SIZE_LIMIT = 32;
+
+    // small dense multiplications at the leaves are slower per flop
+    private static final double STRASSEN_LEAF_PENALTY = 2.5;
+
+    /**
+     * A product with at least this estimated ratio of non-zero entries is
+     * stored densely.
+     */
+    private static final double DENSE_OUTPUT_FILL = 0.25;
+
+    private MultCostModel() {
+    }
+
+    /**
+     * Is the result of {@link MultCostModel#plan(Matrix, Matrix)}.
+     */
+    public static class Plan {
+        private final Storage leftStorage, rightStorage, outputStorage;
+        private final MatrixMultType multType;
+        private final double flops, estimatedFill, estimatedCost;
+
+        private Plan(Storage leftStorage, Storage rightStorage,
+                Storage outputStorage, MatrixMultType multType, double flops,
+                double estimatedFill, double estimatedCost) {
+            this.leftStorage = leftStorage;
+            this.rightStorage = rightStorage;
+            this.outputStorage = outputStorage;
+            this.multType = multType;
+            this.flops = flops;
+            this.estimatedFill = estimatedFill;
+            this.estimatedCost = estimatedCost;
+        }
+
+        public Storage getLeftStorage() {
+            return leftStorage;
+        }
+
+        public Storage getRightStorage() {
+            return rightStorage;
+        }
+
+        public Storage getOutputStorage() {
+            return outputStorage;
+        }
+
+        public MatrixMultType getMultType() {
+            return multType;
+        }
+
+        /**
+         * Returns the number of scalar multiplications of the chosen
+         * algorithm.
+         */
+        public double getFlops() {
+            return flops;
+        }
+
+        /**
+         * Returns the estimated ratio of non-zero entries of the product.
+         */
+        public double getEstimatedFill() {
+            return estimatedFill;
+        }
+
+        /**
+         * Returns the estimated time in nanoseconds.
+         */
+        public double getEstimatedCost() {
+            return estimatedCost;
+        }
+
+        @Override
+        public String toString() {
+            return leftStorage + " * " + rightStorage + " BY " + multType
+                    + " INTO " + outputStorage + " (FLOPS: "
+                    + String.format("%.3g", flops) + ", FILL: "
+                    + String.format("%.3f", estimatedFill) + ", COST: "
+                    + String.format("%.3g", estimatedCost / 1e6) + " MS)";
+        }
+    }
+
+    /**
+     * Estimates the costs of all candidates for left * right and returns the
+     * cheapest one.
+     */
+    public static Plan plan(Matrix left, Matrix right) {
+        if (!left.multPossible(right)) {
+            throw new IllegalArgumentException();
+        }
+
+        double rows = left.getRows();
+        double inner = left.getCols();
+        double cols = right.getCols();
+        double leftNnz = left.nnz();
+        double rightNnz = right.nnz();
+
+        // the sparse algorithm multiplies every non-zero a_ik with the
+        // non-zero entries of row k of the right factor
+        double sparseFlops = getSparseFlops(left, right);
+        double denseFlops = rows * inner * cols;
+        double outputEntries = rows * cols;
+        double fill = outputEntries == 0 ? 0 : 1 - Math.exp(-sparseFlops
+                / outputEntries);
+        double outputNnz = fill * outputEntries;
+        Storage outputStorage = fill >= DENSE_OUTPUT_FILL ? Storage.ARRAY
+                : Storage.CRS;
+
+        double leftToArray = getConversionCost(left, Storage.ARRAY, leftNnz);
+        double leftToCrs = getConversionCost(left, Storage.CRS, leftNnz);
+        double rightToArray = getConversionCost(right, Storage.ARRAY,
+                rightNnz);
+        double rightToCrs = getConversionCost(right, Storage.CRS, rightNnz);
+        if (left == right) {
+            // squaring: the factor is converted once
+            rightToArray = 0;
+            rightToCrs = 0;
+        }
+
+        // dense * dense, classical or Strassen-Winograd
+        double denseCost = DENSE_FLOP_COST * denseFlops
+                / getSpeedup(denseFlops);
+        Plan best = new Plan(Storage.ARRAY, Storage.ARRAY, outputStorage,
+                getNaiveType(denseFlops), denseFlops, fill, leftToArray
+                        + rightToArray + denseCost
+                        + getOutputCost(Storage.ARRAY, outputStorage,
+                                outputEntries, outputNnz));
+
+        double strassenFlops = getStrassenFlops(rows, inner, cols);
+        double strassenCost = DENSE_FLOP_COST * STRASSEN_LEAF_PENALTY
+                * strassenFlops / getSpeedup(strassenFlops);
+        best = cheaper(best, new Plan(Storage.ARRAY, Storage.ARRAY,
+                outputStorage, MatrixMultType.PARALLEL_STRASSEN_WINOGRAD_HYBRID,
+                strassenFlops, fill, leftToArray + rightToArray + strassenCost
+                        + getOutputCost(Storage.ARRAY, outputStorage,
+                                outputEntries, outputNnz)));
+
+        // sparse * sparse
+        double sparseCost = (SPARSE_FLOP_COST * sparseFlops
+                + SPARSE_OUTPUT_ENTRY_COST * outputNnz + SPARSE_ROW_COST
+                * rows)
+                / getSpeedup(sparseFlops);
+        best = cheaper(best, new Plan(Storage.CRS, Storage.CRS, outputStorage,
+                getNaiveType(sparseFlops), sparseFlops, fill, leftToCrs
+                        + rightToCrs + sparseCost
+                        + getOutputCost(Storage.CRS, outputStorage,
+                                outputEntries, outputNnz)));
+
+        // sparse * dense: every non-zero a_ik adds a scaled dense row
+        double mixedFlops = leftNnz * cols;
+        double mixedCost = (MIXED_FLOP_COST * mixedFlops + CRS_ENTRY_COST
+                * outputNnz)
+                / getSpeedup(mixedFlops);
+        best = cheaper(best, new Plan(Storage.CRS, Storage.ARRAY,
+                outputStorage, getNaiveType(mixedFlops), mixedFlops, fill,
+                leftToCrs + rightToArray + mixedCost
+                        + getOutputCost(Storage.CRS, outputStorage,
+                                outputEntries, outputNnz)));
+
+        return best;
+    }
+
+    /**
+     * Multiplies by the cheapest candidate of
+     * {@link #plan(Matrix, Matrix)}. The result has the output storage of the
+     * plan.
+     */
+    static Matrix multiply(Matrix left, Matrix right) {
+        Plan plan = plan(left, right);
+        if (SHOW_DECISIONS) {
+            System.out.println("AUTO: " + left.getRows() + "x"
+                    + left.getCols() + " * " + right.getRows() + "x"
+                    + right.getCols() + " AS " + plan);
+        }
+
+        Matrix convertedLeft = convert(left, plan.getLeftStorage());
+        Matrix convertedRight = left == right
+                && plan.getLeftStorage() == plan.getRightStorage() ? convertedLeft
+                : convert(right, plan.getRightStorage());
+
+        Matrix result = convertedLeft.multWith(convertedRight,
+                plan.getMultType());
+
+        return convert(result, plan.getOutputStorage());
+    }
+
+    private static Plan cheaper(Plan plan1, Plan plan2) {
+        return plan2.getEstimatedCost() < plan1.getEstimatedCost() ? plan2
+                : plan1;
+    }
+
+    private static Matrix convert(Matrix mat, Storage storage) {
+        switch (storage) {
+        case ARRAY:
+            return mat instanceof ArrayMatrix ? mat : new ArrayMatrix(mat);
+        case CRS:
+            return mat instanceof CrsMatrix ? mat : new CrsMatrix(mat);
+        default:
+            throw new IllegalArgumentException();
+        }
+    }
+
+    private static double getConversionCost(Matrix mat, Storage storage,
+            double nnz) {
+        double entries = (double) mat.getRows() * mat.getCols();
+        switch (storage) {
+        case ARRAY:
+            return mat instanceof ArrayMatrix ? 0 : ARRAY_ENTRY_COST * entries
+                    + CRS_ENTRY_COST * nnz;
+        case CRS:
+            if (mat instanceof CrsMatrix) {
+                return 0;
+            } else if (mat instanceof ArrayMatrix) {
+                // every entry is read
+                return ARRAY_ENTRY_COST * entries + CRS_ENTRY_COST * nnz;
+            } else {
+                return 2 * CRS_ENTRY_COST * nnz;
+            }
+        default:
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Returns the cost of converting the product of a kernel with the given
+     * output storage into the planned output storage.
+     */
+    private static double getOutputCost(Storage kernelStorage,
+            Storage outputStorage, double outputEntries, double outputNnz) {
+        if (kernelStorage == outputStorage) {
+            return 0;
+        }
+
+        return ARRAY_ENTRY_COST * outputEntries + CRS_ENTRY_COST * outputNnz;
+    }
+
+    /**
+     * Returns the sum of nnz(column k of left) * nnz(row k of right) over all
+     * k.
+     */
+    static double getSparseFlops(Matrix left, Matrix right) {
+        final double[] leftColCounts = new double[left.getCols()];
+        left.forEachNonZero(new EntryVisitor() {
+            @Override
+            public void visit(int row, int col, double value) {
+                leftColCounts[col]++;
+            }
+        });
+
+        double result = 0;
+        for (int inner = 0; inner < right.getRows(); ++inner) {
+            if (leftColCounts[inner] == 0) {
+                continue;
+            }
+            int rowCount = 0;
+            RowCursor cursor = right.getRowCursor(inner);
+            while (cursor.next()) {
+                rowCount++;
+            }
+            result += leftColCounts[inner] * rowCount;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the flops of the Strassen algorithms: every level replaces
+     * eight products of half size by seven.
+     */
+    private static double getStrassenFlops(double rows, double inner,
+            double cols) {
+        double result = rows * inner * cols;
+        while (rows > STRASSEN_MATRIX_SIZE_LIMIT
+                && inner > STRASSEN_MATRIX_SIZE_LIMIT
+                && cols > STRASSEN_MATRIX_SIZE_LIMIT) {
+            result *= 7.0 / 8;
+            rows = Math.floor(rows / 2);
+            inner = Math.floor(inner / 2);
+            cols = Math.floor(cols / 2);
+        }
+
+        return result;
+    }
+
+    private static double getSpeedup(double flops) {
+        if (NUMBER_OF_THREADS > 1 && flops >= MIN_PARALLEL_FLOPS) {
+            return NUMBER_OF_THREADS * PARALLEL_EFFICIENCY;
+        } else {
+            return 1;
+        }
+    }
+
+    static MatrixMultType getNaiveType(double flops) {
+        return getSpeedup(flops) > 1 ? MatrixMultType.PARALLEL_NAIVE
+                : MatrixMultType.NAIVE;
+    }
+}
@@ -0,0 +1,208 @@
+package matrices;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the squares P^(2^i) of
+ * {@link MatrixPowerer#batchPower(Matrix, MatrixMultType, long[], double, boolean, PowerCache)}
+ * for later calls. The matrices are identified either by their content, using
+ * a fingerprint of the non-zero entries, or by object identity, which avoids
+ * the pass over the entries, but only finds squares of the same object, which
+ * must not be changed in between. The least recently used squares are
+ * dropped, as soon as the estimated size of all squares exceeds the given
+ * number of bytes.
+ *
+ * The cached squares must not be changed: the powerer only returns copies.
+ */
+public class PowerCache {
+
+    // estimated bytes per non-zero entry of storage types without arrays
+    private static final long BYTES_PER_MAP_ENTRY = 48;
+
+    private final long maxBytes;
+    private final boolean byIdentity;
+
+    private final LinkedHashMap<Key, Matrix> squares = new LinkedHashMap<Key, Matrix>(
+            16, 0.75f, true);
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    public PowerCache(long maxBytes, boolean byIdentity) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        this.maxBytes = maxBytes;
+        this.byIdentity = byIdentity;
+    }
+
+    /**
+     * Returns the part of the key, which identifies mat.
+     */
+    Object getMatrixKey(Matrix mat) {
+        if (byIdentity) {
+            return new Identity(mat);
+        }
+
+        return getFingerprint(mat);
+    }
+
+    synchronized Matrix get(Object matrixKey, double stabilizeRowsTo,
+            boolean setNegativeEntriesToZero, int power) {
+        Matrix result = squares.get(new Key(matrixKey, stabilizeRowsTo,
+                setNegativeEntriesToZero, power));
+        if (result == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+
+        return result;
+    }
+
+    synchronized void put(Object matrixKey, double stabilizeRowsTo,
+            boolean setNegativeEntriesToZero, int power, Matrix square) {
+        long size = getBytes(square);
+        if (size > maxBytes) {
+            return;
+        }
+
+        Matrix previous = squares.put(new Key(matrixKey, stabilizeRowsTo,
+                setNegativeEntriesToZero, power), square);
+        if (previous != null) {
+            bytes -= getBytes(previous);
+        }
+        bytes += size;
+
+        Iterator<Map.Entry<Key, Matrix>> eldest = squares.entrySet()
+                .iterator();
+        while (bytes > maxBytes) {
+            bytes -= getBytes(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Returns a hash of the dimensions and the non-zero entries, which does
+     * not depend on the order, in which the entries are visited.
+     */
+    public static long getFingerprint(Matrix mat) {
+        final long[] sum = { mix(mat.getRows() * 31L + mat.getCols()) };
+        mat.forEachNonZero(new EntryVisitor() {
+            @Override
+            public void visit(int row, int col, double value) {
+                sum[0] += mix(mix(((long) row << 32) + col)
+                        + Double.doubleToLongBits(value));
+            }
+        });
+
+        return sum[0];
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns the estimated size of the storage of mat.
+     */
+    public static long getBytes(Matrix mat) {
+        if (mat instanceof ArrayMatrix) {
+            return 8L * mat.getRows() * mat.getCols();
+        } else if (mat instanceof CrsMatrix) {
+            return 12L * mat.nnz() + 4L * (mat.getRows() + 1);
+        } else if (mat instanceof LowRankSparseMatrix) {
+            LowRankSparseMatrix lowRank = (LowRankSparseMatrix) mat;
+            return 8L * lowRank.getRank() * (mat.getRows() + mat.getCols())
+                    + getBytes(lowRank.getResidual());
+        } else {
+            return BYTES_PER_MAP_ENTRY * mat.nnz();
+        }
+    }
+
+    public synchronized void clear() {
+        squares.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return squares.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized String getStatus() {
+        return "POWER CACHE SQUARES: " + squares.size() + ", BYTES: " + bytes
+                + ", HITS: " + hits + ", MISSES: " + misses;
+    }
+
+    private static class Identity {
+        private final Matrix mat;
+
+        private Identity(Matrix mat) {
+            this.mat = mat;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(mat);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Identity && ((Identity) obj).mat == mat;
+        }
+    }
+
+    private static class Key {
+        private final Object matrixKey;
+        private final double stabilizeRowsTo;
+        private final boolean setNegativeEntriesToZero;
+        private final int power;
+
+        private Key(Object matrixKey, double stabilizeRowsTo,
+                boolean setNegativeEntriesToZero, int power) {
+            this.matrixKey = matrixKey;
+            this.stabilizeRowsTo = stabilizeRowsTo;
+            this.setNegativeEntriesToZero = setNegativeEntriesToZero;
+            this.power = power;
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(stabilizeRowsTo);
+            int result = matrixKey.hashCode();
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+            result = 31 * result + power;
+            return 2 * result + (setNegativeEntriesToZero ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key that = (Key) obj;
+            return matrixKey.equals(that.matrixKey)
+                    && Double.compare(stabilizeRowsTo, that.stabilizeRowsTo) == 0
+                    && setNegativeEntriesToZero == that.setNegativeEntriesToZero
+                    && power == that.power;
+        }
+    }
+}
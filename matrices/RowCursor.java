@@ -0,0 +1,20 @@
+package matrices;
+
+/**
+ * Walks over the non-zero entries of one matrix row. A new cursor is placed
+ * before the first entry; {@link #next()} has to be called before the first
+ * access. The order of the columns depends on the storage type of the matrix.
+ */
+public interface RowCursor {
+
+    /**
+     * Moves to the next non-zero entry of the row.
+     * 
+     * @return false if there is no further non-zero entry.
+     */
+    boolean next();
+
+    int getCol();
+
+    double getValue();
+}
@@ -0,0 +1,373 @@
+package matrices;
+
+/**
+ * Is applied to every row of a product, while the row is still in the cache:
+ * negative entries are set to zero, the row sum is calculated and the row is
+ * scaled to the given sum. This replaces the separate passes of
+ * {@link Matrix#setNegativeEntriesToZero()} and
+ * {@link Matrix#stabilizeRowsTo(double)}. With a {@link DropTolerance}, small
+ * entries are dropped before the row sum is calculated, so the row is
+ * renormalized to the mass it has kept. An epilogue collects statistics of
+ * all rows it has been applied to, also from several threads: every thread
+ * applies it through its own {@link Chunk}, which adds the statistics of its
+ * rows at once.
+ */
+public class RowEpilogue {
+
+    private final double stabilizeRowsTo;
+    private final boolean setNegativeEntriesToZero;
+    private final DropTolerance dropTolerance;
+
+    private long rows = 0;
+    private long clampedEntries = 0;
+    private double minimalClampedEntry = 0;
+    private double minimalRowSum = Double.POSITIVE_INFINITY;
+    private double maximalRowSum = Double.NEGATIVE_INFINITY;
+    private long droppedEntries = 0;
+    private double droppedMass = 0;
+    private double maximalDroppedRowMass = 0;
+
+    /**
+     * @param stabilizeRowsTo
+     *            is the new sum of every row, or
+     *            {@link MatrixPowerer#NO_STABILIZE}
+     */
+    public RowEpilogue(double stabilizeRowsTo, boolean setNegativeEntriesToZero) {
+        this(stabilizeRowsTo, setNegativeEntriesToZero, null);
+    }
+
+    /**
+     * @param dropTolerance
+     *            may be null, if no entries are dropped
+     */
+    public RowEpilogue(double stabilizeRowsTo,
+            boolean setNegativeEntriesToZero, DropTolerance dropTolerance) {
+        this.stabilizeRowsTo = stabilizeRowsTo;
+        this.setNegativeEntriesToZero = setNegativeEntriesToZero;
+        this.dropTolerance = dropTolerance;
+    }
+
+    /**
+     * Returns an epilogue for the given options, or null if there is nothing
+     * to do.
+     */
+    public static RowEpilogue createFor(double stabilizeRowsTo,
+            boolean setNegativeEntriesToZero) {
+        return createFor(stabilizeRowsTo, setNegativeEntriesToZero, null);
+    }
+
+    public static RowEpilogue createFor(double stabilizeRowsTo,
+            boolean setNegativeEntriesToZero, DropTolerance dropTolerance) {
+        if (stabilizeRowsTo == MatrixPowerer.NO_STABILIZE
+                && !setNegativeEntriesToZero && dropTolerance == null) {
+            return null;
+        }
+
+        return new RowEpilogue(stabilizeRowsTo, setNegativeEntriesToZero,
+                dropTolerance);
+    }
+
+    public double getStabilizeRowsTo() {
+        return stabilizeRowsTo;
+    }
+
+    public boolean isSetNegativeEntriesToZero() {
+        return setNegativeEntriesToZero;
+    }
+
+    public DropTolerance getDropTolerance() {
+        return dropTolerance;
+    }
+
+    /**
+     * Returns true, if the epilogue may set entries to zero, which storage
+     * types without explicit zeros should remove afterwards.
+     */
+    boolean dropsEntries() {
+        return dropTolerance != null;
+    }
+
+    /**
+     * Returns a chunk, which applies the epilogue to the rows of one thread
+     * and collects their statistics locally, until {@link Chunk#finish()}
+     * adds them to the epilogue at once. It keeps its scratch arrays for all
+     * of its rows, so it must not be shared by threads.
+     */
+    Chunk startChunk() {
+        return new Chunk(this);
+    }
+
+    private double getScale(double rowSum) {
+        // like Matrix.stabilizeRowsTo, zero rows stay zero
+        return stabilizeRowsTo / (rowSum == 0 ? 1 : rowSum);
+    }
+
+    private synchronized void record(Chunk chunk) {
+        rows += chunk.rows;
+        clampedEntries += chunk.clampedEntries;
+        minimalClampedEntry = Math.min(minimalClampedEntry,
+                chunk.minimalClampedEntry);
+        minimalRowSum = Math.min(minimalRowSum, chunk.minimalRowSum);
+        maximalRowSum = Math.max(maximalRowSum, chunk.maximalRowSum);
+        droppedEntries += chunk.droppedEntries;
+        droppedMass += chunk.droppedMass;
+        maximalDroppedRowMass = Math.max(maximalDroppedRowMass,
+                chunk.maximalDroppedRowMass);
+    }
+
+    /**
+     * Adds the entries, which other has set to zero, to the statistics.
+     */
+    synchronized void addClampedEntries(RowEpilogue other) {
+        clampedEntries += other.getClampedEntries();
+        minimalClampedEntry = Math.min(minimalClampedEntry,
+                other.getMinimalClampedEntry());
+    }
+
+    public synchronized long getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of negative entries, which were set to zero.
+     */
+    public synchronized long getClampedEntries() {
+        return clampedEntries;
+    }
+
+    /**
+     * Returns the smallest entry, which was set to zero, or 0 if there was
+     * none.
+     */
+    public synchronized double getMinimalClampedEntry() {
+        return minimalClampedEntry;
+    }
+
+    public synchronized long getDroppedEntries() {
+        return droppedEntries;
+    }
+
+    /**
+     * Returns the sum of the absolute values of all dropped entries.
+     */
+    public synchronized double getDroppedMass() {
+        return droppedMass;
+    }
+
+    /**
+     * Returns the largest mass dropped from a single row. For stochastic
+     * matrices, it bounds the error every product has added to a row.
+     */
+    public synchronized double getMaximalDroppedRowMass() {
+        return maximalDroppedRowMass;
+    }
+
+    /**
+     * Returns the smallest row sum before the rows were scaled.
+     */
+    public synchronized double getMinimalRowSum() {
+        return minimalRowSum;
+    }
+
+    /**
+     * Returns the largest row sum before the rows were scaled.
+     */
+    public synchronized double getMaximalRowSum() {
+        return maximalRowSum;
+    }
+
+    public synchronized void resetStatistics() {
+        rows = 0;
+        clampedEntries = 0;
+        minimalClampedEntry = 0;
+        minimalRowSum = Double.POSITIVE_INFINITY;
+        maximalRowSum = Double.NEGATIVE_INFINITY;
+        droppedEntries = 0;
+        droppedMass = 0;
+        maximalDroppedRowMass = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ROWS: " + rows + ", CLAMPED ENTRIES: " + clampedEntries
+                + " (MINIMAL: " + minimalClampedEntry + "), ROW SUMS: ["
+                + minimalRowSum + ", " + maximalRowSum + "], DROPPED ENTRIES: "
+                + droppedEntries + " (MASS: " + droppedMass + ")";
+    }
+
+    /**
+     * Applies the epilogue to consecutive rows of one thread, see
+     * {@link RowEpilogue#startChunk()}.
+     */
+    static final class Chunk {
+        private final RowEpilogue epilogue;
+
+        // a gathered row for the drop tolerance and the scratch of top k,
+        // reused for all rows of the chunk
+        private double[] row = new double[0];
+        private double[] magnitudes = new double[0];
+
+        private long rows = 0;
+        private long clampedEntries = 0;
+        private double minimalClampedEntry = 0;
+        private double minimalRowSum = Double.POSITIVE_INFINITY;
+        private double maximalRowSum = Double.NEGATIVE_INFINITY;
+        private long droppedEntries = 0;
+        private double droppedMass = 0;
+        private double maximalDroppedRowMass = 0;
+
+        private Chunk(RowEpilogue epilogue) {
+            this.epilogue = epilogue;
+        }
+
+        /**
+         * Applies the epilogue to the row values[offset], ...,
+         * values[offset + length - 1].
+         */
+        void apply(double[] values, int offset, int length) {
+            int clamped = 0;
+            double minimalClamped = 0;
+            double rowSum = 0;
+            int end = offset + length;
+            for (int index = offset; index < end; ++index) {
+                double value = values[index];
+                if (epilogue.setNegativeEntriesToZero && value < 0) {
+                    minimalClamped = Math.min(minimalClamped, value);
+                    values[index] = 0;
+                    clamped++;
+                } else {
+                    rowSum += value;
+                }
+            }
+
+            finishRow(values, offset, length, rowSum, clamped, minimalClamped);
+        }
+
+        /**
+         * Drops the small entries of values[offset], ...,
+         * values[offset + length - 1], scales them to the row sum and records
+         * the statistics of the row. The entries have been clamped by the
+         * caller, rowSum is the sum of the whole row, which may have further
+         * entries outside of values, which are neither dropped nor scaled
+         * here.
+         * 
+         * @return the factor, which the other entries of the row have to be
+         *         scaled with
+         */
+        double finishRow(double[] values, int offset, int length,
+                double rowSum, int clamped, double minimalClamped) {
+            int end = offset + length;
+            int dropped = 0;
+            double droppedRowMass = 0;
+            DropTolerance dropTolerance = epilogue.dropTolerance;
+            if (dropTolerance != null) {
+                if (magnitudes.length < length) {
+                    magnitudes = new double[length];
+                }
+                double threshold = dropTolerance.getThreshold(values, offset,
+                        length, magnitudes);
+                long keptAtThreshold = dropTolerance.getKeptAtThreshold(
+                        values, offset, length, threshold);
+                for (int index = offset; index < end; ++index) {
+                    double value = values[index];
+                    double magnitude = Math.abs(value);
+                    if (value == 0 || magnitude > threshold) {
+                        continue;
+                    }
+                    if (magnitude == threshold && keptAtThreshold > 0) {
+                        keptAtThreshold--;
+                        continue;
+                    }
+
+                    values[index] = 0;
+                    rowSum -= value;
+                    droppedRowMass += magnitude;
+                    dropped++;
+                }
+            }
+
+            double scale = 1;
+            if (epilogue.stabilizeRowsTo != MatrixPowerer.NO_STABILIZE) {
+                scale = epilogue.getScale(rowSum);
+                DenseKernels.get().scale(scale, values, offset, length);
+            }
+
+            record(clamped, minimalClamped, rowSum, dropped, droppedRowMass);
+            return scale;
+        }
+
+        /**
+         * Applies the epilogue to the row, whose entries are values[cols[i]]
+         * for i < count.
+         */
+        void apply(double[] values, int[] cols, int count) {
+            if (epilogue.dropTolerance != null) {
+                // the tolerances need the row in one piece
+                if (row.length < count) {
+                    row = new double[count];
+                }
+                for (int i = 0; i < count; ++i) {
+                    row[i] = values[cols[i]];
+                }
+                apply(row, 0, count);
+                for (int i = 0; i < count; ++i) {
+                    values[cols[i]] = row[i];
+                }
+                return;
+            }
+
+            int clamped = 0;
+            double minimalClamped = 0;
+            double rowSum = 0;
+            for (int i = 0; i < count; ++i) {
+                double value = values[cols[i]];
+                if (epilogue.setNegativeEntriesToZero && value < 0) {
+                    minimalClamped = Math.min(minimalClamped, value);
+                    values[cols[i]] = 0;
+                    clamped++;
+                } else {
+                    rowSum += value;
+                }
+            }
+
+            if (epilogue.stabilizeRowsTo != MatrixPowerer.NO_STABILIZE) {
+                double scale = epilogue.getScale(rowSum);
+                for (int i = 0; i < count; ++i) {
+                    values[cols[i]] *= scale;
+                }
+            }
+
+            record(clamped, minimalClamped, rowSum, 0, 0);
+        }
+
+        private void record(int clamped, double minimalClamped,
+                double rowSum, int dropped, double droppedRowMass) {
+            rows++;
+            clampedEntries += clamped;
+            minimalClampedEntry = Math.min(minimalClampedEntry,
+                    minimalClamped);
+            minimalRowSum = Math.min(minimalRowSum, rowSum);
+            maximalRowSum = Math.max(maximalRowSum, rowSum);
+            droppedEntries += dropped;
+            droppedMass += droppedRowMass;
+            maximalDroppedRowMass = Math.max(maximalDroppedRowMass,
+                    droppedRowMass);
+        }
+
+        /**
+         * Adds the statistics of the rows to the epilogue. The chunk may be
+         * used for further rows afterwards.
+         */
+        void finish() {
+            epilogue.record(this);
+            rows = 0;
+            clampedEntries = 0;
+            minimalClampedEntry = 0;
+            minimalRowSum = Double.POSITIVE_INFINITY;
+            maximalRowSum = Double.NEGATIVE_INFINITY;
+            droppedEntries = 0;
+            droppedMass = 0;
+            maximalDroppedRowMass = 0;
+        }
+    }
+}
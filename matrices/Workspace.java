@@ -0,0 +1,343 @@
+package matrices;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the temporary matrices and arrays of the Strassen and Winograd
+ * algorithms for reuse. Every thread has its own workspace, whose lock is only
+ * contended by {@link #clear()}. Released buffers stay in the workspace of the
+ * releasing thread, so repeated multiplications of the same size, e.g. the
+ * squarings of {@link MatrixPowerer}, allocate their temporaries only once. A
+ * workspace keeps at most {@link #getByteLimit()} bytes: if a released buffer
+ * does not fit, the buffers of the least recently used shapes are dropped.
+ * {@link #clear()} drops the buffers of all threads, also of the fork/join
+ * workers, which outlive the multiplications. A fork/join worker may take up
+ * another task while it waits for a join: this is safe, since every task only
+ * releases the buffers it acquired.
+ */
+public class Workspace {
+
+    // enough for the temporaries of a Strassen multiplication of 2048x2048
+    // dense matrices
+    private static final long DEFAULT_BYTE_LIMIT = 128L << 20;
+
+    private static final ThreadLocal<Workspace> WORKSPACES = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            Workspace workspace = new Workspace(Thread.currentThread());
+            ALL_WORKSPACES.add(workspace);
+            return workspace;
+        }
+    };
+
+    // the workspaces of all threads, so clear() reaches the pool workers
+    private static final ConcurrentLinkedQueue<Workspace> ALL_WORKSPACES = new ConcurrentLinkedQueue<Workspace>();
+
+    private static volatile long byteLimit = DEFAULT_BYTE_LIMIT;
+
+    private static final AtomicLong allocations = new AtomicLong();
+    private static final AtomicLong reuses = new AtomicLong();
+
+    // few different shapes are in use at the same time, so a list is searched
+    private final List<MatrixPool> matrixPools = new ArrayList<MatrixPool>();
+    private final List<ArrayPool> arrayPools = new ArrayList<ArrayPool>();
+
+    private final Thread owner;
+
+    // bytes of all free buffers and a clock for the last use of the pools
+    private long keptBytes = 0;
+    private long uses = 0;
+
+    private Workspace(Thread owner) {
+        this.owner = owner;
+    }
+
+    static Workspace get() {
+        return WORKSPACES.get();
+    }
+
+    /**
+     * Returns a zero matrix of the storage type of prototype.
+     */
+    synchronized Matrix acquire(Matrix prototype, int rows, int cols) {
+        MatrixPool pool = getMatrixPool(prototype.getClass(), rows, cols);
+        pool.lastUse = ++uses;
+        if (pool.free.isEmpty()) {
+            allocations.incrementAndGet();
+            return prototype.getNewInstance(rows, cols);
+        }
+
+        reuses.incrementAndGet();
+        keptBytes -= pool.bytes.pop();
+        return pool.free.pop();
+    }
+
+    /**
+     * Gives a matrix back to this workspace. The matrix must not be used
+     * afterwards.
+     */
+    synchronized void release(Matrix matrix) {
+        // a cleared sparse matrix keeps the storage of its entries
+        long bytes = PowerCache.getBytes(matrix);
+        matrix.clear();
+        MatrixPool pool = getMatrixPool(matrix.getClass(), matrix.getRows(),
+                matrix.getCols());
+        pool.lastUse = ++uses;
+        if (makeRoomFor(bytes)) {
+            pool.free.push(matrix);
+            pool.bytes.push(bytes);
+            keptBytes += bytes;
+        }
+    }
+
+    /**
+     * Allocates count zero matrices of the given shape in advance.
+     */
+    synchronized void reserve(Matrix prototype, int rows, int cols,
+            int count) {
+        MatrixPool pool = getMatrixPool(prototype.getClass(), rows, cols);
+        pool.lastUse = ++uses;
+        while (pool.free.size() < count) {
+            Matrix matrix = prototype.getNewInstance(rows, cols);
+            long bytes = PowerCache.getBytes(matrix);
+            if (keptBytes + bytes > byteLimit) {
+                // the missing buffers are allocated, when they are needed
+                return;
+            }
+
+            allocations.incrementAndGet();
+            pool.free.push(matrix);
+            pool.bytes.push(bytes);
+            keptBytes += bytes;
+        }
+    }
+
+    /**
+     * Returns an array of the given length with arbitrary content.
+     */
+    synchronized double[] acquireArray(int length) {
+        ArrayPool pool = getArrayPool(length);
+        pool.lastUse = ++uses;
+        if (pool.free.isEmpty()) {
+            allocations.incrementAndGet();
+            return new double[length];
+        }
+
+        reuses.incrementAndGet();
+        keptBytes -= 8L * length;
+        return pool.free.pop();
+    }
+
+    synchronized void releaseArray(double[] array) {
+        ArrayPool pool = getArrayPool(array.length);
+        pool.lastUse = ++uses;
+        if (makeRoomFor(8L * array.length)) {
+            pool.free.push(array);
+            keptBytes += 8L * array.length;
+        }
+    }
+
+    /**
+     * Drops the buffers of the least recently used pools, until bytes more
+     * fit into the limit. Returns false, if they do not fit at all.
+     */
+    private boolean makeRoomFor(long bytes) {
+        long limit = byteLimit;
+        if (bytes > limit) {
+            return false;
+        }
+
+        while (keptBytes + bytes > limit) {
+            Pool oldest = null;
+            for (Pool pool : getPools()) {
+                if (pool.size() > 0
+                        && (oldest == null || pool.lastUse < oldest.lastUse)) {
+                    oldest = pool;
+                }
+            }
+            keptBytes -= oldest.drop();
+        }
+
+        return true;
+    }
+
+    private List<Pool> getPools() {
+        List<Pool> result = new ArrayList<Pool>(matrixPools);
+        result.addAll(arrayPools);
+        return result;
+    }
+
+    private MatrixPool getMatrixPool(Class<?> type, int rows, int cols) {
+        for (int i = 0; i < matrixPools.size(); ++i) {
+            MatrixPool pool = matrixPools.get(i);
+            if (pool.type == type && pool.rows == rows && pool.cols == cols) {
+                return pool;
+            }
+        }
+
+        MatrixPool pool = new MatrixPool(type, rows, cols);
+        matrixPools.add(pool);
+        return pool;
+    }
+
+    private ArrayPool getArrayPool(int length) {
+        for (int i = 0; i < arrayPools.size(); ++i) {
+            ArrayPool pool = arrayPools.get(i);
+            if (pool.length == length) {
+                return pool;
+            }
+        }
+
+        ArrayPool pool = new ArrayPool(length);
+        arrayPools.add(pool);
+        return pool;
+    }
+
+    /**
+     * Drops all buffers kept by the workspaces of all threads and forgets the
+     * workspaces of finished threads. Should not be called during a
+     * multiplication, which would allocate its temporaries again.
+     */
+    public static void clear() {
+        Iterator<Workspace> iterator = ALL_WORKSPACES.iterator();
+        while (iterator.hasNext()) {
+            Workspace workspace = iterator.next();
+            workspace.drop();
+            if (!workspace.owner.isAlive()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private synchronized void drop() {
+        matrixPools.clear();
+        arrayPools.clear();
+        keptBytes = 0;
+    }
+
+    /**
+     * Returns the bytes of the buffers kept by all workspaces.
+     */
+    public static long getKeptBytes() {
+        long result = 0;
+        for (Workspace workspace : ALL_WORKSPACES) {
+            synchronized (workspace) {
+                result += workspace.keptBytes;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the maximal number of bytes, which the workspace of one thread
+     * keeps.
+     */
+    public static long getByteLimit() {
+        return byteLimit;
+    }
+
+    /**
+     * Sets the byte limit of every workspace. Workspaces above a lowered
+     * limit drop buffers, when they release the next one.
+     */
+    public static void setByteLimit(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        byteLimit = limit;
+    }
+
+    /**
+     * Returns the number of buffers allocated by all workspaces.
+     */
+    public static long getAllocationCount() {
+        return allocations.get();
+    }
+
+    /**
+     * Returns the number of requests of all workspaces, which were served by a
+     * released buffer.
+     */
+    public static long getReuseCount() {
+        return reuses.get();
+    }
+
+    public static void resetCounts() {
+        allocations.set(0);
+        reuses.set(0);
+    }
+
+    public static String getStatus() {
+        return "WORKSPACE ALLOCATIONS: " + getAllocationCount() + ", REUSES: "
+                + getReuseCount() + ", KEPT BYTES: " + getKeptBytes();
+    }
+
+    private abstract static class Pool {
+        long lastUse;
+
+        abstract int size();
+
+        /**
+         * Drops all free buffers and returns their bytes.
+         */
+        abstract long drop();
+    }
+
+    private static class MatrixPool extends Pool {
+        private final Class<?> type;
+        private final int rows, cols;
+        private final ArrayDeque<Matrix> free = new ArrayDeque<Matrix>();
+        // the bytes of the matrices in free, in the same order
+        private final ArrayDeque<Long> bytes = new ArrayDeque<Long>();
+
+        private MatrixPool(Class<?> type, int rows, int cols) {
+            this.type = type;
+            this.rows = rows;
+            this.cols = cols;
+        }
+
+        @Override
+        int size() {
+            return free.size();
+        }
+
+        @Override
+        long drop() {
+            long result = 0;
+            for (long matrixBytes : bytes) {
+                result += matrixBytes;
+            }
+            free.clear();
+            bytes.clear();
+            return result;
+        }
+    }
+
+    private static class ArrayPool extends Pool {
+        private final int length;
+        private final ArrayDeque<double[]> free = new ArrayDeque<double[]>();
+
+        private ArrayPool(int length) {
+            this.length = length;
+        }
+
+        @Override
+        int size() {
+            return free.size();
+        }
+
+        @Override
+        long drop() {
+            long result = 8L * length * free.size();
+            free.clear();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package tests;
+
+import java.util.Random;
+
+import matrices.BitMatrix;
+
+/**
+ * Compares {@link BitMatrix#power(long)},
+ * {@link BitMatrix#getPrimitivityExponent()},
+ * {@link BitMatrix#isIrreducible()} and {@link BitMatrix#getPeriod()} on
+ * random patterns with repeated boolean multiplication of plain arrays.
+ */
+public class BitMatrixTest {
+
+    private static final int PATTERNS = 500;
+    private static final int MAX_SIZE = 12;
+    private static final int MAX_EXPONENT = 40;
+
+    public static void main(String[] args) {
+        Random random = new Random(24);
+        int failures = 0;
+        int primitive = 0;
+        int irreducible = 0;
+
+        for (int pattern = 0; pattern < PATTERNS; ++pattern) {
+            int size = 1 + random.nextInt(MAX_SIZE);
+            boolean[][] arr = createPattern(random, size,
+                    random.nextDouble() * 0.4);
+            BitMatrix matrix = toBitMatrix(arr);
+
+            // this^0 is the identity
+            boolean[][] power = toBooleans(matrix.getOne());
+            for (int exponent = 0; exponent <= MAX_EXPONENT; ++exponent) {
+                if (!matrix.power(exponent).equals(toBitMatrix(power))) {
+                    failures++;
+                    System.out.println("POWER " + exponent + " FAILED:\n"
+                            + matrix);
+                }
+                power = multiply(power, arr);
+            }
+
+            long expectedExponent = getPrimitivityExponent(arr);
+            if (matrix.getPrimitivityExponent() != expectedExponent) {
+                failures++;
+                System.out.println("PRIMITIVITY EXPONENT "
+                        + matrix.getPrimitivityExponent() + " INSTEAD OF "
+                        + expectedExponent + ":\n" + matrix);
+            }
+            if (expectedExponent != BitMatrix.NOT_PRIMITIVE) {
+                primitive++;
+            }
+
+            boolean expectedIrreducible = isIrreducible(arr);
+            if (matrix.isIrreducible() != expectedIrreducible) {
+                failures++;
+                System.out.println("IRREDUCIBILITY FAILED:\n" + matrix);
+            }
+            if (!expectedIrreducible) {
+                continue;
+            }
+            irreducible++;
+
+            int expectedPeriod = getPeriod(arr);
+            // a single state without a loop has no cycle
+            if (expectedPeriod != 0 && matrix.getPeriod() != expectedPeriod) {
+                failures++;
+                System.out.println("PERIOD " + matrix.getPeriod()
+                        + " INSTEAD OF " + expectedPeriod + ":\n" + matrix);
+            }
+        }
+
+        System.out.println("PATTERNS: " + PATTERNS + ", IRREDUCIBLE: "
+                + irreducible + ", PRIMITIVE: " + primitive);
+        if (failures > 0) {
+            throw new IllegalStateException(failures + " CHECKS FAILED");
+        }
+        System.out.println("ALL CHECKS PASSED");
+    }
+
+    private static boolean[][] createPattern(Random random, int size,
+            double density) {
+        boolean[][] result = new boolean[size][size];
+        for (int row = 0; row < size; ++row) {
+            for (int col = 0; col < size; ++col) {
+                result[row][col] = random.nextDouble() < density;
+            }
+        }
+
+        return result;
+    }
+
+    private static BitMatrix toBitMatrix(boolean[][] arr) {
+        BitMatrix result = new BitMatrix(arr.length, arr.length);
+        for (int row = 0; row < arr.length; ++row) {
+            for (int col = 0; col < arr.length; ++col) {
+                if (arr[row][col]) {
+                    result.put(row, col);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean[][] toBooleans(BitMatrix matrix) {
+        boolean[][] result = new boolean[matrix.getRows()][matrix.getCols()];
+        for (int row = 0; row < matrix.getRows(); ++row) {
+            for (int col = 0; col < matrix.getCols(); ++col) {
+                result[row][col] = matrix.get(row, col);
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean[][] multiply(boolean[][] left, boolean[][] right) {
+        int size = left.length;
+        boolean[][] result = new boolean[size][size];
+        for (int row = 0; row < size; ++row) {
+            for (int col = 0; col < size; ++col) {
+                for (int k = 0; k < size && !result[row][col]; ++k) {
+                    result[row][col] = left[row][k] && right[k][col];
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean isPositive(boolean[][] arr) {
+        for (boolean[] row : arr) {
+            for (boolean entry : row) {
+                if (!entry) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the smallest k > 0 with a positive arr^k: a primitive matrix
+     * has one up to Wielandt's bound (n - 1)^2 + 1.
+     */
+    private static long getPrimitivityExponent(boolean[][] arr) {
+        long bound = (long) (arr.length - 1) * (arr.length - 1) + 1;
+        boolean[][] power = arr;
+        for (long exponent = 1; exponent <= bound; ++exponent) {
+            if (isPositive(power)) {
+                return exponent;
+            }
+            power = multiply(power, arr);
+        }
+
+        return BitMatrix.NOT_PRIMITIVE;
+    }
+
+    /**
+     * Is true, if arr + arr^2 + ... + arr^n has no zero entry outside of the
+     * diagonal.
+     */
+    private static boolean isIrreducible(boolean[][] arr) {
+        int size = arr.length;
+        boolean[][] reachable = new boolean[size][size];
+        boolean[][] power = arr;
+        for (int exponent = 1; exponent <= size; ++exponent) {
+            for (int row = 0; row < size; ++row) {
+                for (int col = 0; col < size; ++col) {
+                    reachable[row][col] |= power[row][col];
+                }
+            }
+            power = multiply(power, arr);
+        }
+
+        for (int row = 0; row < size; ++row) {
+            for (int col = 0; col < size; ++col) {
+                if (row != col && !reachable[row][col]) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the greatest common divisor of all k <= n, for which arr^k has
+     * a positive diagonal entry: the simple cycles are not longer than n. It
+     * is 0, if there is no cycle.
+     */
+    private static int getPeriod(boolean[][] arr) {
+        int result = 0;
+        boolean[][] power = arr;
+        for (int exponent = 1; exponent <= arr.length; ++exponent) {
+            for (int state = 0; state < arr.length; ++state) {
+                if (power[state][state]) {
+                    result = gcd(result, exponent);
+                    break;
+                }
+            }
+            power = multiply(power, arr);
+        }
+
+        return result;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int remainder = a % b;
+            a = b;
+            b = remainder;
+        }
+
+        return a;
+    }
+}
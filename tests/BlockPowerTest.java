@@ -0,0 +1,135 @@
+package tests;
+
+import java.util.Random;
+
+import matrices.ArrayMatrix;
+import matrices.CrsMatrix;
+import matrices.Matrix;
+import matrices.MatrixMultType;
+import matrices.MatrixPowerer;
+
+/**
+ * Compares {@link MatrixPowerer#blockPower} with
+ * {@link MatrixPowerer#logPower} on reducible chains, whose states are
+ * shuffled, so the block triangular form has to be found first.
+ */
+public class BlockPowerTest {
+
+    private static final double TOLERANCE = 1e-12;
+
+    private static final MatrixMultType[] MULT_TYPES = { MatrixMultType.NAIVE,
+            MatrixMultType.PARALLEL_NAIVE,
+            MatrixMultType.STRASSEN_NAIVE_HYBRID, MatrixMultType.AUTO };
+
+    private static final long[] EXPONENTS = { 0, 1, 2, 7, 64, 1000 };
+
+    public static void main(String[] args) {
+        Random random = new Random(25);
+        int failures = 0;
+
+        for (MatrixMultType multType : MULT_TYPES) {
+            Matrix chain = createReducibleChain(random,
+                    new int[] { 70, 5, 90, 3 }, 80, 0.05);
+
+            for (long exponent : EXPONENTS) {
+                Matrix expected = MatrixPowerer.logPower(new ArrayMatrix(
+                        chain), MatrixMultType.NAIVE, (int) exponent, 1.0,
+                        true);
+                Matrix actual = MatrixPowerer.blockPower(new CrsMatrix(chain),
+                        multType, exponent, 1.0, true);
+
+                double difference = getMaxDifference(expected, actual);
+                boolean failed = !(difference <= TOLERANCE);
+                if (failed) {
+                    failures++;
+                }
+                System.out.println(multType + ", EXPONENT " + exponent
+                        + ": MAXIMAL DIFFERENCE " + difference
+                        + (failed ? " FAILED" : ""));
+            }
+        }
+
+        if (failures > 0) {
+            throw new IllegalStateException(failures + " CHECKS FAILED");
+        }
+        System.out.println("ALL CHECKS PASSED");
+    }
+
+    /**
+     * Returns a stochastic matrix of transientStates transient states, which
+     * lead to closed classes of the given sizes. Every closed class is a
+     * cycle with self loops and random entries of the given density, the
+     * states are shuffled.
+     */
+    private static Matrix createReducibleChain(Random random,
+            int[] classSizes, int transientStates, double density) {
+        int size = transientStates;
+        for (int classSize : classSizes) {
+            size += classSize;
+        }
+
+        int[] state = new int[size];
+        for (int i = 0; i < size; ++i) {
+            state[i] = i;
+        }
+        for (int i = size - 1; i > 0; --i) {
+            int j = random.nextInt(i + 1);
+            int swap = state[i];
+            state[i] = state[j];
+            state[j] = swap;
+        }
+
+        double[][] arr = new double[size][size];
+        int start = transientStates;
+        for (int classSize : classSizes) {
+            for (int i = 0; i < classSize; ++i) {
+                int from = state[start + i];
+                arr[from][state[start + (i + 1) % classSize]] += 1;
+                arr[from][from] += 0.5;
+                for (int j = 0; j < classSize; ++j) {
+                    if (random.nextDouble() < density) {
+                        arr[from][state[start + j]] += random.nextDouble();
+                    }
+                }
+            }
+            start += classSize;
+        }
+
+        for (int i = 0; i < transientStates; ++i) {
+            int from = state[i];
+            // only later states, so the transient states form no cycle
+            for (int j = i + 1; j < size; ++j) {
+                if (random.nextDouble() < density / 2) {
+                    arr[from][state[j]] += random.nextDouble();
+                }
+            }
+            arr[from][state[transientStates
+                    + random.nextInt(size - transientStates)]] += 0.3;
+            arr[from][from] += 0.2;
+        }
+
+        for (int row = 0; row < size; ++row) {
+            double rowSum = 0;
+            for (double entry : arr[row]) {
+                rowSum += entry;
+            }
+            for (int col = 0; col < size; ++col) {
+                arr[row][col] /= rowSum;
+            }
+        }
+
+        return new ArrayMatrix(arr, false);
+    }
+
+    private static double getMaxDifference(Matrix expected, Matrix actual) {
+        double result = 0;
+        for (int row = 0; row < expected.getRows(); ++row) {
+            for (int col = 0; col < expected.getCols(); ++col) {
+                result = Math.max(result, Math.abs(expected.get(row, col)
+                        - actual.get(row, col)));
+            }
+        }
+
+        return result;
+    }
+}
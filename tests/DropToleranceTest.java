@@ -0,0 +1,152 @@
+package tests;
+
+import java.util.Random;
+
+import matrices.ArrayMatrix;
+import matrices.CrsMatrix;
+import matrices.DropTolerance;
+import matrices.LowRankSparseMatrix;
+import matrices.MapMatrix;
+import matrices.Matrix;
+import matrices.MatrixMultType;
+import matrices.MatrixPowerer;
+import matrices.RowEpilogue;
+
+/**
+ * Checks, that top k keeps the same entries in every storage type, both in
+ * the epilogue of a product and in a separate pass: the k largest entries of
+ * every row and, of equal entries, the ones with the smallest columns.
+ */
+public class DropToleranceTest {
+
+    private static final int RANDOM_MATRICES = 50;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        // [1, 1] times a matrix with the entries (0, 2) and (1, 0): the row
+        // of the product has two equal entries, column 0 has to be kept
+        double[][] left = { { 1, 1 } };
+        double[][] right = { { 0, 0, 1 }, { 1, 0, 0 } };
+        double[][] expected = { { 1, 0, 0 } };
+        for (int k = 1; k <= 2; ++k) {
+            if (k == 2) {
+                expected[0][2] = 1;
+            }
+            checkProducts("TIE", left, right, k, expected);
+        }
+
+        Random random = new Random(22);
+        for (int i = 0; i < RANDOM_MATRICES; ++i) {
+            int rows = 1 + random.nextInt(20);
+            int inner = 1 + random.nextInt(20);
+            int cols = 1 + random.nextInt(40);
+            // small integers give many ties
+            double[][] a = createPattern(random, rows, inner, 0.3);
+            double[][] b = createPattern(random, inner, cols, 0.3);
+            int k = 1 + random.nextInt(5);
+            checkProducts("RANDOM " + i, a, b, k,
+                    getTopK(new ArrayMatrix(a, false).multWith(
+                            new ArrayMatrix(b, false), MatrixMultType.NAIVE),
+                            k));
+        }
+
+        if (failures > 0) {
+            throw new IllegalStateException(failures + " CHECKS FAILED");
+        }
+        System.out.println("ALL CHECKS PASSED");
+    }
+
+    private static void checkProducts(String name, double[][] left,
+            double[][] right, int k, double[][] expected) {
+        ArrayMatrix denseLeft = new ArrayMatrix(left, false);
+        ArrayMatrix denseRight = new ArrayMatrix(right, false);
+        Matrix[] lefts = { new ArrayMatrix(denseLeft),
+                new CrsMatrix(denseLeft), new MapMatrix(denseLeft) };
+        Matrix[] rights = { new ArrayMatrix(denseRight),
+                new CrsMatrix(denseRight), new MapMatrix(denseRight) };
+
+        for (int i = 0; i < lefts.length; ++i) {
+            String type = lefts[i].getClass().getSimpleName();
+            for (MatrixMultType multType : new MatrixMultType[] {
+                    MatrixMultType.NAIVE, MatrixMultType.PARALLEL_NAIVE }) {
+                check(name + ", " + type + " " + multType,
+                        lefts[i].multWith(rights[i], multType, createTopK(k)),
+                        expected);
+            }
+
+            Matrix product = lefts[i].multWith(rights[i],
+                    MatrixMultType.NAIVE);
+            product.applyRowEpilogue(createTopK(k));
+            check(name + ", " + type + " PASS", product, expected);
+        }
+
+        Matrix lowRank = new LowRankSparseMatrix(new double[0][],
+                new double[0][], denseLeft.multWith(denseRight,
+                        MatrixMultType.NAIVE));
+        lowRank.applyRowEpilogue(createTopK(k));
+        check(name + ", LOW RANK PASS", lowRank, expected);
+    }
+
+    private static RowEpilogue createTopK(int k) {
+        return new RowEpilogue(MatrixPowerer.NO_STABILIZE, false,
+                DropTolerance.topK(k));
+    }
+
+    private static void check(String name, Matrix actual,
+            double[][] expected) {
+        for (int row = 0; row < expected.length; ++row) {
+            for (int col = 0; col < expected[row].length; ++col) {
+                if (actual.get(row, col) != expected[row][col]) {
+                    failures++;
+                    System.out.println(name + " FAILED AT (" + row + ", "
+                            + col + "): " + actual.get(row, col)
+                            + " INSTEAD OF " + expected[row][col]);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static double[][] createPattern(Random random, int rows,
+            int cols, double density) {
+        double[][] result = new double[rows][cols];
+        for (int row = 0; row < rows; ++row) {
+            for (int col = 0; col < cols; ++col) {
+                if (random.nextDouble() < density) {
+                    result[row][col] = 1 + random.nextInt(3);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns mat with the k largest entries of every row, of equal entries
+     * the ones with the smallest columns.
+     */
+    private static double[][] getTopK(Matrix mat, int k) {
+        double[][] result = new double[mat.getRows()][mat.getCols()];
+        for (int row = 0; row < mat.getRows(); ++row) {
+            boolean[] kept = new boolean[mat.getCols()];
+            for (int i = 0; i < k; ++i) {
+                int best = -1;
+                for (int col = 0; col < mat.getCols(); ++col) {
+                    double value = Math.abs(mat.get(row, col));
+                    if (!kept[col] && value != 0
+                            && (best < 0 || value > Math.abs(mat.get(row,
+                                    best)))) {
+                        best = col;
+                    }
+                }
+                if (best >= 0) {
+                    kept[best] = true;
+                    result[row][best] = mat.get(row, best);
+                }
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,146 @@
+package tests;
+
+import java.util.Random;
+
+import tools.ExponentiationPlan;
+
+/**
+ * Checks, that every plan of {@link ExponentiationPlan#slidingWindow},
+ * {@link ExponentiationPlan#additionChain} and
+ * {@link ExponentiationPlan#shortest(long, int)} is a valid chain ending at
+ * the exponent, that its last uses and its peak of live matrices are right
+ * and that shortest respects the limit of live matrices.
+ */
+public class ExponentiationPlanTest {
+
+    private static final int MAX_SMALL_EXPONENT = 1000;
+    private static final int RANDOM_EXPONENTS = 100;
+
+    private static final int MAX_WINDOW_BITS = 8;
+
+    // binary exponentiation needs three, so shortest can always respect these
+    private static final int[] MAX_LIVE_MATRICES = { 3, 4, 6 };
+
+    private static int failures = 0;
+    private static int plans = 0;
+
+    public static void main(String[] args) {
+        for (long exponent = 1; exponent <= MAX_SMALL_EXPONENT; ++exponent) {
+            checkAllPlans(exponent);
+        }
+
+        Random random = new Random(17);
+        for (int i = 0; i < RANDOM_EXPONENTS; ++i) {
+            int bits = 1 + random.nextInt(63);
+            checkAllPlans(1 + (random.nextLong() >>> bits));
+        }
+        checkAllPlans(ExponentiationPlan.ADDITION_CHAIN_LIMIT);
+        checkAllPlans(ExponentiationPlan.ADDITION_CHAIN_LIMIT + 1);
+        checkAllPlans(Long.MAX_VALUE);
+
+        System.out.println("PLANS: " + plans);
+        if (failures > 0) {
+            throw new IllegalStateException(failures + " CHECKS FAILED");
+        }
+        System.out.println("ALL CHECKS PASSED");
+    }
+
+    private static void checkAllPlans(long exponent) {
+        for (int bits = 1; bits <= MAX_WINDOW_BITS; ++bits) {
+            check(ExponentiationPlan.slidingWindow(exponent, bits), exponent);
+        }
+
+        // null, if the search is too expensive
+        ExponentiationPlan chain = ExponentiationPlan.additionChain(exponent);
+        if (chain != null) {
+            check(chain, exponent);
+        }
+
+        check(ExponentiationPlan.shortest(exponent), exponent);
+        for (int maxLive : MAX_LIVE_MATRICES) {
+            ExponentiationPlan plan = ExponentiationPlan.shortest(exponent,
+                    maxLive);
+            check(plan, exponent);
+            if (plan.getPeakLiveMatrices() > maxLive) {
+                fail(exponent, plan.getSummary() + " EXCEEDS " + maxLive
+                        + " LIVE MATRICES");
+            }
+        }
+    }
+
+    private static void check(ExponentiationPlan plan, long exponent) {
+        plans++;
+        if (plan.getExponent() != exponent) {
+            fail(exponent, plan.getSummary() + " HAS ANOTHER EXPONENT");
+        }
+        if (plan.getExponentOf(0) != 1) {
+            fail(exponent, plan.getSummary() + " DOES NOT START WITH A");
+        }
+
+        int steps = plan.getMultiplicationCount();
+        if (plan.getValueCount() != steps + 1) {
+            fail(exponent, plan.getSummary() + " HAS " + plan.getValueCount()
+                    + " VALUES");
+            return;
+        }
+
+        int[] lastUses = new int[steps + 1];
+        for (int value = 0; value <= steps; ++value) {
+            lastUses[value] = -1;
+        }
+        for (int step = 0; step < steps; ++step) {
+            int left = plan.getLeft(step);
+            int right = plan.getRight(step);
+            // a step may only read the values of earlier steps
+            if (left < 0 || left > step || right < 0 || right > step) {
+                fail(exponent, plan.getSummary() + ": STEP " + step
+                        + " READS A LATER VALUE");
+                return;
+            }
+            if (plan.getExponentOf(step + 1) != plan.getExponentOf(left)
+                    + plan.getExponentOf(right)) {
+                fail(exponent, plan.getSummary() + ": STEP " + step
+                        + " IS NO SUM");
+            }
+            lastUses[left] = step;
+            lastUses[right] = step;
+        }
+
+        if (plan.getExponentOf(steps) != exponent) {
+            fail(exponent, plan.getSummary() + " ENDS AT A^"
+                    + plan.getExponentOf(steps));
+        }
+        for (int value = 0; value <= steps; ++value) {
+            if (plan.getLastUse(value) != lastUses[value]) {
+                fail(exponent, plan.getSummary() + ": LAST USE OF VALUE "
+                        + value + " IS WRONG");
+            }
+        }
+
+        // value 0 is live from the start, every product from its step on
+        boolean[] live = new boolean[steps + 1];
+        live[0] = true;
+        int liveCount = 1;
+        int peak = 1;
+        for (int step = 0; step < steps; ++step) {
+            live[step + 1] = true;
+            liveCount++;
+            peak = Math.max(peak, liveCount);
+            for (int value = 0; value <= step; ++value) {
+                if (live[value] && lastUses[value] == step) {
+                    live[value] = false;
+                    liveCount--;
+                }
+            }
+        }
+        if (plan.getPeakLiveMatrices() != peak) {
+            fail(exponent, plan.getSummary() + " NEEDS " + peak
+                    + " LIVE MATRICES");
+        }
+    }
+
+    private static void fail(long exponent, String message) {
+        failures++;
+        System.out.println("EXPONENT " + exponent + ": " + message);
+    }
+}
@@ -41,6 +41,7 @@ public class MultTest {
 
     public static void main(String[] args) {
         System.out.println("MACHINE EPSILON:\t " + MACHINE_EPSILON);
+        System.out.println("DENSE KERNELS:\t\t " + ArrayMatrix.getKernelName());
 
         Map<Integer, String> matrixStorageTypeIds = setUpStringMaps();
 
@@ -242,6 +243,8 @@ public class MultTest {
         // multTypesToCalculate.add(MatrixMultType.WINOGRAD);
         // multTypesToCalculate.add(MatrixMultType.STRASSEN_NAIVE_HYBRID);
         // multTypesToCalculate.add(MatrixMultType.PARALLEL_STRASSEN_NAIVE_HYBRID);
+        multTypesToCalculate.add(MatrixMultType.PARALLEL_STRASSEN_WINOGRAD_HYBRID);
+        multTypesToCalculate.add(MatrixMultType.AUTO);
         // matrixStorageTypesToCalculate.add(0); // MAP
         matrixStorageTypesToCalculate.add(1); // ARRAY
         // matrixStorageTypesToCalculate.add(2); // CRS
@@ -0,0 +1,408 @@
+package tools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Is a schedule of multiplications, which calculates the power A^exponent
+ * from A. Value 0 is A, step s multiplies two earlier values and produces
+ * value s + 1. The last value is the power.
+ *
+ * Plans are built by binary exponentiation, by sliding windows of odd powers
+ * or by a search for a shortest star addition chain. Fewer multiplications
+ * usually need more matrices at the same time, see
+ * {@link #getPeakLiveMatrices()}.
+ */
+public class ExponentiationPlan {
+
+    // the addition chain search is skipped for larger exponents
+    public static final long ADDITION_CHAIN_LIMIT = 1L << 16;
+
+    private static final long ADDITION_CHAIN_MAX_NODES = 1L << 16;
+
+    private static final int MAX_WINDOW_BITS = 8;
+
+    private final long exponent;
+    private final String strategy;
+
+    // the exponent of every value
+    private final long[] exponents;
+
+    // the factors of every step
+    private final int[] lefts, rights;
+
+    // the last step reading every value, -1 for unused values
+    private final int[] lastUses;
+
+    private final int peakLiveMatrices;
+
+    public static void main(String[] args) {
+        long[] tests = { 15, 23, 1023, 1024, 12509, 1L << 40 | 12345 };
+
+        for (long exponent : tests) {
+            System.out.println(binary(exponent).getSummary());
+            System.out.println(slidingWindow(exponent, 4).getSummary());
+            System.out.println(shortest(exponent).getSummary());
+            System.out.println(shortest(exponent, 3).getSummary() + "\n");
+        }
+
+        System.out.println(shortest(23));
+    }
+
+    private ExponentiationPlan(long exponent, String strategy,
+            List<Long> exponents, List<int[]> steps) {
+        this.exponent = exponent;
+        this.strategy = strategy;
+
+        this.exponents = new long[exponents.size()];
+        for (int value = 0; value < exponents.size(); ++value) {
+            this.exponents[value] = exponents.get(value);
+        }
+
+        lefts = new int[steps.size()];
+        rights = new int[steps.size()];
+        lastUses = new int[exponents.size()];
+        for (int value = 0; value < lastUses.length; ++value) {
+            lastUses[value] = -1;
+        }
+        for (int step = 0; step < steps.size(); ++step) {
+            lefts[step] = steps.get(step)[0];
+            rights[step] = steps.get(step)[1];
+            lastUses[lefts[step]] = step;
+            lastUses[rights[step]] = step;
+        }
+
+        // A is live until its last use, every product from its step on
+        int live = 1;
+        int peak = 1;
+        for (int step = 0; step < lefts.length; ++step) {
+            live++;
+            peak = Math.max(peak, live);
+            if (lastUses[lefts[step]] == step) {
+                live--;
+            }
+            if (rights[step] != lefts[step] && lastUses[rights[step]] == step) {
+                live--;
+            }
+        }
+        peakLiveMatrices = peak;
+    }
+
+    public long getExponent() {
+        return exponent;
+    }
+
+    public String getStrategy() {
+        return strategy;
+    }
+
+    public int getMultiplicationCount() {
+        return lefts.length;
+    }
+
+    public int getSquaringCount() {
+        int result = 0;
+        for (int step = 0; step < lefts.length; ++step) {
+            if (lefts[step] == rights[step]) {
+                result++;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the largest number of matrices, which are needed at the same
+     * time, if every value is dropped after its last use. A product is
+     * counted together with its factors.
+     */
+    public int getPeakLiveMatrices() {
+        return peakLiveMatrices;
+    }
+
+    public int getValueCount() {
+        return exponents.length;
+    }
+
+    public long getExponentOf(int value) {
+        return exponents[value];
+    }
+
+    public int getLeft(int step) {
+        return lefts[step];
+    }
+
+    public int getRight(int step) {
+        return rights[step];
+    }
+
+    /**
+     * Returns the last step reading value, or -1 if the value is not read.
+     */
+    public int getLastUse(int value) {
+        return lastUses[value];
+    }
+
+    /**
+     * Returns the plan of binary exponentiation from the highest bit on.
+     */
+    public static ExponentiationPlan binary(long exponent) {
+        return slidingWindow(exponent, 1);
+    }
+
+    /**
+     * Returns the plan of sliding window exponentiation: the odd powers up to
+     * A^(2^windowBits - 1) are calculated first, then every window of at most
+     * windowBits bits, which starts and ends with a set bit, costs one
+     * multiplication.
+     */
+    public static ExponentiationPlan slidingWindow(long exponent,
+            int windowBits) {
+        if (windowBits < 1 || windowBits > MAX_WINDOW_BITS) {
+            throw new IllegalArgumentException("WINDOW MUST HAVE 1 TO "
+                    + MAX_WINDOW_BITS + " BITS");
+        }
+        Builder builder = new Builder(exponent);
+        if (exponent <= 1) {
+            return builder.build(windowBits == 1 ? "BINARY" : "WINDOW "
+                    + windowBits);
+        }
+
+        // the windows from the highest bit on: { value, length }
+        List<long[]> windows = new ArrayList<long[]>();
+        long maxOdd = 1;
+        int bit = 63 - Long.numberOfLeadingZeros(exponent);
+        while (bit >= 0) {
+            if (((exponent >> bit) & 1) == 0) {
+                windows.add(new long[] { 0, 1 });
+                bit--;
+                continue;
+            }
+            int low = Math.max(0, bit - windowBits + 1);
+            while (((exponent >> low) & 1) == 0) {
+                low++;
+            }
+            long window = (exponent >> low) & ((1L << (bit - low + 1)) - 1);
+            windows.add(new long[] { window, bit - low + 1 });
+            maxOdd = Math.max(maxOdd, window);
+            bit = low - 1;
+        }
+
+        int[] odd = new int[(int) (maxOdd / 2) + 1];
+        odd[0] = 0;
+        if (maxOdd > 1) {
+            int square = builder.multiply(0, 0);
+            for (int j = 1; j < odd.length; ++j) {
+                odd[j] = builder.multiply(odd[j - 1], square);
+            }
+        }
+
+        int result = -1;
+        for (long[] window : windows) {
+            if (result >= 0) {
+                for (int i = 0; i < window[1]; ++i) {
+                    result = builder.multiply(result, result);
+                }
+            }
+            if (window[0] != 0) {
+                int factor = odd[(int) (window[0] / 2)];
+                result = result < 0 ? factor : builder.multiply(result,
+                        factor);
+            }
+        }
+
+        return builder.build(windowBits == 1 ? "BINARY" : "WINDOW "
+                + windowBits);
+    }
+
+    /**
+     * Returns the plan of a shortest star addition chain, in which every
+     * element is the sum of the previous element and an earlier one, or null
+     * if the search is too expensive.
+     */
+    public static ExponentiationPlan additionChain(long exponent) {
+        if (exponent < 1) {
+            throw new IllegalArgumentException();
+        }
+        if (exponent > ADDITION_CHAIN_LIMIT) {
+            return null;
+        }
+
+        int lowerBound = 63 - Long.numberOfLeadingZeros(exponent);
+        int upperBound = binary(exponent).getMultiplicationCount();
+        ChainSearch search = new ChainSearch(exponent);
+        for (int length = lowerBound; length <= upperBound; ++length) {
+            long[] chain = search.find(length);
+            if (search.nodes > ADDITION_CHAIN_MAX_NODES) {
+                return null;
+            }
+            if (chain != null) {
+                Builder builder = new Builder(exponent);
+                int[] values = new int[chain.length];
+                for (int i = 1; i < chain.length; ++i) {
+                    int other = i - 1;
+                    while (chain[other] != chain[i] - chain[i - 1]) {
+                        other--;
+                    }
+                    values[i] = builder.multiply(values[i - 1], values[other]);
+                }
+
+                return builder.build("ADDITION CHAIN");
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the plan with the fewest multiplications of all strategies.
+     */
+    public static ExponentiationPlan shortest(long exponent) {
+        return shortest(exponent, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the plan with the fewest multiplications, which needs at most
+     * maxLiveMatrices matrices at the same time. Binary exponentiation needs
+     * at most three.
+     */
+    public static ExponentiationPlan shortest(long exponent,
+            int maxLiveMatrices) {
+        ExponentiationPlan best = binary(exponent);
+        for (int bits = 2; bits <= MAX_WINDOW_BITS; ++bits) {
+            best = better(best, slidingWindow(exponent, bits),
+                    maxLiveMatrices);
+        }
+        if (exponent >= 1) {
+            best = better(best, additionChain(exponent), maxLiveMatrices);
+        }
+
+        return best;
+    }
+
+    private static ExponentiationPlan better(ExponentiationPlan best,
+            ExponentiationPlan candidate, int maxLiveMatrices) {
+        if (candidate == null
+                || candidate.getPeakLiveMatrices() > maxLiveMatrices) {
+            return best;
+        }
+        if (candidate.getMultiplicationCount() < best
+                .getMultiplicationCount()
+                || candidate.getMultiplicationCount() == best
+                        .getMultiplicationCount()
+                && candidate.getPeakLiveMatrices() < best
+                        .getPeakLiveMatrices()) {
+            return candidate;
+        }
+
+        return best;
+    }
+
+    public String getSummary() {
+        return "EXPONENT " + exponent + " BY " + strategy + ": "
+                + getMultiplicationCount() + " MULTIPLICATIONS ("
+                + getSquaringCount() + " SQUARINGS), " + peakLiveMatrices
+                + " LIVE MATRICES";
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(getSummary());
+        for (int step = 0; step < lefts.length; ++step) {
+            result.append("\nA^").append(exponents[step + 1]).append(" = A^")
+                    .append(exponents[lefts[step]]).append(" * A^")
+                    .append(exponents[rights[step]]);
+        }
+
+        return result.toString();
+    }
+
+    private static class Builder {
+        private final long exponent;
+        private final List<Long> exponents = new ArrayList<Long>();
+        private final List<int[]> steps = new ArrayList<int[]>();
+        private final Map<Long, Integer> values = new HashMap<Long, Integer>();
+
+        private Builder(long exponent) {
+            if (exponent < 0) {
+                throw new IllegalArgumentException();
+            }
+
+            this.exponent = exponent;
+            exponents.add(1L);
+            values.put(1L, 0);
+        }
+
+        /**
+         * Returns the value of the product of two values, which is only added
+         * if it is not known yet.
+         */
+        private int multiply(int left, int right) {
+            long product = exponents.get(left) + exponents.get(right);
+            Integer known = values.get(product);
+            if (known != null) {
+                return known;
+            }
+
+            exponents.add(product);
+            steps.add(new int[] { left, right });
+            values.put(product, exponents.size() - 1);
+            return exponents.size() - 1;
+        }
+
+        private ExponentiationPlan build(String strategy) {
+            if (exponent > 0 && exponents.get(exponents.size() - 1) != exponent) {
+                throw new IllegalStateException("PLAN DOES NOT REACH EXPONENT");
+            }
+
+            return new ExponentiationPlan(exponent, strategy, exponents, steps);
+        }
+    }
+
+    /**
+     * Searches star addition chains of a given length depth first. A chain
+     * is cut, when doubling its last element in every remaining step does not
+     * reach the target.
+     */
+    private static class ChainSearch {
+        private final long target;
+        private long[] chain;
+        private long nodes;
+
+        private ChainSearch(long target) {
+            this.target = target;
+        }
+
+        private long[] find(int length) {
+            chain = new long[length + 1];
+            chain[0] = 1;
+            return search(1, length) ? chain : null;
+        }
+
+        private boolean search(int index, int length) {
+            long last = chain[index - 1];
+            if (last == target) {
+                return index == length + 1;
+            }
+            if (index > length || last << (length - index + 1) < target
+                    || nodes++ > ADDITION_CHAIN_MAX_NODES) {
+                return false;
+            }
+
+            for (int other = index - 1; other >= 0; --other) {
+                long next = last + chain[other];
+                if (next > target) {
+                    continue;
+                }
+                chain[index] = next;
+                if (search(index + 1, length)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
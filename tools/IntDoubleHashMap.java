@@ -0,0 +1,203 @@
+package tools;
+
+import java.util.Arrays;
+
+/**
+ * Maps non-negative int keys to double values without boxing. The entries are
+ * kept in two parallel arrays with open addressing and linear probing; removed
+ * entries are closed by shifting the following entries back, so there are no
+ * tombstones. An entry costs 12 bytes per slot.
+ * 
+ * The entries can be iterated over the slots 0, ..., getCapacity() - 1: a slot
+ * is used if {@link #isUsedSlot(int)} returns true. This implementation is not
+ * thread-safe!
+ */
+public class IntDoubleHashMap {
+
+    private static final int FREE = -1;
+    private static final int MIN_CAPACITY = 4;
+
+    // the table is enlarged when it is filled to more than 3/4
+    private static final int MAX_LOAD_NUMERATOR = 3;
+    private static final int MAX_LOAD_DENOMINATOR = 4;
+
+    private int[] keys;
+    private double[] values;
+    private int size;
+    private int mask;
+
+    public IntDoubleHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public IntDoubleHashMap(int expectedSize) {
+        initWithCapacity(capacityFor(expectedSize));
+    }
+
+    public IntDoubleHashMap(IntDoubleHashMap map) {
+        this.keys = Arrays.copyOf(map.keys, map.keys.length);
+        this.values = Arrays.copyOf(map.values, map.values.length);
+        this.size = map.size;
+        this.mask = map.mask;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD_NUMERATOR < expectedSize
+                * MAX_LOAD_DENOMINATOR) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private void initWithCapacity(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, FREE);
+        values = new double[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private int slotOf(int key) {
+        // spread the bits of consecutive keys over the table
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Returns the slot of the key, or -1 if the key is not contained.
+     */
+    private int find(int key) {
+        int slot = slotOf(key);
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return FREE;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return find(key) != FREE;
+    }
+
+    public double get(int key, double defaultValue) {
+        int slot = find(key);
+        return slot == FREE ? defaultValue : values[slot];
+    }
+
+    public void put(int key, double value) {
+        if (key < 0) {
+            throw new IllegalArgumentException();
+        }
+
+        int slot = slotOf(key);
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+
+        if (size * MAX_LOAD_DENOMINATOR > keys.length * MAX_LOAD_NUMERATOR) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    /**
+     * Adds value to the entry of the key; a missing entry counts as zero.
+     */
+    public void add(int key, double value) {
+        int slot = find(key);
+        if (slot == FREE) {
+            put(key, value);
+        } else {
+            values[slot] += value;
+        }
+    }
+
+    /**
+     * Removes the key.
+     * 
+     * @return true if the key was contained.
+     */
+    public boolean remove(int key) {
+        int slot = find(key);
+        if (slot == FREE) {
+            return false;
+        }
+
+        // shift following entries of the probe sequence back
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (keys[next] != FREE) {
+            int home = slotOf(keys[next]);
+            // the entry may fill the hole if its home slot is not in (hole,
+            // next]
+            boolean movable = hole <= next ? (home <= hole || home > next)
+                    : (home <= hole && home > next);
+            if (movable) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = FREE;
+        values[hole] = 0;
+        size--;
+
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        double[] oldValues = values;
+        initWithCapacity(capacity);
+        for (int slot = 0; slot < oldKeys.length; ++slot) {
+            if (oldKeys[slot] != FREE) {
+                put(oldKeys[slot], oldValues[slot]);
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    public boolean isUsedSlot(int slot) {
+        return keys[slot] != FREE;
+    }
+
+    public int getKeyAt(int slot) {
+        return keys[slot];
+    }
+
+    public double getValueAt(int slot) {
+        return values[slot];
+    }
+
+    public void setValueAt(int slot, double value) {
+        values[slot] = value;
+    }
+}
@@ -0,0 +1,109 @@
+package matrices;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implements the dense kernels with the JDK Vector API. This class lies in
+ * the separate source root vector, because it needs
+ * --add-modules jdk.incubator.vector at compile time and at runtime; the
+ * other sources compile without it. It is only loaded by
+ * {@link DenseKernels}, if it has been compiled and the module is present.
+ */
+class VectorKernels extends DenseKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    String getName() {
+        return "VECTOR_" + SPECIES.vectorBitSize();
+    }
+
+    @Override
+    void axpy4(double x0, double x1, double x2, double x3, double[] b,
+            int bOffset, double[] c, int cOffset, int cStride, int length) {
+        int c1 = cOffset + cStride;
+        int c2 = c1 + cStride;
+        int c3 = c2 + cStride;
+        int j = 0;
+        int upperBound = SPECIES.loopBound(length);
+        if (upperBound > 0) {
+            DoubleVector v0 = DoubleVector.broadcast(SPECIES, x0);
+            DoubleVector v1 = DoubleVector.broadcast(SPECIES, x1);
+            DoubleVector v2 = DoubleVector.broadcast(SPECIES, x2);
+            DoubleVector v3 = DoubleVector.broadcast(SPECIES, x3);
+            for (; j < upperBound; j += SPECIES.length()) {
+                DoubleVector y = DoubleVector.fromArray(SPECIES, b,
+                        bOffset + j);
+                y.fma(v0, DoubleVector.fromArray(SPECIES, c, cOffset + j))
+                        .intoArray(c, cOffset + j);
+                y.fma(v1, DoubleVector.fromArray(SPECIES, c, c1 + j))
+                        .intoArray(c, c1 + j);
+                y.fma(v2, DoubleVector.fromArray(SPECIES, c, c2 + j))
+                        .intoArray(c, c2 + j);
+                y.fma(v3, DoubleVector.fromArray(SPECIES, c, c3 + j))
+                        .intoArray(c, c3 + j);
+            }
+        }
+        for (; j < length; ++j) {
+            double y = b[bOffset + j];
+            c[cOffset + j] += x0 * y;
+            c[c1 + j] += x1 * y;
+            c[c2 + j] += x2 * y;
+            c[c3 + j] += x3 * y;
+        }
+    }
+
+    @Override
+    void axpy(double x, double[] b, int bOffset, double[] c, int cOffset,
+            int length) {
+        int j = 0;
+        int upperBound = SPECIES.loopBound(length);
+        if (upperBound > 0) {
+            DoubleVector v = DoubleVector.broadcast(SPECIES, x);
+            for (; j < upperBound; j += SPECIES.length()) {
+                DoubleVector.fromArray(SPECIES, b, bOffset + j)
+                        .fma(v, DoubleVector.fromArray(SPECIES, c, cOffset + j))
+                        .intoArray(c, cOffset + j);
+            }
+        }
+        for (; j < length; ++j) {
+            c[cOffset + j] += x * b[bOffset + j];
+        }
+    }
+
+    @Override
+    double sum(double[] v, int offset, int length) {
+        int i = 0;
+        int upperBound = SPECIES.loopBound(length);
+        double result = 0;
+        if (upperBound > 0) {
+            DoubleVector acc = DoubleVector.zero(SPECIES);
+            for (; i < upperBound; i += SPECIES.length()) {
+                acc = acc.add(DoubleVector.fromArray(SPECIES, v, offset + i));
+            }
+            result = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < length; ++i) {
+            result += v[offset + i];
+        }
+        return result;
+    }
+
+    @Override
+    void scale(double factor, double[] v, int offset, int length) {
+        int i = 0;
+        int upperBound = SPECIES.loopBound(length);
+        if (upperBound > 0) {
+            DoubleVector f = DoubleVector.broadcast(SPECIES, factor);
+            for (; i < upperBound; i += SPECIES.length()) {
+                DoubleVector.fromArray(SPECIES, v, offset + i).mul(f)
+                        .intoArray(v, offset + i);
+            }
+        }
+        for (; i < length; ++i) {
+            v[offset + i] *= factor;
+        }
+    }
+}